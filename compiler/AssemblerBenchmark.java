@@ -0,0 +1,118 @@
+package compiler;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+import org.antlr.v4.runtime.*;
+import svm.*;
+
+/**
+ * Confronta l'assemblaggio di SVMLexer/SVMParser con quello di Assembler sul
+ * codice generato da programmi FOOL con classi e funzioni, di dimensione
+ * crescente, per il garbage collector e per il reference counting. Per ogni
+ * programma controlla che code, lines, labelDef, stackMaps e objectMaps
+ * coincidano (anche assemblando il file .asm mappato in memoria) e misura il
+ * tempo e i byte allocati da ciascun assemblatore.
+ * Uso: java compiler.AssemblerBenchmark [funzioni massime]
+ */
+public class AssemblerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.println("mode functions     words  ANTLR ms  Assembler ms  speedup  ANTLR KB  Assembler KB");
+        for (boolean refCounting : new boolean[] {false, true}) {
+            for (int n = 500; n <= max; n *= 2) {
+                Pipeline.Result result = new Pipeline(refCounting).compile(program(n));
+                if (result.object == null) throw new IllegalStateException("Benchmark program has errors: "+result);
+                String asm = result.asm();
+                SVMParser parser = antlr(asm);
+                check(parser, assembler(asm), n);
+                Path file = Files.createTempFile("benchmark", ".asm");
+                try {
+                    Files.writeString(file, asm);
+                    check(parser, Assembler.of(file), n);
+                } finally {
+                    Files.delete(file);
+                }
+
+                long antlr = Long.MAX_VALUE, handWritten = Long.MAX_VALUE;
+                long antlrBytes = Long.MAX_VALUE, handWrittenBytes = Long.MAX_VALUE;
+                for (int run = 0; run < 10; run++) {
+                    long bytes = threads.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    antlr(asm);
+                    antlr = Math.min(antlr, System.nanoTime() - start);
+                    antlrBytes = Math.min(antlrBytes, threads.getCurrentThreadAllocatedBytes() - bytes);
+                    bytes = threads.getCurrentThreadAllocatedBytes();
+                    start = System.nanoTime();
+                    assembler(asm);
+                    handWritten = Math.min(handWritten, System.nanoTime() - start);
+                    handWrittenBytes = Math.min(handWrittenBytes, threads.getCurrentThreadAllocatedBytes() - bytes);
+                }
+                System.out.printf(Locale.ROOT, "%4s %9d %9d %9.2f %13.2f %7.1fx %9d %13d%n", refCounting ? "rc" : "gc", n,
+                    parser.code.length, antlr / 1e6, handWritten / 1e6, (double) antlr / handWritten,
+                    antlrBytes / 1024, handWrittenBytes / 1024);
+            }
+        }
+
+        // errori: i caratteri non validi sono contati come dal lexer, le label non definite sono errori
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        Assembler broken = new Assembler("push 1 # push 2 ; add\nb missing\nhalt");
+        broken.diagnostics = discard;
+        broken.assemble();
+        if (broken.lexicalErrors != 2 || broken.syntaxErrors != 1) {
+            throw new IllegalStateException("Unexpected errors on a broken program: "+broken.lexicalErrors+" lexical, "+broken.syntaxErrors+" syntax");
+        }
+    }
+
+    private static SVMParser antlr(String asm) {
+        SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(asm))));
+        parser.assembly();
+        return parser;
+    }
+
+    private static Assembler assembler(String asm) {
+        Assembler assembler = new Assembler(asm);
+        assembler.assemble();
+        return assembler;
+    }
+
+    private static void check(SVMParser parser, Assembler assembler, int n) {
+        if (assembler.lexicalErrors + assembler.syntaxErrors > 0
+            || !Arrays.equals(parser.code, assembler.code) || !Arrays.equals(parser.lines, assembler.lines)
+            || !parser.labelDef.equals(assembler.labelDef)
+            || !same(parser.stackMaps, assembler.stackMaps) || !same(parser.objectMaps, assembler.objectMaps)) {
+            throw new IllegalStateException("Assembler differs from SVMParser on "+n+" functions");
+        }
+    }
+
+    private static boolean same(Map<Integer, int[]> a, Map<Integer, int[]> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (Integer k : a.keySet()) {
+            if (!Arrays.equals(a.get(k), b.get(k))) return false;
+        }
+        return true;
+    }
+
+    // 20 classi (ognuna estende la precedente) con metodi e n funzioni che creano oggetti e chiamano la precedente
+    private static String program(int n) {
+        StringBuilder source = new StringBuilder("let\n");
+        for (int c = 0; c < 20; c++) {
+            source.append("  class C").append(c).append(c == 0 ? "" : " extends C" + (c - 1))
+                  .append(" (x").append(c).append(":int) { fun m").append(c).append(":int (y:int) y + ").append(c).append("; }\n");
+        }
+        for (int i = 0; i < n; i++) {
+            int c = i % 20;
+            source.append("  fun f").append(i).append(":int (x:int)\n")
+                  .append("    let var o:C").append(c).append(" = new C").append(c).append("(");
+            for (int k = 0; k <= c; k++) source.append(k == 0 ? "" : ", ").append("x");
+            source.append(");\n")
+                  .append("    in if (x <= 0) then { o.m").append(c).append("(x) } else { ")
+                  .append(i == 0 ? "x" : "f" + (i - 1) + "(x - 1)").append(" + o.m").append(c).append("(x) };\n");
+        }
+        return source.append("in print(f").append(n - 1).append("(10));\n").toString();
+    }
+}
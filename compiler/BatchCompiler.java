@@ -0,0 +1,152 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import org.antlr.v4.runtime.*;
+
+/**
+ * Compilazione in parallelo di molti file FOOL indipendenti, ad esempio in CI.
+ * Ogni file e' compilato da Pipeline (parsing, AST, tabella dei simboli, type
+ * checking, generazione e assemblaggio del codice) su un pool fork-join; le
+ * diagnostiche di ogni file vengono raccolte e stampate nell'ordine dei file
+ * (ordinati per percorso), indipendentemente dall'ordine di completamento.
+ * Al termine stampa il throughput in file/s e il tempo medio per file di ogni fase.
+ *
+ * Uso: java compiler.BatchCompiler [-rc] [-asm] [-pratt] [-call] [-tailcalls] [-display] [-nofold] [-j thread] [-cache dir] directory|file.fool|@lista ...
+ * Le directory sono visitate ricorsivamente cercando i file .fool; @lista indica
+ * un file di testo con un percorso per riga. Con -asm il codice di ogni file
+ * compilato senza errori e' scritto accanto al sorgente (file.fool.asm).
+ * Con -pratt l'AST e' costruito da PrattParser invece che dal front-end ANTLR.
+ * -call, -tailcalls e -display attivano le istruzioni di chiamata, l'eliminazione
+ * delle chiamate in coda e il display di CodeGenerationASTVisitor; -nofold
+ * disattiva la fase di constant folding.
+ * Con -cache i file non modificati vengono presi da una CompilationCache nella
+ * directory indicata. Termina con stato 1 se almeno un file ha errori.
+ */
+public class BatchCompiler {
+
+    /** Esito della compilazione di un file. */
+    private static class Outcome {
+        final Path file;
+        final Pipeline.Result result;
+        final String failure; // eccezione del compilatore o di I/O, null se assente
+
+        Outcome(Path file, Pipeline.Result result, String failure) {
+            this.file = file;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        boolean ok() {
+            return failure == null && result.object != null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CodeGenerationASTVisitor.Options options = new CodeGenerationASTVisitor.Options().gcMaps(true).conditionCodes(true).constantFolding(true);
+        boolean writeAsm = false;
+        boolean prattParser = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-rc")) options.gcMaps(false).refCounting(true);
+            else if (args[i].equals("-asm")) writeAsm = true;
+            else if (args[i].equals("-pratt")) prattParser = true;
+            else if (args[i].equals("-call")) options.callInstructions(true);
+            else if (args[i].equals("-tailcalls")) options.tailCallElimination(true);
+            else if (args[i].equals("-display")) options.display(true);
+            else if (args[i].equals("-nofold")) options.constantFolding(false);
+            else if (args[i].equals("-j")) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-cache")) cacheDir = args[++i];
+            else paths.add(args[i]);
+        }
+        if (paths.isEmpty()) {
+            System.out.println("Usage: java compiler.BatchCompiler [-rc] [-asm] [-pratt] [-call] [-tailcalls] [-display] [-nofold] [-j threads] [-cache dir] directory|file.fool|@list ...");
+            System.exit(1);
+        }
+
+        List<Path> files = sources(paths);
+        Pipeline pipeline = new Pipeline(options, prattParser);
+        CompilationCache cache = cacheDir == null ? null : new CompilationCache(Paths.get(cacheDir), CompilationCache.DEFAULT_MAX_SIZE);
+        boolean asm = writeAsm;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Outcome> outcomes;
+        try {
+            // lo stream parallelo gira sul pool e collect() conserva l'ordine dei file
+            outcomes = pool.submit(() -> files.parallelStream()
+                .map(file -> compile(pipeline, cache, file, asm))
+                .collect(Collectors.toList())).get();
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int failed = 0;
+        long[] phaseNanos = new long[Pipeline.PHASES.length];
+        for (Outcome outcome : outcomes) {
+            if (outcome.result != null) {
+                for (int p = 0; p < phaseNanos.length; p++) phaseNanos[p] += outcome.result.phaseNanos[p];
+            }
+            if (outcome.ok()) continue;
+            failed++;
+            System.out.println(outcome.file+":");
+            if (outcome.failure != null) {
+                System.out.println("  "+outcome.failure);
+                continue;
+            }
+            for (String line : outcome.result.diagnostics.split("\n")) {
+                if (!line.isEmpty()) System.out.println("  "+line);
+            }
+            System.out.println("  You had "+outcome.result+".");
+        }
+
+        int n = outcomes.size();
+        System.out.printf(Locale.ROOT, "%d files compiled on %d threads in %.1f ms: %d with errors, %.1f files/s%n",
+            n, threads, elapsed / 1e6, failed, n / (elapsed / 1e9));
+        for (int p = 0; p < phaseNanos.length; p++) {
+            System.out.printf(Locale.ROOT, "  %-16s %8.3f ms/file%n", Pipeline.PHASES[p], n == 0 ? 0 : phaseNanos[p] / 1e6 / n);
+        }
+        if (cache != null) System.out.println("Cache: "+cache+".");
+        if (failed > 0) System.exit(1);
+    }
+
+    private static Outcome compile(Pipeline pipeline, CompilationCache cache, Path file, boolean writeAsm) {
+        Pipeline.Result result = null;
+        try {
+            result = cache == null ? pipeline.compile(CharStreams.fromPath(file))
+                : cache.compile(pipeline, Files.readString(file));
+            if (writeAsm && result.object != null) {
+                Files.writeString(Paths.get(file+".asm"), result.asm());
+            }
+            return new Outcome(file, result, null);
+        } catch (IOException | RuntimeException e) {
+            return new Outcome(file, result, e.toString());
+        }
+    }
+
+    // file .fool indicati, in ordine di percorso e senza ripetizioni
+    private static List<Path> sources(List<String> paths) throws IOException {
+        SortedSet<Path> files = new TreeSet<>();
+        for (String path : paths) {
+            if (path.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(path.substring(1)))) {
+                    if (!line.isBlank()) files.add(Paths.get(line.trim()).normalize());
+                }
+            } else if (Files.isDirectory(Paths.get(path))) {
+                try (Stream<Path> walk = Files.walk(Paths.get(path))) {
+                    walk.filter(f -> f.toString().endsWith(".fool") && Files.isRegularFile(f))
+                        .forEach(f -> files.add(f.normalize()));
+                }
+            } else {
+                files.add(Paths.get(path).normalize());
+            }
+        }
+        return new ArrayList<>(files);
+    }
+}
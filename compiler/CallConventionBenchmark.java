@@ -0,0 +1,53 @@
+package compiler;
+
+import java.util.*;
+
+import compiler.lib.*;
+import compiler.CodeGenerationASTVisitor.Options;
+import svm.*;
+
+import static compiler.EngineHarness.*;
+
+/**
+ * Confronta le due convenzioni di chiamata di CodeGenerationASTVisitor: le
+ * sequenze originali (cfp; lra; ... sfp; ltm; lra; js) e le istruzioni call,
+ * vcall, enter e ret. Su programmi con funzioni ricorsive, funzioni annidate
+ * (access link) e metodi, per il garbage collector e per il reference counting,
+ * controlla che l'output sia lo stesso con tutte le modalita' di esecuzione e
+ * misura la dimensione del codice e il tempo di cpu() e cpuThreaded().
+ * Uso: java compiler.CallConventionBenchmark [n di fib]
+ */
+public class CallConventionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 27;
+        String source = "let\n"
+            + "  class Acc (v:int) { fun add:int (x:int) v + x; }\n"
+            + "  class Twice extends Acc (w:int) { fun add:int (x:int) v + w + x; }\n"
+            + "  fun fib:int (n:int) if (n <= 1) then { n } else { fib(n - 1) + fib(n - 2) };\n"
+            + "  fun sum:int (n:int, a:Acc)\n"
+            + "    let fun step:int (k:int) a.add(k);\n"
+            + "        var b:Acc = new Twice(n, 1);\n"
+            + "    in if (n <= 0) then { 0 } else { step(n) + b.add(0) + sum(n - 1, a) };\n"
+            + "in print(fib(" + n + ") + sum(500, new Acc(1)));\n";
+        Node ast = Pipeline.frontEnd(source);
+
+        System.out.println("mode  convention   words  cpu ms  cpuThreaded ms");
+        for (boolean refCounting : new boolean[] {false, true}) {
+            String expected = null;
+            for (boolean callInstructions : new boolean[] {false, true}) {
+                ObjectFile object = compile(ast, Options.heap(refCounting).conditionCodes(true).callInstructions(callInstructions));
+                if (expected == null) expected = run(object, ExecuteVM::cpu);
+                sameOnAllEngines(object, expected, "the "+(callInstructions ? "call" : "original")+" convention"
+                    +(refCounting ? " (rc)" : ""));
+                long cpu = Long.MAX_VALUE, threaded = Long.MAX_VALUE;
+                for (int run = 0; run < 10; run++) {
+                    cpu = Math.min(cpu, time(object, ExecuteVM::cpu));
+                    threaded = Math.min(threaded, time(object, ExecuteVM::cpuThreaded));
+                }
+                System.out.printf(Locale.ROOT, "%4s  %-10s %7d %7.2f %15.2f%n", refCounting ? "rc" : "gc",
+                    callInstructions ? "call/ret" : "original", object.code.length, cpu / 1e6, threaded / 1e6);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package compiler;
+
+import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
+
+/**
+ * Misura il tempo della generazione del codice (CodeGenerationASTVisitor e
+ * Peephole) su programmi generati con un numero crescente di funzioni: con il
+ * buffer di emissione il tempo per funzione deve restare circa costante.
+ * Uso: java compiler.CodeGenBenchmark [funzioni massime]
+ */
+public class CodeGenBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 16000;
+        System.out.println("functions      lines    ms   us/function");
+        for (int n = 1000; n <= max; n *= 2) {
+            Node ast = Pipeline.frontEnd(program(n));
+            long best = Long.MAX_VALUE;
+            int lines = 0;
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                lines = Peephole.optimize(new CodeGenerationASTVisitor(new CompilationContext(), new CodeGenerationASTVisitor.Options().gcMaps(true).conditionCodes(true)).generate(ast).lines()).size();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%9d %10d %5d %13.2f%n", n, lines, best / 1000000, best / 1000.0 / n);
+        }
+    }
+
+    // n funzioni, ciascuna con un let annidato e una chiamata alla precedente
+    private static String program(int n) {
+        StringBuilder source = new StringBuilder("let\n");
+        for (int i = 0; i < n; i++) {
+            source.append("  fun f").append(i).append(":int (x:int)\n")
+                  .append("    let fun g:int (y:int) y * ").append(i).append(";\n")
+                  .append("    in if (x <= 0) then { g(x) } else { ")
+                  .append(i == 0 ? "x" : "f" + (i - 1) + "(x - 1)").append(" + g(x) };\n");
+        }
+        return source.append("in print(f").append(n - 1).append("(10));\n").toString();
+    }
+}
@@ -3,21 +3,264 @@ package compiler;
 import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
-import svm.ExecuteVM;
+import compiler.TypeRels.CompilationContext;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-
-import static compiler.lib.FOOLlib.*;
+import java.util.Set;
 
 public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
 
+    /**
+     * Codice generato: le righe (istruzioni, label e direttive) vengono aggiunte in
+     * coda in tempo costante, e il testo viene prodotto solo da toString().
+     */
+    public static class CodeBuffer {
+        private final List<String> lines = new ArrayList<>();
+
+        void add(String line) {
+            lines.add(line);
+        }
+
+        void addAll(CodeBuffer other) {
+            lines.addAll(other.lines);
+        }
+
+        public List<String> lines() {
+            return lines;
+        }
+
+        @Override
+        public String toString() {
+            return String.join("\n", lines);
+        }
+    }
+
+    /**
+     * Opzioni della generazione del codice, tutte disattivate per default (codice
+     * per la SVM originale, senza mappe ne' istruzioni aggiunte); i metodi
+     * restituiscono l'oggetto stesso, per impostarle in sequenza. Le modalita'
+     * sono descritte accanto ai campi omonimi del visitor.
+     */
+    public static class Options {
+        boolean debug = false;
+        boolean gcMaps = false;
+        boolean refCounting = false;
+        boolean callInstructions = false;
+        boolean tailCallElimination = false;
+        boolean display = false;
+        boolean conditionCodes = false;
+        boolean constantFolding = false;
+
+        /** Mappe per il garbage collector, o il reference counting se refCounting. */
+        public static Options heap(boolean refCounting) {
+            return new Options().gcMaps(!refCounting).refCounting(refCounting);
+        }
+
+        public Options debug(boolean debug) {
+            this.debug = debug;
+            return this;
+        }
+
+        public Options gcMaps(boolean gcMaps) {
+            this.gcMaps = gcMaps;
+            return this;
+        }
+
+        public Options refCounting(boolean refCounting) {
+            this.refCounting = refCounting;
+            return this;
+        }
+
+        public Options callInstructions(boolean callInstructions) {
+            this.callInstructions = callInstructions;
+            return this;
+        }
+
+        public Options tailCallElimination(boolean tailCallElimination) {
+            this.tailCallElimination = tailCallElimination;
+            return this;
+        }
+
+        public Options display(boolean display) {
+            this.display = display;
+            return this;
+        }
+
+        public Options conditionCodes(boolean conditionCodes) {
+            this.conditionCodes = conditionCodes;
+            return this;
+        }
+
+        /** AST semplificato da ConstantFoldingEASTVisitor prima della generazione (fase a parte di Pipeline). */
+        public Options constantFolding(boolean constantFolding) {
+            this.constantFolding = constantFolding;
+            return this;
+        }
+
+        public boolean constantFolding() {
+            return constantFolding;
+        }
+
+        public boolean refCounting() {
+            return refCounting;
+        }
+
+        /** Le opzioni attive (per esempio nella chiave di CompilationCache); debug non cambia il codice. */
+        @Override
+        public String toString() {
+            return (gcMaps ? "gcMaps " : "")+(refCounting ? "refCounting " : "")+(callInstructions ? "callInstructions " : "")
+                +(tailCallElimination ? "tailCallElimination " : "")+(display ? "display " : "")
+                +(conditionCodes ? "conditionCodes " : "")+(constantFolding ? "constantFolding " : "");
+        }
+    }
+
+    // visitando l'albero il codice viene accodato a code: il programma principale
+    // o la funzione in generazione; il codice delle funzioni completate e' in functions
+    private CodeBuffer code = new CodeBuffer();
+    private final CodeBuffer functions = new CodeBuffer();
+    private boolean textOutput = true; // visit(ast) restituisce il testo del programma
+
     private final List<List<String>> dispatchTables = new ArrayList<>();
+    // indirizzi delle dispatch table, costruite in ordine all'inizio dello heap (dopo il display):
+    // la new li usa direttamente senza passare dalle variabili globali delle classi
+    private final List<Integer> dispatchTableAddresses = new ArrayList<>();
+    private int dispatchTablesSize = 0;
+
+    /*
+     * Modalità con mappe per il garbage collector (svm.GarbageCollector): ogni new
+     * è preceduta da "alloc n" e per ogni punto in cui può avvenire una raccolta
+     * (dopo alloc e dopo js) viene emessa una direttiva stackmap con gli slot del
+     * frame che contengono riferimenti; per ogni classe una direttiva objmap.
+     * Per tenere traccia dei temporanei, frameSlots contiene gli slot occupati
+     * sotto ra nel frame corrente (true se riferimento).
+     */
+    private final boolean gcMaps;
+    private List<Boolean> frameSlots = new ArrayList<>();
+    private String frameHeader = "-1"; // parametri e slot riferimento fra AL e parametri
+
+    /*
+     * Modalità reference counting (svm.ReferenceCounter): ogni new è preceduta da
+     * "alloc n" e ogni classe ha la sua direttiva objmap, come per il garbage
+     * collector; ogni riferimento prodotto da un'espressione è "posseduto" da chi
+     * lo consuma. La lettura di una variabile, parametro o campo riferimento è
+     * seguita da "inc"; i riferimenti delle variabili e dei parametri ricevono una
+     * "dec" quando vengono tolti dallo stack all'uscita da funzioni e metodi, e gli
+     * operandi di un confronto fra riferimenti dopo essere stati valutati.
+     * Il riferimento all'oggetto su cui è invocato un metodo (access link) non
+     * viene contato: resta valido perché è nella variabile da cui è stato letto.
+     */
+    private final boolean refCounting;
+
+    /*
+     * Modalità con le istruzioni di chiamata della SVM: una chiamata termina con
+     * "call k" (funzione all'offset k dall'access link) o "vcall k" (metodo
+     * all'offset k della dispatch table) invece di "stm; ltm; ltm; ...; js", una
+     * funzione inizia con "enter" invece di "cfp; lra" e termina con "ret n"
+     * (n parametri), che toglie l'intero frame a partire da fp. Il layout del frame
+     * e gli offset sono gli stessi, quindi anche le mappe per il garbage collector;
+     * con il reference counting le variabili e i parametri riferimento ricevono la
+     * loro "dec" prima della ret, rileggendoli dal frame.
+     */
+    private final boolean callInstructions;
+
+    /*
+     * Eliminazione delle chiamate ricorsive in coda: una chiamata della funzione
+     * in generazione il cui risultato e' quello della funzione (vedi tailCalls())
+     * riusa il frame corrente invece di crearne uno nuovo: i nuovi argomenti
+     * prendono il posto dei parametri, le variabili locali vengono tolte e si
+     * salta all'inizio del corpo, dopo l'ingresso, per cui una ricorsione in coda
+     * usa uno stack costante. Lo stesso per un metodo che richiama se stesso su un
+     * oggetto, sostituendo anche l'access link (l'oggetto): il frame viene riusato
+     * solo se la dispatch table dell'oggetto porta proprio a questo metodo, e con
+     * il reference counting no, perche' l'access link non e' contato.
+     */
+    private final boolean tailCallElimination;
+    private Frame frame; // funzione o metodo in generazione (null nel programma principale)
+
+    /*
+     * Modalità con display: le variabili, i parametri e le funzioni di uno scope
+     * esterno vengono raggiunti in tempo costante invece di risalire la catena
+     * degli access link (una lw per livello). Il frame globale ha sempre fp = -1;
+     * per gli altri livelli il display, in celle all'inizio dello heap prima delle
+     * dispatch table (cella level-1 per il nesting level level), contiene il fp
+     * dell'ultimo frame attivo del livello. Un livello di distanza resta
+     * l'access link, che e' in fp, per cui aggiornano la loro cella solo le
+     * funzioni e i metodi con funzioni annidate su almeno due livelli (le sole
+     * che possono leggerla): all'ingresso ne salvano il valore nel frame, a
+     * offset -2 (le dichiarazioni seguono da -3), e la impostano a fp; all'uscita
+     * la ripristinano.
+     * Un oggetto (l'access link dei metodi) si raggiunge dal frame del metodo.
+     */
+    private final boolean display;
+
+    /*
+     * Modalità con i confronti e gli operatori booleani della SVM che producono un
+     * valore (eq, lt, le, ge, not, and, or) e con i salti bneq, blt e bgt (vedi
+     * jump() e materialize()); senza, il codice usa solo beq, bleq e b, e il
+     * valore di una condizione viene prodotto saltando a una di due push.
+     */
+    private final boolean conditionCodes;
+    // per ogni nesting level del codice in generazione la sua funzione o il suo
+    // metodo (null per il programma principale e per le classi)
+    private final List<Frame> levels = new ArrayList<>();
+
+    private static class Frame {
+        final String label;          // indirizzo della funzione
+        final String body;           // inizio del corpo, destinazione delle chiamate in coda
+        final List<ParNode> parList;
+        final List<DecNode> decList;
+        final Set<Node> tailCalls;   // chiamate ricorsive in coda, compilate riusando il frame
+        final int displayCell;       // cella del display aggiornata dalla funzione (-1 se nessuna)
+
+        Frame(String label, String body, List<ParNode> parList, List<DecNode> decList, Set<Node> tailCalls,
+              int displayCell) {
+            this.label = label;
+            this.body = body;
+            this.parList = parList;
+            this.decList = decList;
+            this.tailCalls = tailCalls;
+            this.displayCell = displayCell;
+        }
+
+        // offset da fp dello slot della i-esima dichiarazione
+        int declaration(int i) {
+            return displayCell < 0 ? -2 - i : -3 - i;
+        }
+    }
+
+    private final CompilationContext context; // label fresche della compilazione
+
+    // solo per il Test originale, che crea i visitor senza argomenti (vedi
+    // simulate-prof-test.yml): il resto del compilatore passa sempre il contesto
+    CodeGenerationASTVisitor() {
+        this(new CompilationContext());
+    }
+
+    CodeGenerationASTVisitor(CompilationContext context) {
+        this(context, new Options());
+    }
 
-    CodeGenerationASTVisitor() {}
+    CodeGenerationASTVisitor(CompilationContext context, Options options) {
+        super(false, options.debug);
+        this.context = context;
+        gcMaps = options.gcMaps;
+        refCounting = options.refCounting;
+        callInstructions = options.callInstructions;
+        tailCallElimination = options.tailCallElimination;
+        display = options.display;
+        conditionCodes = options.conditionCodes;
+    }
 
-    CodeGenerationASTVisitor(boolean debug) {
-        super(false, debug);
+    /**
+     * Genera il codice del programma ast (ProgLetInNode o ProgNode) e ne restituisce
+     * il buffer, senza produrne il testo; visit(ast) restituisce invece il testo.
+     */
+    public CodeBuffer generate(Node ast) {
+        textOutput = false;
+        visit(ast);
+        return code;
     }
 
     @Override
@@ -25,17 +268,20 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String decListCode = null;
+        if (display) {
+            dispatchTablesSize = displayCells(node.decList, 1); // le dispatch table seguono il display
+            if (dispatchTablesSize > 0) emit("push " + dispatchTablesSize, "shp");
+        }
+        levels.add(null);
+        emit("push 0");
         for (Node declaration : node.decList) {
-            decListCode = nlJoin(decListCode, visit(declaration));
+            visit(declaration);
+            hold(declaration);
         }
-        return nlJoin(
-                "push 0",
-                decListCode,
-                visit(node.exp),
-                "halt",
-                getCode()
-        );
+        visit(node.exp);
+        emit("halt");
+        code.addAll(functions);
+        return textOutput ? code.toString() : null;
     }
 
     @Override
@@ -43,10 +289,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.exp),
-                "halt"
-        );
+        visit(node.exp);
+        emit("halt");
+        return textOutput ? code.toString() : null;
     }
 
     @Override
@@ -54,7 +299,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.id);
         }
-        return visit(node.exp);
+        visit(node.exp);
+        return null;
     }
 
     @Override
@@ -62,38 +308,10 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.id);
         }
-        String decListCode = null;
-        String popDecList = null;
-        String popParList = null;
-
-        for (Node declaration : node.decList) {
-            decListCode = nlJoin(decListCode, visit(declaration));
-            popDecList = nlJoin(popDecList, "pop");
-        }
-        for (int i = 0; i < node.parList.size(); i++) {
-            popParList = nlJoin(popParList, "pop");
-        }
-
-        String functionLabel = freshFunLabel();
-        putCode(
-                nlJoin(
-                        functionLabel + ":",
-                        "cfp",
-                        "lra",
-                        decListCode,
-                        visit(node.exp),
-                        "stm",
-                        popDecList,
-                        "sra",
-                        "pop",
-                        popParList,
-                        "sfp",
-                        "ltm",
-                        "lra",
-                        "js"
-                )
-        );
-        return "push " + functionLabel;
+        String functionLabel = context.freshFunLabel();
+        function(node, functionLabel, node.parList, node.decList, node.exp, false);
+        emit("push " + functionLabel);
+        return null;
     }
 
     @Override
@@ -101,17 +319,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.id);
         }
-        String getActivationRecordCode = null;
-        for (int i = 0; i < node.nl - node.entry.nl; i++) {
-            getActivationRecordCode = nlJoin(getActivationRecordCode, "lw");
+        frameAt(node.nl, node.entry.nl);
+        emit("push " + offset(node.entry), "add", "lw");
+        if (refCounting && isRef(node)) {
+            emit("inc");
         }
-        return nlJoin(
-                "lfp",
-                getActivationRecordCode,
-                "push " + node.entry.offset,
-                "add",
-                "lw"
-        );
+        return null;
     }
 
     @Override
@@ -119,34 +332,34 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.id);
         }
-
-        String argumentsCode = null;
-        for (int i = node.argList.size() - 1; i >= 0; i--) {
-            argumentsCode = nlJoin(argumentsCode, visit(node.argList.get(i)));
+        if (frame != null && frame.tailCalls.contains(node)) {
+            for (int i = node.argList.size() - 1; i >= 0; i--) {
+                visit(node.argList.get(i));
+                hold(node.argList.get(i));
+            }
+            release(node.argList.size());
+            if (refCounting) releaseFrame();
+            reuseFrame();
+            return null;
         }
-
-        String getActivationRecordCode = null;
-        for (int i = 0; i < node.nl - node.entry.nl; i++) {
-            getActivationRecordCode = nlJoin(getActivationRecordCode, "lw");
+        emit("lfp");
+        arguments(node.argList);
+        frameAt(node.nl, node.entry.nl);
+        if (callInstructions) {
+            emit("call " + offset(node.entry));
+        } else {
+            emit(
+                    "stm",
+                    "ltm",
+                    "ltm",
+                    "push " + offset(node.entry),
+                    "add",
+                    "lw",
+                    "js"
+            );
         }
-
-        String commonCode = nlJoin(
-                "lfp",
-                argumentsCode,
-                "lfp",
-                getActivationRecordCode,
-                "stm",
-                "ltm",
-                "ltm"
-        );
-
-        return nlJoin(
-                commonCode,
-                "push " + node.entry.offset,
-                "add",
-                "lw",
-                "js"
-        );
+        returnMap();
+        return null;
     }
 
     @Override
@@ -154,10 +367,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.exp),
-                "print"
-        );
+        visit(node.exp);
+        emit("print");
+        return null;
     }
 
     @Override
@@ -165,18 +377,14 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.cond),
-                "push 1",
-                "beq " + label1,
-                visit(node.el),
-                "b " + label2,
-                label1 + ":",
-                visit(node.th),
-                label2 + ":"
-        );
+        String label1 = context.freshLabel();
+        String label2 = context.freshLabel();
+        jump(node.cond, true, label1);
+        visit(node.el);
+        emit("b " + label2, label1 + ":");
+        visit(node.th);
+        emit(label2 + ":");
+        return null;
     }
 
     @Override
@@ -184,18 +392,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "beq " + label1,
-                "push 0",
-                "b " + label2,
-                label1 + ":",
-                "push 1",
-                label2 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -203,26 +401,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        String label3 = freshLabel();
-        String label4 = freshLabel();
-        return nlJoin(
-                visit(node.l),
-                "push 0",
-                "beq " + label1,
-                "b " + label2,
-                label1 + ":",
-                visit(node.r),
-                "push 0",
-                "beq " + label3,
-                label2 + ":",
-                "push 1",
-                "b " + label4,
-                label3 + ":",
-                "push 0",
-                label4 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -230,21 +410,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.l),
-                "push 0",
-                "beq " + label1,
-                visit(node.r),
-                "push 0",
-                "beq " + label1,
-                "push 1",
-                "b " + label2,
-                label1 + ":",
-                "push 0",
-                label2 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -252,18 +419,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.exp),
-                "push 0",
-                "beq " + label1,
-                "push 0",
-                "b " + label2,
-                label1 + ":",
-                "push 1",
-                label2 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -271,18 +428,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "bleq " + label1,
-                "push 0",
-                "b " + label2,
-                label1 + ":",
-                "push 1",
-                label2 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -290,20 +437,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        String label1 = freshLabel();
-        String label2 = freshLabel();
-        return nlJoin(
-                visit(node.r),
-                visit(node.l),
-                "sub",
-                "push 0",
-                "bleq " + label1,
-                "push 0",
-                "b " + label2,
-                label1 + ":",
-                "push 1",
-                label2 + ":"
-        );
+        materialize(node);
+        return null;
     }
 
     @Override
@@ -311,11 +446,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "mult"
-        );
+        operands(node.l, node.r);
+        emit("mult");
+        return null;
     }
 
     @Override
@@ -323,11 +456,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "div"
-        );
+        operands(node.l, node.r);
+        emit("div");
+        return null;
     }
 
     @Override
@@ -335,11 +466,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "add"
-        );
+        operands(node.l, node.r);
+        emit("add");
+        return null;
     }
 
     @Override
@@ -347,11 +476,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return nlJoin(
-                visit(node.l),
-                visit(node.r),
-                "sub"
-        );
+        operands(node.l, node.r);
+        emit("sub");
+        return null;
     }
 
     @Override
@@ -362,12 +489,14 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 
         List<String> dispatchTable = new ArrayList<>();
         dispatchTables.add(dispatchTable);
+        dispatchTableAddresses.add(dispatchTablesSize);
 
         if (node.superID != null) {
             List<String> superClassDispatchTable = dispatchTables.get(-node.superEntry.offset - 2);
             dispatchTable.addAll(superClassDispatchTable);
         }
 
+        levels.add(null); // i metodi hanno come access link l'oggetto
         for (int i = 0; i < node.methods.size(); i++) {
             MethodNode method = node.methods.get(i);
             visit(method);
@@ -381,11 +510,26 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
                 dispatchTable.add(method.label);
             }
         }
+        levels.remove(levels.size() - 1);
 
-        String createDispatchTable = null;
+        emit("lhp");
+        String objectMap = null;
+        if (gcMaps || refCounting) {
+            // una tabella vuota occuperebbe zero celle: il dispatch pointer non identificherebbe la classe
+            if (dispatchTable.isEmpty()) {
+                emit("push 0", "lhp", "sw", "lhp", "push 1", "add", "shp");
+            }
+            StringBuilder refFields = new StringBuilder();
+            List<TypeNode> fields = node.type.allFields;
+            for (int i = 0; i < fields.size(); i++) {
+                if (fields.get(i) instanceof RefTypeNode) refFields.append(" ").append(-i - 1);
+            }
+            objectMap = "objmap " + dispatchTablesSize + " " + Math.max(dispatchTable.size(), 1)
+                    + " " + fields.size() + refFields;
+        }
+        dispatchTablesSize += (gcMaps || refCounting) ? Math.max(dispatchTable.size(), 1) : dispatchTable.size();
         for (String label : dispatchTable) {
-            createDispatchTable = nlJoin(
-                    createDispatchTable,
+            emit(
                     "push " + label,
                     "lhp",
                     "sw",
@@ -395,11 +539,10 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
                     "shp"
             );
         }
-
-        return nlJoin(
-                "lhp",
-                createDispatchTable
-        );
+        if (objectMap != null) {
+            emit(objectMap);
+        }
+        return null;
     }
 
     @Override
@@ -407,41 +550,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.id);
         }
-
-        String decListCode = null;
-        String popDecList = null;
-
-        for (Node declaration : node.decList) {
-            decListCode = nlJoin(decListCode, visit(declaration));
-            popDecList = nlJoin(popDecList, "pop");
-        }
-
-        String popParList = null;
-        for (int i = 0; i < node.parList.size(); i++) {
-            popParList = nlJoin(popParList, "pop");
-        }
-
-        String functionLabel = freshFunLabel();
-        node.label = functionLabel;
-
-        putCode(
-                nlJoin(
-                        functionLabel + ":",
-                        "cfp",
-                        "lra",
-                        decListCode,
-                        visit(node.exp),
-                        "stm",
-                        popDecList,
-                        "sra",
-                        "pop",
-                        popParList,
-                        "sfp",
-                        "ltm",
-                        "lra",
-                        "js"
-                )
-        );
+        node.label = context.freshFunLabel();
+        function(node, node.label, node.parList, node.decList, node.exp, true);
         return null;
     }
 
@@ -450,34 +560,52 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.objId + "." + node.methId);
         }
-
-        String argumentsCode = null;
-        for (int i = node.argList.size() - 1; i >= 0; i--) {
-            argumentsCode = nlJoin(argumentsCode, visit(node.argList.get(i)));
-        }
-
-        String getActivationRecordCode = null;
-        for (int i = 0; i < node.nl - node.entry.nl; i++) {
-            getActivationRecordCode = nlJoin(getActivationRecordCode, "lw");
-        }
-
-        return nlJoin(
-                "lfp",
-                argumentsCode,
-                "lfp",
-                getActivationRecordCode,
-                "push " + node.entry.offset,
-                "add",
-                "lw",
-                "stm",
-                "ltm",
-                "ltm",
-                "lw",
-                "push " + node.methodEntry.offset,
+        emit("lfp");
+        arguments(node.argList);
+        frameAt(node.nl, node.entry.nl);
+        emit(
+                "push " + offset(node.entry),
                 "add",
-                "lw",
-                "js"
+                "lw"
         );
+        if (frame != null && frame.tailCalls.contains(node)) {
+            // se il metodo dell'oggetto e' questo: oggetto al posto dell'access link,
+            // argomenti al posto dei parametri, control link tolto
+            String call = context.freshLabel();
+            emit(
+                    "stm",
+                    "ltm",
+                    "ltm",
+                    "lw",
+                    "push " + node.methodEntry.offset,
+                    "add",
+                    "lw",
+                    "push " + frame.label
+            );
+            branch(false, "beq", "bneq", call);
+            emit(
+                    "lfp",
+                    "sw"
+            );
+            reuseFrame(1);
+            emit(call + ":");
+        }
+        if (callInstructions) {
+            emit("vcall " + node.methodEntry.offset);
+        } else {
+            emit(
+                    "stm",
+                    "ltm",
+                    "ltm",
+                    "lw",
+                    "push " + node.methodEntry.offset,
+                    "add",
+                    "lw",
+                    "js"
+            );
+        }
+        returnMap();
+        return null;
     }
 
     @Override
@@ -486,15 +614,21 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
             printNode(node, node.id);
         }
 
-        String putArgumentsOnStack = null;
         for (Node argument : node.argList) {
-            putArgumentsOnStack = nlJoin(putArgumentsOnStack, visit(argument));
+            visit(argument);
+            hold(argument);
         }
 
-        String loadArgumentsOnHeap = null;
+        if (gcMaps) {
+            String label = context.freshLabel();
+            emit("alloc " + (node.argList.size() + 1), label + ":", stackMap(label));
+        } else if (refCounting) {
+            emit("alloc " + (node.argList.size() + 1));
+        }
+        release(node.argList.size());
+
         for (int i = 0; i < node.argList.size(); i++) {
-            loadArgumentsOnHeap = nlJoin(
-                    loadArgumentsOnHeap,
+            emit(
                     "lhp",
                     "sw",
                     "lhp",
@@ -504,13 +638,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
             );
         }
 
-        return nlJoin(
-                putArgumentsOnStack,
-                loadArgumentsOnHeap,
-                "push " + ExecuteVM.MEMSIZE,
-                "push " + node.entry.offset,
-                "add",
-                "lw",
+        emit(
+                "push " + dispatchTableAddresses.get(-node.entry.offset - 2),
                 "lhp",
                 "sw",
                 "lhp",
@@ -519,6 +648,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
                 "add",
                 "shp"
         );
+        return null;
     }
 
     @Override
@@ -526,7 +656,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.val.toString());
         }
-        return "push " + (node.val ? 1 : 0);
+        emit("push " + (node.val ? 1 : 0));
+        return null;
     }
 
     @Override
@@ -534,7 +665,8 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node, node.val.toString());
         }
-        return "push " + node.val;
+        emit("push " + node.val);
+        return null;
     }
 
     @Override
@@ -542,6 +674,460 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         if (print) {
             printNode(node);
         }
-        return "push -1";
+        emit("push -1");
+        return null;
+    }
+
+    // aggiunge righe in coda al codice in costruzione
+    private void emit(String... lines) {
+        for (String line : lines) code.add(line);
+    }
+
+    /*
+     * Codice di una funzione o di un metodo, generato in un buffer a parte e poi
+     * accodato alla sezione delle funzioni (preceduto da una riga vuota): il codice
+     * delle funzioni annidate vi finisce prima di quello della funzione che le contiene.
+     */
+    private void function(DecNode node, String label, List<ParNode> parList, List<DecNode> decList, Node exp,
+                          boolean method) {
+        CodeBuffer outerCode = code;
+        List<Boolean> outerSlots = frameSlots;
+        String outerHeader = frameHeader;
+        Frame outerFrame = frame;
+        code = new CodeBuffer();
+        frameSlots = new ArrayList<>();
+        frameHeader = frameHeader(parList, method);
+        Set<Node> tailCalls = new HashSet<>();
+        if (tailCallElimination) tailCalls(exp, node, tailCalls);
+        frame = new Frame(label, tailCalls.isEmpty() ? null : context.freshLabel(), parList, decList, tailCalls,
+                display && readsDisplay(decList) ? levels.size() - 1 : -1);
+        levels.add(frame);
+
+        if (callInstructions) {
+            emit(label + ":", "enter");
+        } else {
+            emit(label + ":", "cfp", "lra");
+        }
+        if (frame.displayCell >= 0) { // valore precedente della cella a offset -2, fp nella cella
+            emit("push " + frame.displayCell, "lw", "lfp", "push " + frame.displayCell, "sw");
+            hold(false);
+        }
+        if (frame.body != null) {
+            emit(frame.body + ":");
+        }
+        for (DecNode declaration : decList) {
+            visit(declaration);
+            hold(declaration);
+        }
+        visit(exp);
+        if (callInstructions) {
+            ret(parList, decList);
+        } else {
+            epilogue(parList, decList);
+        }
+
+        functions.add("");
+        functions.addAll(code);
+        code = outerCode;
+        frameSlots = outerSlots;
+        frameHeader = outerHeader;
+        frame = outerFrame;
+        levels.remove(levels.size() - 1);
+    }
+
+    // uscita da una funzione con le istruzioni della convenzione originale
+    private void epilogue(List<ParNode> parList, List<DecNode> decList) {
+        emit("stm");
+        for (int i = decList.size() - 1; i >= 0; i--) {
+            pop(decList.get(i));
+        }
+        if (frame.displayCell >= 0) {
+            emit("push " + frame.displayCell, "sw");
+        }
+        emit("sra", "pop");
+        for (ParNode parameter : parList) {
+            pop(parameter);
+        }
+        emit("sfp", "ltm", "lra", "js");
+    }
+
+    /*
+     * Uscita da una funzione con ret: con il reference counting le variabili
+     * (dall'ultima, agli offset -2, -3, ... o da -3 se la funzione aggiorna il
+     * display) e i parametri (agli offset 1, 2, ...)
+     * riferimento vengono riletti sopra il risultato per la loro dec; la cella
+     * del display aggiornata dalla funzione riprende il valore salvato.
+     */
+    private void ret(List<ParNode> parList, List<DecNode> decList) {
+        if (refCounting) releaseFrame();
+        if (frame.displayCell >= 0) {
+            emit("lfp", "push -2", "add", "lw", "push " + frame.displayCell, "sw");
+        }
+        emit("ret " + parList.size());
+    }
+
+    // dec dei riferimenti nelle variabili e nei parametri del frame, senza toglierli
+    private void releaseFrame() {
+        for (int i = frame.decList.size() - 1; i >= 0; i--) {
+            if (isRef(frame.decList.get(i))) emit("lfp", "push " + frame.declaration(i), "add", "lw", "dec", "pop");
+        }
+        for (int i = 0; i < frame.parList.size(); i++) {
+            if (isRef(frame.parList.get(i))) emit("lfp", "push " + (i + 1), "add", "lw", "dec", "pop");
+        }
+    }
+
+    /*
+     * Chiamata in coda: gli argomenti in cima allo stack (il primo in cima), sopra
+     * le celle da togliere (cells, il control link di un metodo) e le variabili
+     * locali, prendono il posto dei parametri e si salta all'inizio del corpo.
+     */
+    private void reuseFrame(int cells) {
+        for (int i = 0; i < frame.parList.size(); i++) {
+            emit("lfp", "push " + (i + 1), "add", "sw");
+        }
+        for (int i = 0; i < cells + frame.decList.size(); i++) {
+            emit("pop");
+        }
+        emit("b " + frame.body);
+    }
+
+    private void reuseFrame() {
+        reuseFrame(0);
+    }
+
+    /*
+     * Chiamate ricorsive in coda nel corpo exp della funzione o del metodo function:
+     * exp stessa o, ricorsivamente, i rami di un if in coda. Una chiamata di
+     * funzione e' ricorsiva se il nome e' quello dichiarato nello scope che contiene
+     * la funzione (non un nome ridichiarato al suo interno), una chiamata di metodo
+     * se ha lo stesso nome e lo stesso offset nella dispatch table (il metodo
+     * effettivamente chiamato e' controllato a tempo di esecuzione).
+     */
+    private void tailCalls(Node exp, DecNode function, Set<Node> calls) {
+        if (exp instanceof IfNode) {
+            tailCalls(((IfNode) exp).th, function, calls);
+            tailCalls(((IfNode) exp).el, function, calls);
+        } else if (exp instanceof CallNode && function instanceof FunNode) {
+            CallNode call = (CallNode) exp;
+            if (call.id.equals(((FunNode) function).id) && call.nl - call.entry.nl == 1) calls.add(call);
+        } else if (exp instanceof ClassCallNode && function instanceof MethodNode && !refCounting) {
+            ClassCallNode call = (ClassCallNode) exp;
+            MethodNode method = (MethodNode) function;
+            if (call.methId.equals(method.id) && call.methodEntry.offset == method.offset) calls.add(call);
+        }
+    }
+
+    // accesso agli scope esterni
+
+    /*
+     * Indirizzo del frame del nesting level level (dove e' dichiarato un nome)
+     * dal codice al nesting level nl: fp, l'access link o, con il display, -1 per
+     * il frame globale e la cella del display per gli altri; un oggetto e'
+     * l'access link del frame del metodo al livello successivo.
+     */
+    private void frameAt(int nl, int level) {
+        if (display && level == 0 && nl > 0) {
+            emit("push -1");
+        } else if (display && nl - level > 1) {
+            if (levels.get(level) == null) {
+                frameAt(nl, level + 1);
+                emit("lw");
+            } else {
+                emit("push " + levels.get(level).displayCell, "lw");
+            }
+        } else {
+            emit("lfp");
+            for (int i = 0; i < nl - level; i++) {
+                emit("lw");
+            }
+        }
+    }
+
+    // offset da fp del nome di entry: le dichiarazioni seguono la cella del display salvata
+    private int offset(STentry entry) {
+        Frame declaring = entry.offset < 0 ? levels.get(entry.nl) : null;
+        return declaring != null && declaring.displayCell >= 0 ? entry.offset - 1 : entry.offset;
+    }
+
+    // celle del display per le funzioni in decList (e annidate) con corpo al nesting level level
+    private static int displayCells(List<DecNode> decList, int level) {
+        int cells = 0;
+        for (DecNode declaration : decList) {
+            if (declaration instanceof FunNode) {
+                FunNode function = (FunNode) declaration;
+                if (readsDisplay(function.decList)) cells = Math.max(cells, level);
+                cells = Math.max(cells, displayCells(function.decList, level + 1));
+            } else if (declaration instanceof ClassNode) {
+                for (MethodNode method : ((ClassNode) declaration).methods) {
+                    if (readsDisplay(method.decList)) cells = Math.max(cells, level + 1);
+                    cells = Math.max(cells, displayCells(method.decList, level + 2));
+                }
+            }
+        }
+        return cells;
+    }
+
+    // le dichiarazioni contengono funzioni con funzioni annidate, che leggono il display
+    private static boolean readsDisplay(List<DecNode> decList) {
+        for (DecNode declaration : decList) {
+            if (declaration instanceof FunNode) {
+                for (DecNode inner : ((FunNode) declaration).decList) {
+                    if (inner instanceof FunNode) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // condizioni
+
+    /*
+     * Codice di una condizione in contesto di salto: salta a target se il valore
+     * di cond e' when, altrimenti prosegue, senza produrre il valore booleano.
+     * && e || valutano il secondo operando solo se serve, ! scambia il senso del
+     * salto e i confronti saltano direttamente con beq/bleq se devono saltare
+     * quando sono veri, con i complementari bneq/bgt (o blt per un >= falso i cui
+     * operandi si possono valutare in ordine inverso) quando sono falsi.
+     */
+    private void jump(Node cond, boolean when, String target) {
+        if (cond instanceof NotNode) {
+            jump(((NotNode) cond).exp, !when, target);
+        } else if (cond instanceof AndNode || cond instanceof OrNode) {
+            boolean and = cond instanceof AndNode;
+            Node l = and ? ((AndNode) cond).l : ((OrNode) cond).l;
+            Node r = and ? ((AndNode) cond).r : ((OrNode) cond).r;
+            if (and != when) { // falso per &&, vero per ||: basta il primo operando
+                jump(l, when, target);
+                jump(r, when, target);
+            } else {
+                String skip = context.freshLabel();
+                jump(l, !when, skip);
+                jump(r, when, target);
+                emit(skip + ":");
+            }
+        } else if (cond instanceof BoolNode) {
+            if (((BoolNode) cond).val == when) emit("b " + target);
+        } else if (cond instanceof EqualNode) {
+            EqualNode node = (EqualNode) cond;
+            operands(node.l, node.r);
+            if (refCounting && (isRef(node.l) || isRef(node.r))) {
+                emit("dec", "stm", "dec", "ltm");
+            }
+            branch(when, "beq", "bneq", target);
+        } else if (cond instanceof LessEqualNode) {
+            operands(((LessEqualNode) cond).l, ((LessEqualNode) cond).r);
+            branch(when, "bleq", "bgt", target);
+        } else if (cond instanceof GreaterEqualNode) {
+            GreaterEqualNode node = (GreaterEqualNode) cond;
+            if (conditionCodes && !when && swappable(node.l, node.r)) {
+                operands(node.l, node.r); // falso se l < r
+                emit("blt " + target);
+            } else {
+                operands(node.r, node.l); // l >= r se r <= l
+                branch(when, "bleq", "bgt", target);
+            }
+        } else { // valore booleano (variabile, chiamata, if, ...)
+            visit(cond);
+            emit("push " + (when ? 1 : 0), "beq " + target);
+        }
+    }
+
+    // salta a target con test se when, altrimenti con il salto complementare;
+    // senza conditionCodes questo diventa test su un b, che salta al target
+    private void branch(boolean when, String test, String complement, String target) {
+        if (when) {
+            emit(test + " " + target);
+        } else if (conditionCodes) {
+            emit(complement + " " + target);
+        } else {
+            String skip = context.freshLabel();
+            emit(test + " " + skip, "b " + target, skip + ":");
+        }
+    }
+
+    /*
+     * Due operandi di un confronto fra interi che si possono valutare in ordine
+     * inverso senza cambiare il comportamento: basta che uno dei due non abbia
+     * effetti e non possa fallire.
+     */
+    private static boolean swappable(Node l, Node r) {
+        return pure(l) || pure(r);
+    }
+
+    /*
+     * Valore 0/1 di una condizione, quando serve come valore (non in un if): con
+     * conditionCodes i confronti e ! producono il valore senza salti con
+     * eq/lt/le/ge/not, && e || con and/or quando il secondo operando si puo'
+     * valutare comunque (vedi pure()); altrimenti la condizione salta a una delle
+     * due push. >= valuta r prima di l, come negli altri contesti, per cui diventa
+     * r <= l, a meno che gli operandi si possano scambiare; la negazione di un
+     * confronto diventa un lt quando l'ordine degli operandi lo permette.
+     */
+    private void materialize(Node cond) {
+        if (conditionCodes && condition(cond)) return;
+        String label1 = context.freshLabel();
+        String label2 = context.freshLabel();
+        jump(cond, true, label1);
+        emit(
+                "push 0",
+                "b " + label2,
+                label1 + ":",
+                "push 1",
+                label2 + ":"
+        );
+    }
+
+    // valore di cond con una sola istruzione dopo gli operandi, se possibile
+    private boolean condition(Node cond) {
+        if (cond instanceof EqualNode) {
+            EqualNode node = (EqualNode) cond;
+            operands(node.l, node.r);
+            if (refCounting && (isRef(node.l) || isRef(node.r))) {
+                emit("dec", "stm", "dec", "ltm");
+            }
+            emit("eq");
+            return true;
+        }
+        if (cond instanceof LessEqualNode) {
+            operands(((LessEqualNode) cond).l, ((LessEqualNode) cond).r);
+            emit("le");
+            return true;
+        }
+        if (cond instanceof GreaterEqualNode) {
+            GreaterEqualNode node = (GreaterEqualNode) cond;
+            if (swappable(node.l, node.r)) {
+                operands(node.l, node.r);
+                emit("ge");
+            } else {
+                operands(node.r, node.l);
+                emit("le");
+            }
+            return true;
+        }
+        if (cond instanceof NotNode) {
+            Node exp = ((NotNode) cond).exp;
+            if (exp instanceof LessEqualNode && swappable(((LessEqualNode) exp).l, ((LessEqualNode) exp).r)) {
+                operands(((LessEqualNode) exp).r, ((LessEqualNode) exp).l); // l > r se r < l
+                emit("lt");
+            } else if (exp instanceof GreaterEqualNode && swappable(((GreaterEqualNode) exp).l, ((GreaterEqualNode) exp).r)) {
+                operands(((GreaterEqualNode) exp).l, ((GreaterEqualNode) exp).r);
+                emit("lt");
+            } else {
+                visit(exp);
+                emit("not");
+            }
+            return true;
+        }
+        if (cond instanceof AndNode && pure(((AndNode) cond).r)) {
+            operands(((AndNode) cond).l, ((AndNode) cond).r);
+            emit("and");
+            return true;
+        }
+        if (cond instanceof OrNode && pure(((OrNode) cond).r)) {
+            operands(((OrNode) cond).l, ((OrNode) cond).r);
+            emit("or");
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Espressione che si puo' valutare anche quando && e || non la valuterebbero:
+     * costanti, variabili e operatori su di esse, senza chiamate, new, print, if
+     * (che salterebbe comunque) e divisioni (che potrebbero fallire).
+     */
+    private static boolean pure(Node n) {
+        if (n instanceof IntNode || n instanceof BoolNode || n instanceof IdNode || n instanceof EmptyNode) return true;
+        if (n instanceof NotNode) return pure(((NotNode) n).exp);
+        if (n instanceof PlusNode) return pure(((PlusNode) n).l) && pure(((PlusNode) n).r);
+        if (n instanceof MinusNode) return pure(((MinusNode) n).l) && pure(((MinusNode) n).r);
+        if (n instanceof TimesNode) return pure(((TimesNode) n).l) && pure(((TimesNode) n).r);
+        if (n instanceof EqualNode) return pure(((EqualNode) n).l) && pure(((EqualNode) n).r);
+        if (n instanceof LessEqualNode) return pure(((LessEqualNode) n).l) && pure(((LessEqualNode) n).r);
+        if (n instanceof GreaterEqualNode) return pure(((GreaterEqualNode) n).l) && pure(((GreaterEqualNode) n).r);
+        if (n instanceof AndNode) return pure(((AndNode) n).l) && pure(((AndNode) n).r);
+        if (n instanceof OrNode) return pure(((OrNode) n).l) && pure(((OrNode) n).r);
+        return false;
+    }
+
+    // due operandi: il primo resta sullo stack mentre si valuta il secondo
+    private void operands(Node first, Node second) {
+        visit(first);
+        hold(first);
+        visit(second);
+        release(1);
+    }
+
+    // control link e argomenti (dall'ultimo al primo) di una chiamata
+    private void arguments(List<Node> argList) {
+        hold(false);
+        for (int i = argList.size() - 1; i >= 0; i--) {
+            visit(argList.get(i));
+            hold(argList.get(i));
+        }
+        release(argList.size() + 1);
+    }
+
+    // rimozione dallo stack di una variabile o di un parametro all'uscita dallo scope
+    private void pop(Node declaration) {
+        if (refCounting && isRef(declaration)) {
+            emit("dec");
+        }
+        emit("pop");
+    }
+
+    // mappe per il garbage collector
+
+    private void hold(boolean ref) {
+        if (gcMaps) frameSlots.add(ref);
+    }
+
+    private void hold(Node node) {
+        hold(isRef(node));
+    }
+
+    private void release(int n) {
+        if (gcMaps) frameSlots.subList(frameSlots.size() - n, frameSlots.size()).clear();
+    }
+
+    // label dell'indirizzo di ritorno di una chiamata con la sua stack map
+    private void returnMap() {
+        if (!gcMaps) return;
+        String label = context.freshLabel();
+        emit(label + ":", stackMap(label));
+    }
+
+    private String stackMap(String label) {
+        StringBuilder map = new StringBuilder("stackmap " + label + " " + frameHeader);
+        for (int i = 0; i < frameSlots.size(); i++) {
+            if (frameSlots.get(i)) map.append(" ").append(-2 - i);
+        }
+        return map.toString();
+    }
+
+    private static String frameHeader(List<ParNode> parList, boolean method) {
+        StringBuilder header = new StringBuilder(String.valueOf(parList.size()));
+        if (method) header.append(" 0"); // access link = oggetto
+        for (int i = 0; i < parList.size(); i++) {
+            if (parList.get(i).getType() instanceof RefTypeNode) header.append(" ").append(i + 1);
+        }
+        return header.toString();
+    }
+
+    // il valore di node (espressione o dichiarazione) è un riferimento allo heap
+    private static boolean isRef(Node node) {
+        if (node instanceof VarNode) return ((VarNode) node).getType() instanceof RefTypeNode;
+        if (node instanceof ParNode) return ((ParNode) node).getType() instanceof RefTypeNode;
+        if (node instanceof EmptyNode || node instanceof NewNode) return true;
+        if (node instanceof IdNode) return ((IdNode) node).entry.type instanceof RefTypeNode;
+        if (node instanceof CallNode) {
+            return ((ArrowTypeNode) ((CallNode) node).entry.type).retType instanceof RefTypeNode;
+        }
+        if (node instanceof ClassCallNode) {
+            return ((ArrowTypeNode) ((ClassCallNode) node).methodEntry.type).retType instanceof RefTypeNode;
+        }
+        if (node instanceof IfNode) return isRef(((IfNode) node).th) || isRef(((IfNode) node).el);
+        if (node instanceof PrintNode) return isRef(((PrintNode) node).exp);
+        return false;
     }
-}
\ No newline at end of file
+}
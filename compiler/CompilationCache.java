@@ -0,0 +1,275 @@
+package compiler;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.*;
+
+import svm.*;
+
+/**
+ * Cache su disco delle compilazioni: un programma gia' compilato non ripassa per
+ * front-end, generazione del codice e assemblaggio, e il programma assemblato
+ * letto dalla cache va direttamente a ExecuteVM.
+ *
+ * La chiave e' lo SHA-256 del sorgente, della modalita' (reference counting o
+ * garbage collector) e della versione del compilatore, cioe' l'hash di tutte le
+ * classi dei package compiler e svm: se cambiano la grammatica (quindi FOOLParser
+ * e FOOLLexer) o un qualsiasi visitor cambiano anche le chiavi, e le voci vecchie
+ * non vengono piu' usate (finche' l'evizione non le rimuove).
+ *
+ * Ogni voce e' un file <chiave>.svmc con gli errori per fase, le diagnostiche, il
+ * codice .asm e il programma assemblato (vedi ObjectFile), scritto in un file
+ * temporaneo e poi rinominato atomicamente: chi legge vede la voce completa o non
+ * la vede. Vengono memorizzate anche le compilazioni con errori, ma non quelle
+ * interrotte da un'eccezione del compilatore. Una voce illeggibile e' trattata
+ * come assente e rimossa.
+ * La data di modifica delle voci registra l'ultimo uso: quando la dimensione
+ * totale supera il massimo vengono rimosse le voci usate meno di recente.
+ */
+public class CompilationCache {
+
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    private static final int MAGIC = 0x53564D43; // "SVMC"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".svmc";
+
+    private static String compilerVersion; // calcolata al primo uso
+
+    private final Path dir;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CompilationCache(Path dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        Files.createDirectories(dir);
+        try (Stream<Path> entries = entries()) {
+            size.set(entries.mapToLong(CompilationCache::sizeOf).sum());
+        }
+    }
+
+    /** Il risultato della compilazione di source con pipeline, dalla cache se presente. */
+    public Pipeline.Result compile(Pipeline pipeline, String source) throws IOException {
+        String key = key(pipeline.codeGen().toString(), source);
+        Path entry = dir.resolve(key + SUFFIX);
+        Pipeline.Result result = read(entry);
+        if (result != null) {
+            hits.incrementAndGet();
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                // rimossa nel frattempo dall'evizione: il risultato letto resta valido
+            }
+            return result;
+        }
+        misses.incrementAndGet();
+        result = pipeline.compile(source);
+        write(entry, result);
+        return result;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        long total = hits.get() + misses.get();
+        return hits+" hits, "+misses+" misses ("+(total == 0 ? 0 : 100 * hits.get() / total)+"% hit rate), "
+            +evictions+" evictions, "+size.get()/1024+" KB of "+maxSize/1024+" KB";
+    }
+
+    private String key(String options, String source) {
+        MessageDigest digest = sha256();
+        digest.update(compilerVersion().getBytes(StandardCharsets.UTF_8));
+        digest.update((options + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    /**
+     * Hash delle classi dei package compiler e svm, lette dalla directory o dal jar
+     * da cui e' stato caricato il compilatore.
+     */
+    public static synchronized String compilerVersion() {
+        if (compilerVersion != null) return compilerVersion;
+        MessageDigest digest = sha256();
+        try {
+            Path root = Paths.get(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(root)) {
+                hashClasses(digest, root);
+            } else {
+                try (FileSystem jar = FileSystems.newFileSystem(root)) {
+                    hashClasses(digest, jar.getPath("/"));
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new IllegalStateException("Cannot read the compiler classes to version the cache", e);
+        }
+        return compilerVersion = hex(digest.digest());
+    }
+
+    private static void hashClasses(MessageDigest digest, Path root) throws IOException {
+        for (String pkg : new String[] {"compiler", "svm"}) {
+            List<Path> classes;
+            try (Stream<Path> walk = Files.walk(root.resolve(pkg))) {
+                classes = walk.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+            }
+            for (Path c : classes) {
+                digest.update(root.relativize(c).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(c));
+            }
+        }
+    }
+
+    // la voce letta, null se assente o illeggibile (e allora rimossa)
+    private Pipeline.Result read(Path entry) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException(entry+" is not a cache entry");
+            Pipeline.Result result = new Pipeline.Result();
+            result.cached = true;
+            result.lexicalErrors = in.getInt();
+            result.syntaxErrors = in.getInt();
+            result.symbolTableErrors = in.getInt();
+            result.typeErrors = in.getInt();
+            result.asmLexicalErrors = in.getInt();
+            result.asmSyntaxErrors = in.getInt();
+            result.diagnostics = readString(in);
+            String asm = readString(in);
+            if (asm != null) result.code = Arrays.asList(asm.split("\n", -1));
+            if (in.get() != 0) result.object = ObjectFile.read(in.slice(), entry.toString());
+            return result;
+        } catch (IOException | RuntimeException e) {
+            remove(entry);
+            return null;
+        }
+    }
+
+    private void write(Path entry, Pipeline.Result result) throws IOException {
+        Path temp = Files.createTempFile(dir, entry.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(result.lexicalErrors);
+                out.writeInt(result.syntaxErrors);
+                out.writeInt(result.symbolTableErrors);
+                out.writeInt(result.typeErrors);
+                out.writeInt(result.asmLexicalErrors);
+                out.writeInt(result.asmSyntaxErrors);
+                writeString(out, result.diagnostics);
+                writeString(out, result.asm());
+                out.writeBoolean(result.object != null);
+                if (result.object != null) result.object.write(out);
+            }
+            long entrySize = Files.size(temp);
+            long replaced = sizeOf(entry);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (size.addAndGet(entrySize - replaced) > maxSize) evict();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // rimuove le voci usate meno di recente finche' la dimensione totale rientra nel massimo
+    private synchronized void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> all = entries()) {
+            entries = all.sorted(Comparator.comparingLong(CompilationCache::lastUsed)).collect(Collectors.toList());
+        }
+        long total = entries.stream().mapToLong(CompilationCache::sizeOf).sum();
+        for (Path entry : entries) {
+            if (total <= maxSize) break;
+            long entrySize = sizeOf(entry);
+            if (Files.deleteIfExists(entry)) {
+                total -= entrySize;
+                evictions.incrementAndGet();
+            }
+        }
+        size.set(total);
+    }
+
+    private void remove(Path entry) {
+        long entrySize = sizeOf(entry);
+        try {
+            if (Files.deleteIfExists(entry)) size.addAndGet(-entrySize);
+        } catch (IOException e) {
+            // resta su disco: verra' ritentata al prossimo uso o rimossa dall'evizione
+        }
+    }
+
+    private Stream<Path> entries() throws IOException {
+        return Files.list(dir).filter(p -> p.toString().endsWith(SUFFIX));
+    }
+
+    private static long sizeOf(Path entry) {
+        try {
+            return Files.size(entry);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // stringa come lunghezza e byte UTF-8 (lunghezza -1 per null)
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder s = new StringBuilder();
+        for (byte b : bytes) s.append(String.format("%02x", b));
+        return s.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package compiler;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import static compiler.CompileServer.*;
+
+/**
+ * Client di CompileServer: invia un file FOOL da compilare (e con -run eseguire)
+ * e stampa il risultato; con -stats stampa invece le latenze del server.
+ * Con -o scrive il codice .asm compilato nel file indicato.
+ * Termina con stato 1 se ci sono errori di compilazione o di esecuzione.
+ *
+ * Uso: java compiler.CompileClient [-run] [-rc] [-maxjumps n] [-maxmem n] [-o file.asm] porta|socket file.fool
+ *      java compiler.CompileClient -stats porta|socket
+ */
+public class CompileClient {
+
+    public static void main(String[] args) throws Exception {
+        int op = COMPILE;
+        boolean refCounting = false;
+        long maxJumps = 0;
+        int maxMemory = 0;
+        String asmFile = null;
+        String address = null;
+        String fileName = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-run": op = RUN; break;
+                case "-stats": op = STATS; break;
+                case "-rc": refCounting = true; break;
+                case "-maxjumps": maxJumps = Long.parseLong(args[++i]); break;
+                case "-maxmem": maxMemory = Integer.parseInt(args[++i]); break;
+                case "-o": asmFile = args[++i]; break;
+                default:
+                    if (address == null) address = args[i];
+                    else fileName = args[i];
+            }
+        }
+        if (address == null || (op != STATS && fileName == null)) {
+            System.out.println("Usage: java compiler.CompileClient [-run] [-rc] [-maxjumps n] [-maxmem n] [-o file.asm] port|socket file.fool");
+            System.out.println("       java compiler.CompileClient -stats port|socket");
+            System.exit(1);
+        }
+
+        int status;
+        try (SocketChannel channel = SocketChannel.open(CompileServer.address(address));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(op);
+            if (op != STATS) {
+                out.writeBoolean(refCounting);
+                out.writeLong(maxJumps);
+                out.writeInt(maxMemory);
+                writeString(out, Files.readString(Path.of(fileName)));
+            }
+            out.flush();
+
+            status = in.readInt();
+            String message = readString(in);
+            String content = readString(in);
+            if (status == COMPILE_ERRORS) {
+                System.out.print(content);
+                System.out.println("You had "+message+".");
+            } else if (op == COMPILE && asmFile != null) {
+                Files.writeString(Path.of(asmFile), content);
+            } else {
+                System.out.print(content.isEmpty() || content.endsWith("\n") ? content : content+"\n");
+            }
+            if (status > COMPILE_ERRORS) System.out.println("Error: "+message);
+        }
+        if (status != OK) System.exit(1);
+    }
+}
@@ -0,0 +1,303 @@
+package compiler;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import svm.*;
+
+/**
+ * Server di compilazione: una JVM che resta attiva e compila (ed eventualmente
+ * esegue) i programmi inviati da CompileClient, evitando ad ogni compilazione
+ * l'avvio della JVM, il caricamento delle classi e la costruzione delle tabelle
+ * ATN/DFA di ANTLR, che restano calde fra una richiesta e l'altra.
+ *
+ * Ascolta su una socket Unix (se l'indirizzo e' un percorso) o sulla porta
+ * indicata dell'interfaccia di loopback. Ogni connessione e' servita da un
+ * proprio thread (virtuale se la JVM li supporta) e puo' inviare piu' richieste;
+ * le compilazioni procedono in parallelo con Pipeline. L'esecuzione usa cpu()
+ * con limiti per richiesta al numero di salti all'indietro e chiamate (vedi
+ * ExecuteVM.setJumpLimit) e alla memoria, entro quelli del server; l'output di
+ * print, al piu' maxOutput byte, viene restituito al client. Le esecuzioni
+ * concorrenti riservano la loro memoria massima da un budget comune (meta'
+ * dello heap della JVM, ma almeno maxMemory celle): quando e' esaurito le
+ * richieste RUN successive attendono.
+ *
+ * Protocollo (DataInputStream/DataOutputStream, stringhe come lunghezza e byte UTF-8):
+ * - richiesta: op; per COMPILE e RUN anche reference counting (boolean), limite
+ *   di salti (long) e di memoria in celle (int), 0 per quelli del server, e
+ *   il sorgente (al piu' MAX_SOURCE byte, altrimenti BAD_REQUEST e la connessione
+ *   viene chiusa);
+ * - risposta: stato, messaggio (errori per fase o errore di esecuzione) e
+ *   contenuto: codice .asm per COMPILE, output del programma per RUN,
+ *   percentili della latenza delle richieste per STATS, messaggi di errore
+ *   della compilazione se lo stato e' COMPILE_ERRORS; INTERNAL_ERROR se il
+ *   compilatore o la VM falliscono, anche per memoria esaurita (la connessione
+ *   resta utilizzabile).
+ *
+ * Uso: java compiler.CompileServer [-maxjumps n] [-maxmem n] [-maxoutput n] porta|socket
+ */
+public class CompileServer {
+
+    public static final int COMPILE = 1, RUN = 2, STATS = 3;
+    public static final int OK = 0, COMPILE_ERRORS = 1, RUNTIME_ERROR = 2, BAD_REQUEST = 3, INTERNAL_ERROR = 4;
+
+    public static final int MAX_SOURCE = 16 << 20; // byte del sorgente di una richiesta
+    public static final int MAX_OUTPUT = 1 << 20;  // byte dell'output di una RUN, se non indicato
+
+    private static final int SAMPLES = 10000; // latenze conservate per operazione
+
+    private final long maxJumps;
+    private final int maxMemory;
+    private final int maxOutput;
+    // celle che le esecuzioni in corso possono ancora allocare: ognuna ne riserva
+    // quante il suo limite di memoria, contando 8 byte per cella perche' durante
+    // un ingrandimento la memoria vecchia e quella nuova coesistono
+    private final Semaphore memoryBudget;
+    private final Latencies compileLatencies = new Latencies();
+    private final Latencies runLatencies = new Latencies();
+
+    public CompileServer(long maxJumps, int maxMemory, int maxOutput) {
+        this.maxJumps = maxJumps;
+        this.maxMemory = maxMemory;
+        this.maxOutput = maxOutput;
+        long cells = Runtime.getRuntime().maxMemory() / 2 / (2 * Integer.BYTES);
+        this.memoryBudget = new Semaphore((int) Math.max(maxMemory, Math.min(cells, Integer.MAX_VALUE)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        long maxJumps = 100_000_000L;
+        int maxMemory = ExecuteVM.MAX_MEMSIZE;
+        int maxOutput = MAX_OUTPUT;
+        String address = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-maxjumps")) maxJumps = Long.parseLong(args[++i]);
+            else if (args[i].equals("-maxmem")) maxMemory = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-maxoutput")) maxOutput = Integer.parseInt(args[++i]);
+            else address = args[i];
+        }
+        if (address == null) {
+            System.out.println("Usage: java compiler.CompileServer [-maxjumps n] [-maxmem n] [-maxoutput n] port|socket");
+            System.exit(1);
+        }
+        new CompileServer(maxJumps, maxMemory, maxOutput).serve(address);
+    }
+
+    /** Indirizzo della socket: porta della loopback se numerico, socket Unix altrimenti. */
+    public static SocketAddress address(String address) {
+        return address.matches("[0-9]+") ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address))
+            : UnixDomainSocketAddress.of(address);
+    }
+
+    public void serve(String address) throws IOException {
+        SocketAddress socketAddress = address(address);
+        ServerSocketChannel server;
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) socketAddress).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(socketAddress);
+        warmUp();
+        System.out.println("Compile server listening on "+address+".");
+        ExecutorService connections = connectionExecutor();
+        try (server) {
+            while (true) {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> serve(channel));
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    // un thread virtuale per connessione se disponibili (Java 21+), altrimenti un pool
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // compila ed esegue un programma con classi, cosi' la prima richiesta trova
+    // le classi del compilatore caricate e le cache DFA di ANTLR gia' costruite
+    private void warmUp() {
+        String source = "let\n"
+            + "  class A (x:int) { fun get:int () x; }\n"
+            + "  class B extends A (y:int) { fun sum:int () x + y; }\n"
+            + "  fun f:bool (a:A, n:int) if (n <= 0 || !(a == null)) then { true } else { false };\n"
+            + "  var b:B = new B(1, 2);\n"
+            + "in print(if (f(b, 3) && b.sum() >= 3) then { b.get() * 2 - 1 } else { 0 / 1 });\n";
+        for (int i = 0; i < 20; i++) {
+            for (boolean refCounting : new boolean[] {false, true}) {
+                execute(new Pipeline(refCounting).compile(source), maxJumps, maxMemory, new LimitedOutput(maxOutput));
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            while (true) {
+                int op;
+                try {
+                    op = in.readInt();
+                } catch (EOFException e) {
+                    return; // il client ha chiuso la connessione
+                }
+                try {
+                    if (!handle(op, in, out)) {
+                        out.flush();
+                        return;
+                    }
+                } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) { // errore del compilatore o della VM: la connessione resta utilizzabile
+                    reply(out, INTERNAL_ERROR, "Internal error: "+e, "");
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Connection closed: "+e.getMessage());
+        }
+    }
+
+    // false se la richiesta non e' stata letta per intero e la connessione va chiusa
+    private boolean handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        if (op == STATS) {
+            reply(out, OK, "", "compile: "+compileLatencies+"\nrun: "+runLatencies);
+            return true;
+        }
+        if (op != COMPILE && op != RUN) {
+            reply(out, BAD_REQUEST, "Unknown operation "+op, "");
+            return true;
+        }
+        boolean refCounting = in.readBoolean();
+        long jumps = in.readLong();
+        int memory = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_SOURCE) {
+            reply(out, BAD_REQUEST, "Source length "+length+" out of range 0.."+MAX_SOURCE, "");
+            return false;
+        }
+        String source = readString(in, length);
+
+        long start = System.nanoTime();
+        try {
+            Pipeline.Result result = new Pipeline(refCounting).compile(source);
+            if (result.object == null) {
+                reply(out, COMPILE_ERRORS, result.toString(), result.diagnostics);
+            } else if (op == COMPILE) {
+                reply(out, OK, "", result.asm());
+            } else {
+                LimitedOutput output = new LimitedOutput(maxOutput);
+                int cells = memory > 0 ? Math.min(memory, maxMemory) : maxMemory;
+                String error;
+                memoryBudget.acquireUninterruptibly(cells);
+                try {
+                    error = execute(result, jumps > 0 ? Math.min(jumps, maxJumps) : maxJumps, cells, output);
+                } finally {
+                    memoryBudget.release(cells);
+                }
+                reply(out, error == null ? OK : RUNTIME_ERROR, error == null ? "" : error, output.toString(StandardCharsets.UTF_8));
+            }
+        } finally { // anche per le richieste fallite
+            (op == COMPILE ? compileLatencies : runLatencies).add(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    // esegue il programma con i limiti dati: null se termina normalmente, altrimenti l'errore
+    private static String execute(Pipeline.Result result, long jumps, int memory, OutputStream output) {
+        ExecuteVM vm = result.newVM();
+        vm.setMemorySize(Math.min(ExecuteVM.MEMSIZE, memory), memory);
+        vm.setJumpLimit(jumps);
+        vm.setOutput(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            vm.cpu();
+            return null;
+        } catch (RuntimeException e) {
+            return e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+    }
+
+    /**
+     * Output di un'esecuzione, al piu' limit byte: la scrittura che supererebbe il
+     * limite termina il programma con un errore di esecuzione (PrintStream
+     * ignorerebbe una IOException, quindi l'eccezione non e' controllata).
+     */
+    private static class LimitedOutput extends ByteArrayOutputStream {
+        private final int limit;
+
+        LimitedOutput(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            check(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            check(len);
+            super.write(b, off, len);
+        }
+
+        private void check(int len) {
+            if (len > limit - count) throw new IllegalStateException("Output limit of "+limit+" bytes exceeded");
+        }
+    }
+
+    private static void reply(DataOutputStream out, int status, String message, String content) throws IOException {
+        out.writeInt(status);
+        writeString(out, message);
+        writeString(out, content);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return readString(in, in.readInt());
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Ultime SAMPLES latenze di un'operazione, con i loro percentili. */
+    private static class Latencies {
+        private final long[] samples = new long[SAMPLES];
+        private long count = 0;
+
+        synchronized void add(long nanos) {
+            samples[(int) (count++ % SAMPLES)] = nanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (count == 0) return "0 requests";
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+            Arrays.sort(sorted);
+            return count+" requests, p50 "+millis(sorted, 0.50)+" ms, p90 "+millis(sorted, 0.90)
+                +" ms, p99 "+millis(sorted, 0.99)+" ms, max "+millis(sorted, 1.0)+" ms";
+        }
+
+        private static String millis(long[] sorted, double percentile) {
+            int i = (int) Math.ceil(percentile * sorted.length) - 1;
+            return String.format(Locale.ROOT, "%.3f", sorted[Math.max(i, 0)] / 1e6);
+        }
+    }
+}
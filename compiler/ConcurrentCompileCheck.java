@@ -0,0 +1,88 @@
+package compiler;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Verifica che compilazioni concorrenti nella stessa JVM non interferiscano:
+ * compila un insieme di programmi generati prima in sequenza e poi in parallelo
+ * (piu' volte ciascuno, su un pool di thread) con Pipeline, e controlla che il
+ * codice .asm e il numero di errori di ogni fase siano identici.
+ * Uso: java compiler.ConcurrentCompileCheck [programmi] [thread]
+ */
+public class ConcurrentCompileCheck {
+
+    private static final int ROUNDS = 4; // compilazioni parallele di ogni programma
+
+    public static void main(String[] args) throws Exception {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(8, Runtime.getRuntime().availableProcessors());
+
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < programs; i++) sources.add(program(i));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < programs; i++) expected.add(outcome(new Pipeline(i % 2 == 1).compile(sources.get(i))));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < programs; i++) indexes.add(i);
+        }
+        Collections.shuffle(indexes, new Random(0));
+        for (int i : indexes) {
+            String source = sources.get(i);
+            boolean refCounting = i % 2 == 1;
+            results.add(pool.submit(() -> outcome(new Pipeline(refCounting).compile(source))));
+        }
+        int mismatches = 0;
+        for (int k = 0; k < indexes.size(); k++) {
+            if (!results.get(k).get().equals(expected.get(indexes.get(k)))) {
+                System.out.println("Program "+indexes.get(k)+" compiled differently in parallel");
+                mismatches++;
+            }
+        }
+        pool.shutdown();
+
+        System.out.println(programs+" programs, "+indexes.size()+" parallel compilations on "+threads
+            +" threads: "+mismatches+" mismatches");
+        if (mismatches > 0) System.exit(1);
+    }
+
+    // errori per fase seguiti dal testo .asm
+    private static String outcome(Pipeline.Result result) {
+        return result+"\n"+result.asm();
+    }
+
+    // classi con ereditarieta' (gerarchia diversa per ogni programma), funzioni
+    // annidate e, in un programma su sette, un errore di tipo
+    static String program(int n) {
+        StringBuilder source = new StringBuilder("let\n");
+        int classes = 1 + n % 4;
+        int[] fields = new int[classes]; // campi di ogni classe, compresi quelli ereditati
+        for (int c = 0; c < classes; c++) {
+            source.append("  class C").append(c);
+            if (c > 0) {
+                source.append(" extends C").append((c + n) % c);
+                fields[c] = fields[(c + n) % c];
+            }
+            fields[c]++;
+            source.append(" (f").append(c).append(":int) {\n")
+                  .append("    fun get").append(c).append(":int () f").append(c).append(" + ").append(n).append(";\n")
+                  .append("  }\n");
+        }
+        source.append("  fun pick:C0 (a:C0, b:C").append(classes - 1).append(", x:int)\n")
+              .append("    let fun less:bool (y:int) y <= ").append(n).append(";\n")
+              .append("    in if (less(x)) then { a } else { b };\n");
+        for (int c = 0; c < classes; c++) {
+            source.append("  var o").append(c).append(":C").append(c).append(" = new C").append(c).append("(");
+            for (int f = 0; f < fields[c]; f++) source.append(f > 0 ? ", " : "").append(n * 10 + f);
+            source.append(");\n");
+        }
+        String arg = n % 7 == 3 ? "true" : "o" + (classes - 1);
+        source.append("  var r:C0 = pick(o0, ").append(arg).append(", ").append(n % 13).append(");\n")
+              .append("in print(r.get0());\n");
+        return source.toString();
+    }
+}
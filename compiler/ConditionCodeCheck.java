@@ -0,0 +1,110 @@
+package compiler;
+
+import java.util.*;
+
+import org.antlr.v4.runtime.*;
+import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
+import svm.*;
+
+import static compiler.EngineHarness.*;
+
+/**
+ * Verifica i confronti e gli operatori booleani senza salti (eq, lt, le, ge,
+ * not, and, or) e i salti bneq, blt e bgt della SVM:
+ * - ogni istruzione, scritta a mano su operandi che coprono i casi limite, deve
+ *   essere assemblata allo stesso modo da Assembler e SVMParser e dare lo stesso
+ *   risultato con cpu() e con gli altri motori di esecuzione;
+ * - programmi FOOL casuali con condizioni (come quelli di ConstantFoldingCheck),
+ *   compilati per il garbage collector e per il reference counting, con e senza
+ *   queste istruzioni (opzione conditionCodes di CodeGenerationASTVisitor), devono
+ *   stampare lo stesso output del back-end JVM con cpu(), cpuThreaded(),
+ *   cpuCached() e cpuJit().
+ * Uso: java compiler.ConditionCodeCheck [programmi]
+ */
+public class ConditionCodeCheck {
+
+    private static final int[] VALUES = {0, 1, 2, -1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+
+    public static void main(String[] args) throws Exception {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        int instructions = 0;
+        for (String op : new String[] {"eq", "lt", "le", "ge", "and", "or"}) {
+            for (int a : VALUES)
+                for (int b : VALUES) {
+                    same("push " + a + "\npush " + b + "\n" + op + "\nprint\nhalt");
+                    instructions++;
+                }
+        }
+        for (String op : new String[] {"bneq", "blt", "bgt"}) {
+            for (int a : VALUES)
+                for (int b : VALUES) {
+                    same("push " + a + "\npush " + b + "\n" + op + " taken\npush 0\nprint\nhalt\ntaken:\npush 1\nprint\nhalt");
+                    instructions++;
+                }
+        }
+        for (int a : VALUES) {
+            same("push " + a + "\nnot\nprint\nhalt");
+            instructions++;
+        }
+
+        Random random = new Random(11);
+        for (int p = 0; p < programs; p++) {
+            String source = "let\n"
+                + "  fun f:int (n:int) let var u:bool = print(n) == n; in n;\n"
+                + "  fun g:bool (c:bool) let var u:bool = print(c) == c; in c;\n"
+                + "  var x:int = " + (random.nextInt(7) - 3) + ";\n"
+                + "  var b:bool = " + random.nextBoolean() + ";\n"
+                + "  var c:bool = " + ConstantFoldingCheck.boolExp(random, 3) + ";\n"
+                + "in print(if (" + ConstantFoldingCheck.boolExp(random, 4) + ") then { "
+                + ConstantFoldingCheck.intExp(random, 3) + " } else { "
+                + (random.nextBoolean() ? ConstantFoldingCheck.intExp(random, 3) : "if (c) then { 1 } else { 0 }") + " });\n";
+            String expected = jvm(source);
+            for (boolean refCounting : new boolean[] {false, true})
+                for (boolean conditionCodes : new boolean[] {false, true}) {
+                    Pipeline.Result result = new Pipeline(CodeGenerationASTVisitor.Options.heap(refCounting)
+                        .conditionCodes(conditionCodes).constantFolding(true), false).compile(source);
+                    if (result.object == null) throw new IllegalStateException("Generated program has errors: "+result+"\n"+source);
+                    sameOnAllEngines(result.object, expected, "the JVM back-end output"+(refCounting ? " (rc)" : "")
+                        +(conditionCodes ? "" : " (without condition codes)")+" of:\n"+source);
+                }
+        }
+        System.out.println(instructions+" instructions and "+programs+" programs with the same behavior on all engines.");
+    }
+
+    // il risultato di un frammento di assembly deve essere lo stesso con tutti i motori
+    private static void same(String asm) {
+        Assembler assembler = new Assembler(asm);
+        assembler.assemble();
+        if (assembler.lexicalErrors + assembler.syntaxErrors > 0) throw new IllegalStateException("Assembly errors in:\n"+asm);
+        SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(asm))));
+        parser.assembly();
+        if (!Arrays.equals(parser.code, assembler.code)) throw new IllegalStateException("Assembler differs from SVMParser on:\n"+asm);
+        ObjectFile object = ObjectFile.of(assembler, false);
+        sameOnAllEngines(object, run(object, ExecuteVM::cpu), "the cpu() output of:\n"+asm+"\n");
+    }
+
+    private static String jvm(String source) {
+        CompilationContext context = new CompilationContext();
+        FOOLParser parser = new FOOLParser(new CommonTokenStream(new FOOLLexer(CharStreams.fromString(source))));
+        Node ast = new ASTGenerationSTVisitor().visit(FOOLlib.parse(parser, FOOLParser::prog));
+        new SymbolTableASTVisitor(context).visit(ast);
+        try {
+            new TypeCheckEASTVisitor(context).visit(ast);
+        } catch (Exception e) {
+            throw new IllegalStateException("Generated program has type errors:\n"+source, e);
+        }
+        JVMCodeGenerationASTVisitor visitor = new JVMCodeGenerationASTVisitor();
+        visitor.visit(ast);
+        return output(() -> {
+            try {
+                JVMCodeGenerationASTVisitor.run(visitor.getClasses());
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                throw (RuntimeException) e.getCause();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,104 @@
+package compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
+import svm.*;
+
+/**
+ * Verifica che ConstantFoldingEASTVisitor non cambi il comportamento dei
+ * programmi: genera espressioni casuali intere e booleane con costanti,
+ * variabili, divisioni (anche per zero) e chiamate con effetti (una print),
+ * le compila con e senza l'ottimizzazione ed esegue entrambi i programmi,
+ * controllando che output ed eventuale errore di esecuzione coincidano.
+ * Stampa anche la dimensione complessiva del codice nei due casi.
+ * Uso: java compiler.ConstantFoldingCheck [programmi]
+ */
+public class ConstantFoldingCheck {
+
+    public static void main(String[] args) throws Exception {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Random random = new Random(7);
+        long words = 0, foldedWords = 0;
+        int folded = 0, failures = 0;
+        for (int p = 0; p < programs; p++) {
+            String source = "let\n"
+                + "  fun f:int (n:int) let var u:bool = print(n) == n; in n;\n"
+                + "  fun g:bool (c:bool) let var u:bool = print(c) == c; in c;\n"
+                + "  var x:int = " + (random.nextInt(7) - 3) + ";\n"
+                + "  var b:bool = " + random.nextBoolean() + ";\n"
+                + "in print(" + (random.nextBoolean() ? intExp(random, 4) : boolExp(random, 4)) + ");\n";
+            Node ast = Pipeline.frontEnd(source);
+            String expected = run(ast, source);
+            ConstantFoldingEASTVisitor folding = new ConstantFoldingEASTVisitor();
+            Node optimized = folding.visit(ast);
+            String actual = run(optimized, source);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Constant folding changes the behavior of:\n"+source
+                    +"expected:\n"+expected+"actual:\n"+actual);
+            }
+            if (expected.contains("failed:")) failures++;
+            words += code(ast).length;
+            foldedWords += code(optimized).length;
+            folded += folding.folded;
+        }
+        System.out.println(programs+" programs with the same behavior ("+failures+" runtime errors): "+folded
+            +" expressions folded, code size "+words+" -> "+foldedWords+" words.");
+    }
+
+    static String intExp(Random random, int depth) {
+        int choice = random.nextInt(depth == 0 ? 3 : 8);
+        switch (choice) {
+            case 0: return String.valueOf(random.nextInt(5) - 1);
+            case 1: return "x";
+            case 2: return "f(" + random.nextInt(4) + ")";
+            case 3: return "(" + intExp(random, depth - 1) + " + " + intExp(random, depth - 1) + ")";
+            case 4: return "(" + intExp(random, depth - 1) + " - " + intExp(random, depth - 1) + ")";
+            case 5: return "(" + intExp(random, depth - 1) + " * " + intExp(random, depth - 1) + ")";
+            case 6: return "(" + intExp(random, depth - 1) + " / " + intExp(random, depth - 1) + ")";
+            default: return "if (" + boolExp(random, depth - 1) + ") then { " + intExp(random, depth - 1)
+                + " } else { " + intExp(random, depth - 1) + " }";
+        }
+    }
+
+    static String boolExp(Random random, int depth) {
+        int choice = random.nextInt(depth == 0 ? 3 : 10);
+        switch (choice) {
+            case 0: return String.valueOf(random.nextBoolean());
+            case 1: return "b";
+            case 2: return "g(" + random.nextBoolean() + ")";
+            case 3: return "(" + intExp(random, depth - 1) + " == " + intExp(random, depth - 1) + ")";
+            case 4: return "(" + intExp(random, depth - 1) + " <= " + intExp(random, depth - 1) + ")";
+            case 5: return "(" + intExp(random, depth - 1) + " >= " + intExp(random, depth - 1) + ")";
+            case 6: return "(" + boolExp(random, depth - 1) + " && " + boolExp(random, depth - 1) + ")";
+            case 7: return "(" + boolExp(random, depth - 1) + " || " + boolExp(random, depth - 1) + ")";
+            case 8: return "!(" + boolExp(random, depth - 1) + ")";
+            default: return "(" + boolExp(random, depth - 1) + " == " + boolExp(random, depth - 1) + ")";
+        }
+    }
+
+    private static int[] code(Node ast) {
+        Assembler assembler = new Assembler(String.join("\n",
+            Peephole.optimize(new CodeGenerationASTVisitor(new CompilationContext(), new CodeGenerationASTVisitor.Options().gcMaps(true).conditionCodes(true)).generate(ast).lines())));
+        assembler.assemble();
+        if (assembler.lexicalErrors + assembler.syntaxErrors > 0) throw new IllegalStateException("Assembly errors");
+        return assembler.code;
+    }
+
+    // output del programma, seguito dall'eventuale errore di esecuzione
+    private static String run(Node ast, String source) {
+        ExecuteVM vm = new ExecuteVM(code(ast));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        vm.setOutput(new PrintStream(output, true, StandardCharsets.UTF_8));
+        vm.setJumpLimit(1_000_000);
+        try {
+            vm.cpu();
+        } catch (RuntimeException e) {
+            return output.toString(StandardCharsets.UTF_8) + "failed: " + e.getClass().getSimpleName() + "\n";
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,317 @@
+package compiler;
+
+import java.util.*;
+
+import compiler.AST.*;
+import compiler.exc.*;
+import compiler.lib.*;
+
+/**
+ * Ottimizzazione dell'AST arricchito, dopo il type checking: valuta a tempo di
+ * compilazione le espressioni con operandi costanti (IntNode, BoolNode e null)
+ * e semplifica quelle con un elemento neutro, cosi' la generazione del codice
+ * non emette ne' l'aritmetica fra letterali ne' le label e i salti dei
+ * confronti e degli if con esito gia' noto.
+ *
+ * Ogni visita restituisce il nodo da usare al posto di quello visitato: i nodi
+ * sono immutabili, quindi un nodo con un figlio sostituito viene ricostruito
+ * (con la stessa riga e le stesse informazioni della tabella dei simboli),
+ * mentre i sottoalberi invariati restano gli stessi oggetti.
+ *
+ * Il comportamento del programma non cambia: una divisione per la costante 0
+ * resta nel codice (e fallisce a tempo di esecuzione), e un'espressione che
+ * potrebbe avere effetti (una chiamata o una print) non viene mai eliminata,
+ * ad esempio e && false resta invariata; && e || valutano il secondo operando
+ * solo se serve, quindi false && e diventa false.
+ * Le operazioni intere hanno la stessa aritmetica in complemento a due della VM.
+ */
+public class ConstantFoldingEASTVisitor extends BaseEASTVisitor<Node, VoidException> {
+
+    public int folded = 0; // espressioni valutate o semplificate
+
+    ConstantFoldingEASTVisitor() {}
+
+    ConstantFoldingEASTVisitor(boolean debug) {
+        super(false, debug);
+    }
+
+    // valore di una costante intera o booleana (true = 1), null se non e' costante
+    private static Integer value(Node n) {
+        if (n instanceof IntNode) return ((IntNode) n).val;
+        if (n instanceof BoolNode) return ((BoolNode) n).val ? 1 : 0;
+        return null;
+    }
+
+    private Node fold(Node n) {
+        folded++;
+        return n;
+    }
+
+    private Node intNode(int val) {
+        return fold(new IntNode(val));
+    }
+
+    private Node boolNode(boolean val) {
+        return fold(new BoolNode(val));
+    }
+
+    private static <N extends Node> N at(N n, Node original) {
+        n.setLine(original.getLine());
+        return n;
+    }
+
+    // la lista con i nodi sostituiti, la stessa lista se nessuno cambia
+    @SuppressWarnings("unchecked")
+    private <N extends Node> List<N> visitList(List<N> nodes) {
+        List<N> result = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            N n = (N) visit(nodes.get(i));
+            if (n != nodes.get(i) && result == null) result = new ArrayList<>(nodes.subList(0, i));
+            if (result != null) result.add(n);
+        }
+        return result == null ? nodes : result;
+    }
+
+    @Override
+    public Node visitNode(ProgLetInNode n) {
+        if (print) printNode(n);
+        List<DecNode> decList = visitList(n.decList);
+        Node exp = visit(n.exp);
+        return decList == n.decList && exp == n.exp ? n : at(new ProgLetInNode(decList, exp), n);
+    }
+
+    @Override
+    public Node visitNode(ProgNode n) {
+        if (print) printNode(n);
+        Node exp = visit(n.exp);
+        return exp == n.exp ? n : at(new ProgNode(exp), n);
+    }
+
+    @Override
+    public Node visitNode(FunNode n) {
+        if (print) printNode(n, n.id);
+        List<DecNode> decList = visitList(n.decList);
+        Node exp = visit(n.exp);
+        return decList == n.decList && exp == n.exp ? n
+            : at(new FunNode(n.id, n.retType, n.parList, decList, exp), n);
+    }
+
+    @Override
+    public Node visitNode(VarNode n) {
+        if (print) printNode(n, n.id);
+        Node exp = visit(n.exp);
+        return exp == n.exp ? n : at(new VarNode(n.id, n.getType(), exp), n);
+    }
+
+    @Override
+    public Node visitNode(ClassNode n) {
+        if (print) printNode(n, n.id);
+        List<MethodNode> methods = visitList(n.methods);
+        if (methods == n.methods) return n;
+        ClassNode c = at(new ClassNode(n.id, n.superID, n.fields, methods), n);
+        c.superEntry = n.superEntry;
+        c.type = n.type;
+        return c;
+    }
+
+    @Override
+    public Node visitNode(MethodNode n) {
+        if (print) printNode(n, n.id);
+        List<DecNode> decList = visitList(n.decList);
+        Node exp = visit(n.exp);
+        if (decList == n.decList && exp == n.exp) return n;
+        MethodNode m = at(new MethodNode(n.id, n.retType, n.parList, decList, exp), n);
+        m.offset = n.offset;
+        m.label = n.label;
+        return m;
+    }
+
+    @Override
+    public Node visitNode(PrintNode n) {
+        if (print) printNode(n);
+        Node exp = visit(n.exp);
+        return exp == n.exp ? n : at(new PrintNode(exp), n);
+    }
+
+    @Override
+    public Node visitNode(IfNode n) {
+        if (print) printNode(n);
+        Node cond = visit(n.cond);
+        if (cond instanceof BoolNode) { // viene generato solo il ramo scelto
+            return fold(visit(((BoolNode) cond).val ? n.th : n.el));
+        }
+        Node th = visit(n.th);
+        Node el = visit(n.el);
+        return cond == n.cond && th == n.th && el == n.el ? n : at(new IfNode(cond, th, el), n);
+    }
+
+    @Override
+    public Node visitNode(EqualNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return boolNode(a.equals(b));
+        if (l instanceof EmptyNode && r instanceof EmptyNode) return boolNode(true);
+        return l == n.l && r == n.r ? n : at(new EqualNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(LessEqualNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return boolNode(a <= b);
+        return l == n.l && r == n.r ? n : at(new LessEqualNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(GreaterEqualNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return boolNode(a >= b);
+        return l == n.l && r == n.r ? n : at(new GreaterEqualNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(NotNode n) {
+        if (print) printNode(n);
+        Node exp = visit(n.exp);
+        Integer a = value(exp);
+        if (a != null) return boolNode(a == 0);
+        if (exp instanceof NotNode) return fold(((NotNode) exp).exp); // !!e = e
+        return exp == n.exp ? n : at(new NotNode(exp), n);
+    }
+
+    @Override
+    public Node visitNode(AndNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Integer a = value(l);
+        if (a != null && a == 0) return boolNode(false); // il secondo operando non viene valutato
+        Node r = visit(n.r);
+        if (a != null) return fold(r);                  // true && e = e
+        Integer b = value(r);
+        if (b != null && b != 0) return fold(l);        // e && true = e
+        return l == n.l && r == n.r ? n : at(new AndNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(OrNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Integer a = value(l);
+        if (a != null && a != 0) return boolNode(true); // il secondo operando non viene valutato
+        Node r = visit(n.r);
+        if (a != null) return fold(r);                  // false || e = e
+        Integer b = value(r);
+        if (b != null && b == 0) return fold(l);        // e || false = e
+        return l == n.l && r == n.r ? n : at(new OrNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(PlusNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return intNode(a + b);
+        if (b != null && b == 0) return fold(l);
+        if (a != null && a == 0) return fold(r);
+        return l == n.l && r == n.r ? n : at(new PlusNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(MinusNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return intNode(a - b);
+        if (b != null && b == 0) return fold(l);
+        return l == n.l && r == n.r ? n : at(new MinusNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(TimesNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null) return intNode(a * b);
+        if (b != null && b == 1) return fold(l);
+        if (a != null && a == 1) return fold(r);
+        return l == n.l && r == n.r ? n : at(new TimesNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(DivNode n) {
+        if (print) printNode(n);
+        Node l = visit(n.l);
+        Node r = visit(n.r);
+        Integer a = value(l), b = value(r);
+        if (a != null && b != null && b != 0) return intNode(a / b);
+        if (b != null && b == 1) return fold(l);
+        return l == n.l && r == n.r ? n : at(new DivNode(l, r), n);
+    }
+
+    @Override
+    public Node visitNode(CallNode n) {
+        if (print) printNode(n, n.id);
+        List<Node> argList = visitList(n.argList);
+        if (argList == n.argList) return n;
+        CallNode c = at(new CallNode(n.id, argList), n);
+        c.entry = n.entry;
+        c.nl = n.nl;
+        return c;
+    }
+
+    @Override
+    public Node visitNode(ClassCallNode n) {
+        if (print) printNode(n, n.objId + "." + n.methId);
+        List<Node> argList = visitList(n.argList);
+        if (argList == n.argList) return n;
+        ClassCallNode c = at(new ClassCallNode(n.objId, n.methId, argList), n);
+        c.entry = n.entry;
+        c.methodEntry = n.methodEntry;
+        c.nl = n.nl;
+        return c;
+    }
+
+    @Override
+    public Node visitNode(NewNode n) {
+        if (print) printNode(n, n.id);
+        List<Node> argList = visitList(n.argList);
+        if (argList == n.argList) return n;
+        NewNode c = at(new NewNode(n.id, argList), n);
+        c.entry = n.entry;
+        return c;
+    }
+
+    @Override
+    public Node visitNode(IdNode n) {
+        if (print) printNode(n, n.id);
+        return n;
+    }
+
+    @Override
+    public Node visitNode(IntNode n) {
+        if (print) printNode(n, n.val.toString());
+        return n;
+    }
+
+    @Override
+    public Node visitNode(BoolNode n) {
+        if (print) printNode(n, n.val.toString());
+        return n;
+    }
+
+    @Override
+    public Node visitNode(EmptyNode n) {
+        if (print) printNode(n);
+        return n;
+    }
+}
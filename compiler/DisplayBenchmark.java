@@ -0,0 +1,123 @@
+package compiler;
+
+import java.util.*;
+
+import compiler.lib.*;
+import compiler.CodeGenerationASTVisitor.Options;
+import svm.*;
+
+import static compiler.EngineHarness.*;
+
+/**
+ * Confronta l'accesso agli scope esterni di CodeGenerationASTVisitor con la
+ * catena degli access link e con il display:
+ * - programmi con ricorsione a livelli intermedi (la cella del display va
+ *   ripristinata all'uscita), metodi con funzioni annidate che leggono campi,
+ *   parametri e variabili del metodo, e variabili riferimento in funzioni che
+ *   aggiornano il display (offset spostati, garbage collection e reference
+ *   counting) devono dare lo stesso output nei due modi, con tutte le modalita'
+ *   di esecuzione;
+ * - su un programma con 6 livelli di funzioni annidate, la cui funzione piu'
+ *   interna legge in un ciclo variabili di tutti i livelli, misura la dimensione
+ *   del codice e il tempo di cpu(), cpuThreaded() e cpuJit().
+ * Uso: java compiler.DisplayBenchmark [iterazioni]
+ */
+public class DisplayBenchmark {
+
+    private static final String[] PROGRAMS = {
+        // ricorsione al livello 1 da una funzione annidata, letture dopo il ritorno
+        "let\n"
+            + "  var base:int = 100;\n"
+            + "  fun walk:int (n:int)\n"
+            + "    let var twice:int = n + n;\n"
+            + "        fun mid:int (m:int)\n"
+            + "          let fun leaf:int (k:int) k + m + twice + n + base;\n"
+            + "          in if (m <= 0) then { leaf(1) } else { leaf(m) + walk(n - 1) + mid(m - 1) + leaf(0) };\n"
+            + "    in if (n <= 0) then { base } else { mid(2) + walk(n - 1) + mid(1) };\n"
+            + "in print(walk(5));\n",
+        // metodi con funzioni annidate: campi, parametri e variabili del metodo
+        "let\n"
+            + "  class Counter (start:int, step:Counter) {\n"
+            + "    fun run:int (n:int)\n"
+            + "      let var bonus:int = n * 2;\n"
+            + "          fun inner:int (k:int)\n"
+            + "            let fun deepest:int (j:int) j + k + bonus + start + n;\n"
+            + "            in if (k <= 0) then { deepest(0) } else { deepest(k) + inner(k - 1) };\n"
+            + "      in if (step == null) then { inner(n) } else { inner(n) + step.run(n - 1) + inner(1) };\n"
+            + "  }\n"
+            + "  class Twice extends Counter (w:int) {\n"
+            + "    fun run:int (n:int)\n"
+            + "      let fun again:int (k:int) let fun once:int () start + w + k; in once() + once();\n"
+            + "      in again(n) + step.run(n);\n"
+            + "  }\n"
+            + "  var c:Counter = new Twice(1, new Counter(5, new Counter(7, null)), 3);\n"
+            + "in print(c.run(4));\n",
+        // riferimenti nelle funzioni che aggiornano il display, con molte new (e raccolte)
+        "let\n"
+            + "  class Box (v:int) { fun get:int () v; }\n"
+            + "  fun outer:int (n:int, keep:Box)\n"
+            + "    let var mine:Box = new Box(n);\n"
+            + "        fun inner:int (k:int, acc:int)\n"
+            + "          let var tmp:Box = new Box(k);\n"
+            + "              fun fill:int (j:int, last:Box) if (j <= 0) then { last.get() + mine.get() + tmp.get() + keep.get() }\n"
+            + "                                              else { fill(j - 1, new Box(j)) };\n"
+            + "              fun look:int (x:int) let fun deep:int () mine.get() + keep.get() + tmp.get() + x; in deep();\n"
+            + "          in if (k <= 0) then { acc + look(1) + fill(5000, tmp) } else { inner(k - 1, acc + look(0) - mine.get()) };\n"
+            + "    in if (n <= 0) then { inner(2000, 0) } else { outer(n - 1, mine) + inner(200, keep.get()) };\n"
+            + "in print(outer(60, new Box(7)));\n",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        for (String source : PROGRAMS) {
+            Node ast = Pipeline.frontEnd(source);
+            for (boolean refCounting : new boolean[] {false, true}) {
+                String expected = run(compile(ast, options(refCounting).display(false)), ExecuteVM::cpu);
+                sameOnAllEngines(compile(ast, options(refCounting).display(true)), expected, display(refCounting, source));
+            }
+        }
+        System.out.println(PROGRAMS.length+" programs with the same output with and without the display.");
+
+        String source = "let\n"
+            + "  var g:int = 1;\n"
+            + "  fun l1:int (a:int)\n"
+            + "    let fun l2:int (b:int)\n"
+            + "      let fun l3:int (c:int)\n"
+            + "        let fun l4:int (d:int)\n"
+            + "          let fun l5:int (e:int)\n"
+            + "            let fun l6:int (i:int, acc:int)\n"
+            + "              if (i <= 0) then { acc } else { l6(i - 1, acc + a + b + c + d + e + g) };\n"
+            + "            in l6(" + n + ", e);\n"
+            + "          in l5(d + 1) + l5(d + 2);\n"
+            + "        in l4(c + 1);\n"
+            + "      in l3(b + 1);\n"
+            + "    in l2(a + 1);\n"
+            + "in print(l1(1));\n";
+        Node ast = Pipeline.frontEnd(source);
+        System.out.println("mode  access        words  cpu ms  cpuThreaded ms  cpuJit ms");
+        for (boolean refCounting : new boolean[] {false, true}) {
+            String expected = null;
+            for (boolean display : new boolean[] {false, true}) {
+                ObjectFile object = compile(ast, options(refCounting).display(display));
+                if (expected == null) expected = run(object, ExecuteVM::cpu);
+                sameOnAllEngines(object, expected, display(refCounting, source));
+                long cpu = Long.MAX_VALUE, threaded = Long.MAX_VALUE, jit = Long.MAX_VALUE;
+                for (int run = 0; run < 10; run++) {
+                    cpu = Math.min(cpu, time(object, ExecuteVM::cpu));
+                    threaded = Math.min(threaded, time(object, ExecuteVM::cpuThreaded));
+                    jit = Math.min(jit, time(object, ExecuteVM::cpuJit));
+                }
+                System.out.printf(Locale.ROOT, "%4s  %-12s %6d %7.2f %15.2f %10.2f%n", refCounting ? "rc" : "gc",
+                    display ? "display" : "access links", object.code.length, cpu / 1e6, threaded / 1e6, jit / 1e6);
+            }
+        }
+    }
+
+    private static Options options(boolean refCounting) {
+        return Options.heap(refCounting).conditionCodes(true).callInstructions(true).tailCallElimination(true);
+    }
+
+    private static String display(boolean refCounting, String source) {
+        return "the display"+(refCounting ? " (rc)" : "")+" on:\n"+source;
+    }
+}
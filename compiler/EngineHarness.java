@@ -0,0 +1,97 @@
+package compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
+import svm.*;
+
+/**
+ * Parti comuni ai programmi di verifica e ai benchmark dei motori di esecuzione
+ * (ConditionCodeCheck, CallConventionBenchmark, TailCallCheck, DisplayBenchmark):
+ * compilazione di un AST con le opzioni di CodeGenerationASTVisitor, esecuzione
+ * con un motore raccogliendo l'output, confronto fra tutti i motori e misura
+ * del tempo.
+ */
+final class EngineHarness {
+
+    // motori di esecuzione confrontati, per nome
+    static final Map<String, Consumer<ExecuteVM>> ENGINES = new LinkedHashMap<>();
+    static {
+        ENGINES.put("cpu", ExecuteVM::cpu);
+        ENGINES.put("cpuThreaded", ExecuteVM::cpuThreaded);
+        ENGINES.put("cpuCached", ExecuteVM::cpuCached);
+        ENGINES.put("cpuJit", ExecuteVM::cpuJit);
+    }
+
+    private EngineHarness() {}
+
+    /** ast (gia' controllato) compilato con le opzioni date di CodeGenerationASTVisitor e assemblato. */
+    static ObjectFile compile(Node ast, CodeGenerationASTVisitor.Options options) {
+        Assembler assembler = new Assembler(String.join("\n", Peephole.optimize(
+            new CodeGenerationASTVisitor(new CompilationContext(), options).generate(ast).lines())));
+        assembler.assemble();
+        if (assembler.lexicalErrors + assembler.syntaxErrors > 0) throw new IllegalStateException("Assembly errors");
+        return ObjectFile.of(assembler, options.refCounting());
+    }
+
+    /** Output del programma eseguito con engine su una nuova VM. */
+    static String run(ObjectFile object, Consumer<ExecuteVM> engine) {
+        return run(object.newVM(), engine);
+    }
+
+    /** Output del programma eseguito con engine su vm. */
+    static String run(ExecuteVM vm, Consumer<ExecuteVM> engine) {
+        return output(() -> engine.accept(vm), vm);
+    }
+
+    /**
+     * Output di program: System.out (usato da cpuJit() e dal back-end JVM) e
+     * l'output di vm, se non null, vengono raccolti insieme. Una divisione per
+     * zero termina il programma con la riga "failed: division by zero".
+     */
+    static String output(Runnable program, ExecuteVM vm) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true, StandardCharsets.UTF_8);
+        PrintStream out = System.out;
+        if (vm != null) vm.setOutput(stream);
+        System.setOut(stream);
+        try {
+            program.run();
+        } catch (ArithmeticException e) {
+            stream.println("failed: division by zero");
+        } finally {
+            System.setOut(out);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Errore se un motore di esecuzione non stampa expected; what descrive il programma nel messaggio. */
+    static void sameOnAllEngines(ObjectFile object, String expected, String what) {
+        for (Map.Entry<String, Consumer<ExecuteVM>> engine : ENGINES.entrySet()) {
+            String actual = run(object, engine.getValue());
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException(engine.getKey()+" gives a different output for "+what
+                    +"\nexpected:\n"+expected+"actual:\n"+actual);
+            }
+        }
+    }
+
+    /** Tempo in nanosecondi di un'esecuzione con engine, senza output. */
+    static long time(ObjectFile object, Consumer<ExecuteVM> engine) {
+        ExecuteVM vm = object.newVM();
+        vm.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long start = System.nanoTime();
+            engine.accept(vm);
+            return System.nanoTime() - start;
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
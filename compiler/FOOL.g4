@@ -2,6 +2,7 @@ grammar FOOL;
 
 @lexer::members {
 public int lexicalErrors=0;
+public java.io.PrintStream diagnostics=System.out;
 }
    
 /*------------------------------------------------------------------
@@ -104,5 +105,5 @@ WHITESP  : ( '\t' | ' ' | '\r' | '\n' )+    -> channel(HIDDEN) ;
 
 COMMENT : '/*' .*? '*/' -> channel(HIDDEN) ;
 
-ERR   	 : . { System.out.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN);
+ERR   	 : . { diagnostics.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN);
 
@@ -96,6 +96,7 @@ public class FOOLLexer extends Lexer {
 
 
 	public int lexicalErrors=0;
+	public java.io.PrintStream diagnostics=System.out;
 
 
 	public FOOLLexer(CharStream input) {
@@ -132,7 +133,7 @@ public class FOOLLexer extends Lexer {
 	private void ERR_action(RuleContext _localctx, int actionIndex) {
 		switch (actionIndex) {
 		case 0:
-			 System.out.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; 
+			 diagnostics.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; 
 			break;
 		}
 	}
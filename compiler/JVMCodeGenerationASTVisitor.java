@@ -0,0 +1,728 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.*;
+import compiler.lib.*;
+import svm.ClassFileBuilder;
+import svm.ClassFileBuilder.Code;
+import svm.ClassFileBuilder.Label;
+
+import java.io.*;
+import java.util.*;
+
+import static svm.ClassFileBuilder.*;
+
+/**
+ * Back-end alternativo a CodeGenerationASTVisitor: dall'AST arricchito genera
+ * direttamente classi JVM, che la HotSpot compila poi in codice nativo.
+ *
+ * Traduzione:
+ * - il programma diventa la classe FOOL$Program: le variabili globali sono campi
+ *   statici, l'espressione principale è il corpo di main;
+ * - ogni classe FOOL diventa una classe Java omonima (con la stessa superclasse),
+ *   i campi diventano campi di istanza e i metodi metodi invocati con invokevirtual;
+ * - ogni funzione diventa un metodo statico di FOOL$Program. Se la funzione (o il
+ *   metodo) dichiara funzioni annidate, parametri e variabili locali vivono in un
+ *   oggetto ambiente FOOL$Env<n> con un campo $up verso l'ambiente dello scope che
+ *   l'ha dichiarata (per i metodi l'oggetto stesso): è l'equivalente dell'access link.
+ *   Le funzioni annidate ricevono tale ambiente come primo parametro. Se invece non
+ *   ci sono funzioni annidate, parametri e variabili sono variabili locali JVM.
+ *
+ * Nei descrittori i tipi riferimento sono cancellati a Object: in FOOL un metodo
+ * può ridefinirne un altro con parametri più generali e ritorno più specifico, e
+ * solo con la cancellazione i due metodi hanno lo stesso descrittore JVM (quindi
+ * la ridefinizione è vista dalla JVM). Il cast verso la classe avviene solo dove
+ * serve, cioè sul ricevitore di una chiamata di metodo.
+ *
+ * La semantica osservabile è quella della SVM: stesso ordine di valutazione degli
+ * argomenti (da destra a sinistra), and/or cortocircuitati, divisione per zero che
+ * termina l'esecuzione. Solo la stampa di un riferimento differisce: null stampa -1
+ * come nella SVM, un oggetto stampa il suo identity hash invece dell'indirizzo.
+ */
+public class JVMCodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+
+    public static final String MAIN_CLASS = "FOOL$Program";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String INT = "I";
+    private static final String REF = "Ljava/lang/Object;";
+    private static final String UP = "$up";
+
+    // margine sulla profondità dello stack per i valori temporanei dei singoli nodi
+    private static final int STACK_MARGIN = 4;
+
+    /** Scope statico durante la generazione: uno per nesting level. */
+    private static class Scope {
+        final int level;
+        final String owner;                                  // classe che contiene i campi dello scope
+        final boolean object;                                // scope di classe: i campi sono dell'oggetto
+        final Map<Integer, String[]> slots = new HashMap<>(); // offset -> {nome campo, descrittore}
+        final Map<Integer, Integer> locals = new HashMap<>(); // offset -> variabile locale JVM
+        final Map<Integer, String[]> funs = new HashMap<>();  // offset -> {classe, nome, descrittore}
+        ClassFileBuilder env;                                 // classe dell'ambiente, null se non serve
+        Code code;
+        int envLocal = -1;
+        int nextLocal;
+        int depth;
+        int decOffset = -2;
+
+        Scope(int level, String owner, boolean object) {
+            this.level = level;
+            this.owner = owner;
+            this.object = object;
+        }
+    }
+
+    /** Layout di una classe FOOL già generata, necessario alle sottoclassi. */
+    private static class ClassInfo {
+        final List<String[]> fields = new ArrayList<>();  // indice -> {nome, descrittore}
+        final List<String[]> methods = new ArrayList<>(); // offset -> {nome, descrittore}
+    }
+
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    private final Map<String, ClassInfo> classInfo = new HashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private ClassFileBuilder program;
+    private int funCount = 0;
+    private int envCount = 0;
+
+    JVMCodeGenerationASTVisitor() {}
+
+    JVMCodeGenerationASTVisitor(boolean debug) {
+        super(false, debug);
+    }
+
+    /** Classi generate, per nome interno; la classe principale è MAIN_CLASS. */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    // ---------------------------------------------------------------- programma
+
+    @Override
+    public String visitNode(ProgLetInNode node) {
+        if (print) {
+            printNode(node);
+        }
+        Scope global = beginProgram();
+        for (Node declaration : node.decList) {
+            visit(declaration);
+        }
+        endProgram(global, node.exp);
+        return null;
+    }
+
+    @Override
+    public String visitNode(ProgNode node) {
+        if (print) {
+            printNode(node);
+        }
+        endProgram(beginProgram(), node.exp);
+        return null;
+    }
+
+    private Scope beginProgram() {
+        program = new ClassFileBuilder(ACC_PUBLIC | ACC_SUPER, MAIN_CLASS, OBJECT);
+        Scope global = new Scope(0, MAIN_CLASS, false);
+        global.code = program.method(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        global.nextLocal = 1;
+        scopes.add(global);
+        return global;
+    }
+
+    private void endProgram(Scope global, Node exp) {
+        eval(exp);
+        global.code.op(POP).op(RETURN);
+        global.code.maxLocals = global.nextLocal;
+        scopes.remove(global);
+
+        // stampa di un riferimento: -1 per null, come nella SVM
+        Code p = program.method(ACC_PUBLIC | ACC_STATIC, "print", "(" + REF + ")V");
+        Label notNull = p.label(), println = p.label();
+        p.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        p.var(ALOAD, 0).jump(IFNONNULL, notNull);
+        p.iconst(-1).jump(GOTO, println);
+        p.mark(notNull).var(ALOAD, 0);
+        p.invoke(INVOKESTATIC, "java/lang/System", "identityHashCode", "(" + REF + ")I");
+        p.mark(println).invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(I)V");
+        p.op(RETURN);
+        p.maxStack = 2;
+        classes.put(MAIN_CLASS, program.toByteArray());
+    }
+
+    // ---------------------------------------------------------------- dichiarazioni
+
+    @Override
+    public String visitNode(VarNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        Scope s = cur();
+        int offset = s.decOffset--;
+        String desc = descriptor(node.getType());
+        if (s.level == 0) {
+            program.field(ACC_PUBLIC | ACC_STATIC, node.id, desc);
+            eval(node.exp);
+            s.code.field(PUTSTATIC, MAIN_CLASS, node.id, desc);
+            shrink(1);
+            s.slots.put(offset, new String[] {node.id, desc});
+        } else if (s.env != null) {
+            s.env.field(ACC_PUBLIC, node.id, desc);
+            s.code.var(ALOAD, s.envLocal);
+            grow(1);
+            eval(node.exp);
+            s.code.field(PUTFIELD, s.owner, node.id, desc);
+            shrink(2);
+            s.slots.put(offset, new String[] {node.id, desc});
+        } else {
+            eval(node.exp);
+            s.code.var(desc.equals(INT) ? ISTORE : ASTORE, s.nextLocal);
+            shrink(1);
+            s.slots.put(offset, new String[] {node.id, desc});
+            s.locals.put(offset, s.nextLocal++);
+        }
+        return null;
+    }
+
+    @Override
+    public String visitNode(FunNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        Scope declaring = cur();
+        boolean linked = declaring.level > 0; // le funzioni globali non hanno access link
+        List<TypeNode> parTypes = new ArrayList<>();
+        for (ParNode par : node.parList) {
+            parTypes.add(par.getType());
+        }
+        String desc = methodDescriptor(linked, parTypes, node.retType);
+        String name = node.id + "$" + (++funCount);
+        declaring.funs.put(declaring.decOffset--, new String[] {MAIN_CLASS, name, desc});
+
+        Scope s = newBodyScope(declaring.level + 1, node.decList);
+        s.code = program.method(ACC_PUBLIC | ACC_STATIC, name, desc);
+        s.nextLocal = linked ? 1 : 0;
+        body(s, linked, node.parList, node.decList, node.exp);
+        return null;
+    }
+
+    @Override
+    public String visitNode(ClassNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        cur().decOffset--;
+
+        ClassInfo info = new ClassInfo();
+        String superName = OBJECT;
+        if (node.superID != null) {
+            ClassInfo superInfo = classInfo.get(node.superID);
+            info.fields.addAll(superInfo.fields);
+            info.methods.addAll(superInfo.methods);
+            superName = node.superID;
+        }
+        ClassFileBuilder cb = new ClassFileBuilder(ACC_PUBLIC | ACC_SUPER, node.id, superName);
+
+        // un campo ridefinito riusa quello della superclasse (stesso offset, come nella SVM)
+        for (FieldNode field : node.fields) {
+            int index = -field.offset - 1;
+            if (index >= info.fields.size()) {
+                String desc = descriptor(field.getType());
+                cb.field(ACC_PUBLIC, field.id, desc);
+                info.fields.add(new String[] {field.id, desc});
+            }
+        }
+        for (MethodNode method : node.methods) {
+            String[] m = {method.id, methodDescriptor(false, ((ArrowTypeNode) method.getType()).parList, method.retType)};
+            if (method.offset < info.methods.size()) {
+                info.methods.set(method.offset, m);
+            } else {
+                info.methods.add(m);
+            }
+        }
+        classInfo.put(node.id, info);
+
+        Code init = cb.method(ACC_PUBLIC, "<init>", "()V");
+        init.var(ALOAD, 0).invoke(INVOKESPECIAL, superName, "<init>", "()V").op(RETURN);
+
+        Scope s = new Scope(1, node.id, true);
+        for (int i = 0; i < info.fields.size(); i++) {
+            s.slots.put(-i - 1, info.fields.get(i));
+        }
+        for (int i = 0; i < info.methods.size(); i++) {
+            String[] m = info.methods.get(i);
+            s.funs.put(i, new String[] {node.id, m[0], m[1]});
+        }
+        s.env = cb;
+        scopes.add(s);
+        for (MethodNode method : node.methods) {
+            visit(method);
+        }
+        scopes.remove(s);
+        classes.put(node.id, cb.toByteArray());
+        return null;
+    }
+
+    @Override
+    public String visitNode(MethodNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        Scope classScope = cur();
+        String[] m = classScope.funs.get(node.offset);
+        Scope s = newBodyScope(2, node.decList);
+        s.code = classScope.env.method(ACC_PUBLIC, m[1], m[2]);
+        s.nextLocal = 1;
+        body(s, true, node.parList, node.decList, node.exp);
+        return null;
+    }
+
+    private Scope newBodyScope(int level, List<DecNode> decList) {
+        boolean nested = false;
+        for (DecNode dec : decList) {
+            nested |= dec instanceof FunNode;
+        }
+        Scope s = new Scope(level, nested ? "FOOL$Env" + (++envCount) : null, false);
+        if (nested) {
+            s.env = new ClassFileBuilder(ACC_PUBLIC | ACC_SUPER, s.owner, OBJECT);
+            s.env.field(ACC_PUBLIC, UP, REF);
+            Code init = s.env.method(ACC_PUBLIC, "<init>", "()V");
+            init.var(ALOAD, 0).invoke(INVOKESPECIAL, OBJECT, "<init>", "()V").op(RETURN);
+        }
+        return s;
+    }
+
+    // corpo comune a funzioni e metodi: la variabile locale 0 è l'access link se linked
+    private void body(Scope s, boolean linked, List<ParNode> parList, List<DecNode> decList, Node exp) {
+        scopes.add(s);
+        Code c = s.code;
+        int firstPar = s.nextLocal;
+        s.nextLocal += parList.size();
+        if (s.env != null) {
+            s.envLocal = s.nextLocal++;
+            c.type(NEW, s.owner).op(DUP).invoke(INVOKESPECIAL, s.owner, "<init>", "()V");
+            c.var(ASTORE, s.envLocal);
+            if (linked) {
+                c.var(ALOAD, s.envLocal).var(ALOAD, 0).field(PUTFIELD, s.owner, UP, REF);
+            }
+        }
+        for (int i = 0; i < parList.size(); i++) {
+            ParNode par = parList.get(i);
+            String desc = descriptor(par.getType());
+            s.slots.put(i + 1, new String[] {par.id, desc});
+            if (s.env != null) {
+                s.env.field(ACC_PUBLIC, par.id, desc);
+                c.var(ALOAD, s.envLocal).var(desc.equals(INT) ? ILOAD : ALOAD, firstPar + i);
+                c.field(PUTFIELD, s.owner, par.id, desc);
+            } else {
+                s.locals.put(i + 1, firstPar + i);
+            }
+        }
+        c.maxStack = 2;
+        for (DecNode declaration : decList) {
+            visit(declaration);
+        }
+        String kind = eval(exp);
+        c.op(kind.equals(INT) ? IRETURN : ARETURN);
+        c.maxLocals = s.nextLocal;
+        scopes.remove(s);
+        if (s.env != null) {
+            classes.put(s.owner, s.env.toByteArray());
+        }
+    }
+
+    // ---------------------------------------------------------------- accesso a variabili e chiamate
+
+    @Override
+    public String visitNode(IdNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        return load(node.entry);
+    }
+
+    private String load(STentry entry) {
+        Scope s = cur();
+        Scope target = scopes.get(entry.nl);
+        String[] slot = target.slots.get(entry.offset);
+        if (entry.nl == 0) {
+            s.code.field(GETSTATIC, MAIN_CLASS, slot[0], slot[1]);
+        } else if (target == s && s.locals.containsKey(entry.offset)) {
+            s.code.var(slot[1].equals(INT) ? ILOAD : ALOAD, s.locals.get(entry.offset));
+        } else {
+            loadEnv(entry.nl);
+            s.code.field(GETFIELD, target.owner, slot[0], slot[1]);
+        }
+        return slot[1];
+    }
+
+    // carica l'ambiente (o l'oggetto) dello scope al nesting level dato, risalendo i $up
+    private void loadEnv(int level) {
+        Scope s = cur();
+        if (level == s.level) {
+            s.code.var(ALOAD, s.envLocal);
+            return;
+        }
+        s.code.var(ALOAD, 0);
+        for (int l = s.level - 1; l > level; l--) {
+            String owner = scopes.get(l).owner;
+            s.code.type(CHECKCAST, owner).field(GETFIELD, owner, UP, REF);
+        }
+        s.code.type(CHECKCAST, scopes.get(level).owner);
+    }
+
+    @Override
+    public String visitNode(CallNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        Scope target = scopes.get(node.entry.nl);
+        String[] fun = target.funs.get(node.entry.offset);
+        if (target.object) { // metodo della classe corrente chiamato senza oggetto
+            call(node.argList, () -> loadEnv(node.entry.nl));
+            cur().code.invoke(INVOKEVIRTUAL, fun[0], fun[1], fun[2]);
+            shrink(1);
+        } else if (node.entry.nl > 0) {
+            call(node.argList, () -> loadEnv(node.entry.nl));
+            cur().code.invoke(INVOKESTATIC, fun[0], fun[1], fun[2]);
+            shrink(1);
+        } else {
+            call(node.argList, null);
+            cur().code.invoke(INVOKESTATIC, fun[0], fun[1], fun[2]);
+        }
+        shrink(node.argList.size());
+        return descriptor(((ArrowTypeNode) node.entry.type).retType);
+    }
+
+    @Override
+    public String visitNode(ClassCallNode node) {
+        if (print) {
+            printNode(node, node.objId + "." + node.methId);
+        }
+        String className = ((RefTypeNode) node.entry.type).id;
+        String[] method = classInfo.get(className).methods.get(node.methodEntry.offset);
+        call(node.argList, () -> {
+            load(node.entry);
+            cur().code.type(CHECKCAST, className);
+        });
+        cur().code.invoke(INVOKEVIRTUAL, className, method[0], method[1]);
+        shrink(1 + node.argList.size());
+        return descriptor(((ArrowTypeNode) node.methodEntry.type).retType);
+    }
+
+    /*
+     * Mette sullo stack il destinatario (se c'è) e gli argomenti. La SVM valuta gli
+     * argomenti dall'ultimo al primo: se più di uno può avere effetti collaterali,
+     * vengono valutati in quell'ordine in variabili locali temporanee.
+     */
+    private void call(List<Node> argList, Runnable receiver) {
+        Scope s = cur();
+        boolean reorder = false;
+        if (argList.size() > 1) {
+            for (Node arg : argList) {
+                reorder |= !(arg instanceof IntNode || arg instanceof BoolNode
+                        || arg instanceof IdNode || arg instanceof EmptyNode);
+            }
+        }
+        if (!reorder) {
+            if (receiver != null) {
+                receiver.run();
+                grow(1);
+            }
+            for (Node arg : argList) {
+                eval(arg);
+            }
+            return;
+        }
+        int[] temps = new int[argList.size()];
+        String[] kinds = new String[argList.size()];
+        for (int i = argList.size() - 1; i >= 0; i--) {
+            kinds[i] = eval(argList.get(i));
+            temps[i] = s.nextLocal++;
+            s.code.var(kinds[i].equals(INT) ? ISTORE : ASTORE, temps[i]);
+            shrink(1);
+        }
+        if (receiver != null) {
+            receiver.run();
+            grow(1);
+        }
+        for (int i = 0; i < argList.size(); i++) {
+            s.code.var(kinds[i].equals(INT) ? ILOAD : ALOAD, temps[i]);
+            grow(1);
+        }
+    }
+
+    @Override
+    public String visitNode(NewNode node) {
+        if (print) {
+            printNode(node, node.id);
+        }
+        Code c = cur().code;
+        List<String[]> fields = classInfo.get(node.id).fields;
+        c.type(NEW, node.id).op(DUP).invoke(INVOKESPECIAL, node.id, "<init>", "()V");
+        grow(1);
+        for (int i = 0; i < node.argList.size(); i++) {
+            c.op(DUP);
+            grow(1);
+            eval(node.argList.get(i));
+            c.field(PUTFIELD, node.id, fields.get(i)[0], fields.get(i)[1]);
+            shrink(2);
+        }
+        shrink(1);
+        return REF;
+    }
+
+    // ---------------------------------------------------------------- espressioni
+
+    @Override
+    public String visitNode(PrintNode node) {
+        if (print) {
+            printNode(node);
+        }
+        Code c = cur().code;
+        String kind = eval(node.exp);
+        c.op(DUP);
+        if (kind.equals(INT)) {
+            c.field(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;").op(SWAP);
+            c.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(I)V");
+        } else {
+            c.invoke(INVOKESTATIC, MAIN_CLASS, "print", "(" + REF + ")V");
+        }
+        shrink(1);
+        return kind;
+    }
+
+    @Override
+    public String visitNode(IfNode node) {
+        if (print) {
+            printNode(node);
+        }
+        Code c = cur().code;
+        Label elseLabel = c.label(), end = c.label();
+        eval(node.cond);
+        c.iconst(1).jump(IF_ICMPNE, elseLabel);
+        shrink(1);
+        String kind = eval(node.th);
+        shrink(1);
+        c.jump(GOTO, end).mark(elseLabel);
+        String elseKind = eval(node.el);
+        shrink(1);
+        c.mark(end);
+        return kind.equals(REF) || elseKind.equals(REF) ? REF : INT;
+    }
+
+    @Override
+    public String visitNode(EqualNode node) {
+        if (print) {
+            printNode(node);
+        }
+        String l = eval(node.l);
+        String r = eval(node.r);
+        shrink(2);
+        return bool(l.equals(REF) || r.equals(REF) ? IF_ACMPEQ : IF_ICMPEQ);
+    }
+
+    @Override
+    public String visitNode(LessEqualNode node) {
+        if (print) {
+            printNode(node);
+        }
+        eval(node.l);
+        eval(node.r);
+        shrink(2);
+        return bool(IF_ICMPLE);
+    }
+
+    @Override
+    public String visitNode(GreaterEqualNode node) {
+        if (print) {
+            printNode(node);
+        }
+        // come nella SVM: r, l, sub e confronto con 0
+        eval(node.r);
+        eval(node.l);
+        cur().code.op(ISUB);
+        shrink(2);
+        return bool(IFLE);
+    }
+
+    @Override
+    public String visitNode(NotNode node) {
+        if (print) {
+            printNode(node);
+        }
+        eval(node.exp);
+        shrink(1);
+        return bool(IFEQ);
+    }
+
+    @Override
+    public String visitNode(AndNode node) {
+        if (print) {
+            printNode(node);
+        }
+        Code c = cur().code;
+        Label no = c.label(), end = c.label();
+        eval(node.l);
+        c.jump(IFEQ, no);
+        shrink(1);
+        eval(node.r);
+        c.jump(IFEQ, no);
+        shrink(1);
+        c.iconst(1).jump(GOTO, end).mark(no).iconst(0).mark(end);
+        return INT;
+    }
+
+    @Override
+    public String visitNode(OrNode node) {
+        if (print) {
+            printNode(node);
+        }
+        Code c = cur().code;
+        Label right = c.label(), yes = c.label(), end = c.label();
+        eval(node.l);
+        c.jump(IFEQ, right);
+        shrink(1);
+        c.jump(GOTO, yes).mark(right);
+        eval(node.r);
+        c.jump(IFNE, yes);
+        shrink(1);
+        c.iconst(0).jump(GOTO, end).mark(yes).iconst(1).mark(end);
+        return INT;
+    }
+
+    @Override
+    public String visitNode(TimesNode node) {
+        if (print) {
+            printNode(node);
+        }
+        return arithmetic(node.l, node.r, IMUL);
+    }
+
+    @Override
+    public String visitNode(DivNode node) {
+        if (print) {
+            printNode(node);
+        }
+        return arithmetic(node.l, node.r, IDIV);
+    }
+
+    @Override
+    public String visitNode(PlusNode node) {
+        if (print) {
+            printNode(node);
+        }
+        return arithmetic(node.l, node.r, IADD);
+    }
+
+    @Override
+    public String visitNode(MinusNode node) {
+        if (print) {
+            printNode(node);
+        }
+        return arithmetic(node.l, node.r, ISUB);
+    }
+
+    @Override
+    public String visitNode(BoolNode node) {
+        if (print) {
+            printNode(node, node.val.toString());
+        }
+        cur().code.iconst(node.val ? 1 : 0);
+        return INT;
+    }
+
+    @Override
+    public String visitNode(IntNode node) {
+        if (print) {
+            printNode(node, node.val.toString());
+        }
+        cur().code.iconst(node.val);
+        return INT;
+    }
+
+    @Override
+    public String visitNode(EmptyNode node) {
+        if (print) {
+            printNode(node);
+        }
+        cur().code.op(ACONST_NULL);
+        return REF;
+    }
+
+    // ---------------------------------------------------------------- supporto
+
+    private Scope cur() {
+        return scopes.get(scopes.size() - 1);
+    }
+
+    // valuta un'espressione lasciandone il valore sullo stack; restituisce il descrittore
+    private String eval(Node node) {
+        String kind = visit(node);
+        grow(1);
+        return kind;
+    }
+
+    private void grow(int n) {
+        Scope s = cur();
+        s.depth += n;
+        s.code.maxStack = Math.max(s.code.maxStack, s.depth + STACK_MARGIN);
+    }
+
+    private void shrink(int n) {
+        cur().depth -= n;
+    }
+
+    private String arithmetic(Node l, Node r, int opcode) {
+        eval(l);
+        eval(r);
+        cur().code.op(opcode);
+        shrink(2);
+        return INT;
+    }
+
+    // 1 se il salto condizionato opcode viene preso, 0 altrimenti
+    private String bool(int opcode) {
+        Code c = cur().code;
+        Label yes = c.label(), end = c.label();
+        c.jump(opcode, yes).iconst(0).jump(GOTO, end).mark(yes).iconst(1).mark(end);
+        return INT;
+    }
+
+    private static String descriptor(TypeNode type) {
+        return type instanceof RefTypeNode || type instanceof EmptyTypeNode ? REF : INT;
+    }
+
+    private static String methodDescriptor(boolean linked, List<TypeNode> parTypes, TypeNode retType) {
+        StringBuilder desc = new StringBuilder(linked ? "(" + REF : "(");
+        for (TypeNode t : parTypes) {
+            desc.append(descriptor(t));
+        }
+        return desc.append(")").append(descriptor(retType)).toString();
+    }
+
+    // ---------------------------------------------------------------- esecuzione
+
+    /** Scrive le classi generate nella directory data (eseguibili con java -cp dir FOOL$Program). */
+    public static void write(Map<String, byte[]> classes, File dir) throws IOException {
+        dir.mkdirs();
+        for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+            try (OutputStream out = new FileOutputStream(new File(dir, c.getKey() + ".class"))) {
+                out.write(c.getValue());
+            }
+        }
+    }
+
+    /** Carica le classi generate in un class loader dedicato ed esegue il programma. */
+    public static void run(Map<String, byte[]> classes) throws Exception {
+        ClassLoader loader = new ClassLoader(JVMCodeGenerationASTVisitor.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) throw new ClassNotFoundException(name);
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        loader.loadClass(MAIN_CLASS).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+    }
+}
@@ -0,0 +1,87 @@
+package compiler;
+
+import java.util.*;
+
+import org.antlr.v4.runtime.*;
+import compiler.lib.*;
+
+/**
+ * Confronta il parsing di FOOLParser in una sola fase con predizione LL completa
+ * (il default di ANTLR) e in due fasi SLL-poi-LL (FOOLlib.parse) su sorgenti
+ * generati con molte espressioni annidate, di dimensione crescente. Per ogni
+ * sorgente controlla anche che i due parse tree coincidano e che, su una
+ * versione con un errore di sintassi, i messaggi di errore siano identici.
+ * Uso: java compiler.ParseBenchmark [dichiarazioni massime]
+ */
+public class ParseBenchmark {
+
+    public static void main(String[] args) {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        System.out.println("declarations    tokens    LL ms  SLL/LL ms  speedup");
+        for (int n = 500; n <= max; n *= 2) {
+            String source = program(n);
+            String broken = source.replaceFirst("\\+ \\(", "+ + (");
+            if (!tree(source, false).equals(tree(source, true)) || !errors(broken, false).equals(errors(broken, true))) {
+                throw new IllegalStateException("Two-stage parsing differs from full LL on "+n+" declarations");
+            }
+            long ll = Long.MAX_VALUE, twoStage = Long.MAX_VALUE;
+            for (int run = 0; run < 10; run++) {
+                ll = Math.min(ll, time(source, false));
+                twoStage = Math.min(twoStage, time(source, true));
+            }
+            int tokens = new CommonTokenStream(new FOOLLexer(CharStreams.fromString(source))).getNumberOfOnChannelTokens();
+            System.out.printf(Locale.ROOT, "%12d %9d %8.1f %10.1f %7.2fx%n", n, tokens, ll / 1e6, twoStage / 1e6, (double) ll / twoStage);
+        }
+    }
+
+    private static FOOLParser parser(String source) {
+        return new FOOLParser(new CommonTokenStream(new FOOLLexer(CharStreams.fromString(source))));
+    }
+
+    private static ParserRuleContext parse(FOOLParser parser, boolean twoStage) {
+        return twoStage ? FOOLlib.parse(parser, FOOLParser::prog) : parser.prog();
+    }
+
+    // tempo del solo parsing: i token sono gia' tutti prodotti dal lexer
+    private static long time(String source, boolean twoStage) {
+        FOOLParser parser = parser(source);
+        ((CommonTokenStream) parser.getTokenStream()).fill();
+        long start = System.nanoTime();
+        parse(parser, twoStage);
+        return System.nanoTime() - start;
+    }
+
+    private static String tree(String source, boolean twoStage) {
+        FOOLParser parser = parser(source);
+        return parse(parser, twoStage).toStringTree(parser);
+    }
+
+    private static List<String> errors(String source, boolean twoStage) {
+        FOOLParser parser = parser(source);
+        List<String> errors = new ArrayList<>();
+        parser.removeErrorListeners();
+        parser.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                errors.add("line "+line+":"+charPositionInLine+" "+msg);
+            }
+        });
+        parse(parser, twoStage);
+        return errors;
+    }
+
+    // n dichiarazioni con espressioni aritmetiche, booleane e condizionali annidate
+    static String program(int n) {
+        StringBuilder source = new StringBuilder("let\n  fun f:int (a:int, b:bool) if (b) then { a } else { 0 - a };\n");
+        for (int i = 0; i < n; i++) {
+            String prev = i == 0 ? "1" : "v" + (i - 1);
+            source.append("  var v").append(i).append(":int = ")
+                  .append("(").append(prev).append(" * ").append(i % 7 + 1).append(" + (").append(prev).append(" - ").append(i)
+                  .append(") / 2) + (if (").append(prev).append(" <= ").append(i).append(" && !(").append(prev).append(" == 3) || ")
+                  .append(prev).append(" >= 2) then { f(").append(prev).append(" + 1, true) } else { (").append(prev)
+                  .append(" - 1) * (2 + 3 * (4 - ").append(prev).append(")) });\n");
+        }
+        return source.append("in print(v").append(n - 1).append(");\n").toString();
+    }
+}
@@ -0,0 +1,234 @@
+package compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
+import compiler.exc.*;
+import svm.*;
+
+/**
+ * Compilazione ed esecuzione di un programma FOOL interamente in memoria, per
+ * chi usa il compilatore da un altro programma (Test e' invece il driver da riga
+ * di comando che stampa le fasi e scrive i file .asm e .svmo).
+ *
+ * Sorgente (stringa o CharStream) -> AST arricchito -> AST semplificato dal
+ * constant folding (se attivo nelle opzioni) -> codice SVM (righe) ->
+ * codice assemblato (int[] in un ObjectFile) -> esecuzione. Il codice generato
+ * passa all'assemblatore senza essere scritto su file; il testo .asm viene
+ * prodotto solo se richiesto con Result.asm(). Gli errori di ogni fase sono
+ * contati nel Result: la compilazione si ferma alla prima fase con errori
+ * (le fasi successive restano a null) invece di terminare la JVM. I messaggi
+ * di errore non vengono stampati ma raccolti in Result.diagnostics, e per ogni
+ * fase eseguita Result.phaseNanos ne contiene la durata.
+ * Con PrattParser l'AST e' costruito senza parse tree e il tempo di parsing
+ * comprende anche quello della costruzione dell'AST.
+ */
+public class Pipeline {
+
+    // fasi della compilazione (indici di Result.phaseNanos); il lexing avviene durante il parsing
+    public static final int PARSING = 0, AST_GENERATION = 1, SYMBOL_TABLE = 2, TYPE_CHECKING = 3,
+        CONSTANT_FOLDING = 4, CODE_GENERATION = 5, ASSEMBLY = 6;
+    public static final String[] PHASES = {"parsing", "AST generation", "symbol table", "type checking",
+        "constant folding", "code generation", "assembly"};
+
+    /** Esito della compilazione: errori per fase e prodotti delle fasi completate. */
+    public static class Result {
+        public int lexicalErrors;
+        public int syntaxErrors;
+        public int symbolTableErrors;
+        public int typeErrors;
+        public int asmLexicalErrors;
+        public int asmSyntaxErrors;
+
+        public Node ast;           // AST arricchito e controllato (null se ci sono errori di parsing)
+        public TypeNode type;      // tipo dell'espressione principale, se determinato
+        public List<String> code;  // codice SVM dopo l'ottimizzazione peephole
+        public ObjectFile object;  // programma assemblato
+
+        public String diagnostics;                          // messaggi di errore, una riga ciascuno
+        public final long[] phaseNanos = new long[PHASES.length]; // durata delle fasi (0 se non eseguita)
+        public boolean cached;     // letto da CompilationCache: ast e type sono null
+
+        public int frontEndErrors() {
+            return lexicalErrors + syntaxErrors + symbolTableErrors + typeErrors;
+        }
+
+        public int errors() {
+            return frontEndErrors() + asmLexicalErrors + asmSyntaxErrors;
+        }
+
+        /** Testo .asm del codice generato (null se la compilazione si e' fermata prima). */
+        public String asm() {
+            return code == null ? null : String.join("\n", code);
+        }
+
+        /** Una VM pronta a eseguire il programma assemblato. */
+        public ExecuteVM newVM() {
+            if (object == null) {
+                throw new IllegalStateException("Program not compiled: "+this);
+            }
+            return object.newVM();
+        }
+
+        public void run() {
+            newVM().cpu();
+        }
+
+        @Override
+        public String toString() {
+            return lexicalErrors+" lexical, "+syntaxErrors+" syntax, "+symbolTableErrors+" symbol table, "
+                +typeErrors+" type checking, "+(asmLexicalErrors + asmSyntaxErrors)+" assembly errors";
+        }
+    }
+
+    private final CodeGenerationASTVisitor.Options codeGen;
+    private final boolean prattParser;
+
+    public Pipeline() {
+        this(false);
+    }
+
+    /** @param refCounting codice per il reference counting invece che per il garbage collector */
+    public Pipeline(boolean refCounting) {
+        this(refCounting, false);
+    }
+
+    /**
+     * @param prattParser AST costruito direttamente da PrattParser; se il sorgente
+     *                    ha errori viene comunque analizzato da FOOLParser, per i messaggi
+     */
+    public Pipeline(boolean refCounting, boolean prattParser) {
+        this(CodeGenerationASTVisitor.Options.heap(refCounting).conditionCodes(true).constantFolding(true), prattParser);
+    }
+
+    /** @param codeGen opzioni di CodeGenerationASTVisitor, da non modificare dopo la creazione */
+    public Pipeline(CodeGenerationASTVisitor.Options codeGen, boolean prattParser) {
+        this.codeGen = codeGen;
+        this.prattParser = prattParser;
+    }
+
+    public boolean refCounting() {
+        return codeGen.refCounting();
+    }
+
+    public CodeGenerationASTVisitor.Options codeGen() {
+        return codeGen;
+    }
+
+    public Result compile(String source) {
+        return compile(CharStreams.fromString(source));
+    }
+
+    public Result compile(CharStream chars) {
+        Result result = new Result();
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        CompilationContext context = new CompilationContext();
+        context.diagnostics = new PrintStream(diagnostics, true, StandardCharsets.UTF_8);
+        try {
+            compile(chars, context, result);
+        } finally {
+            result.diagnostics = diagnostics.toString(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    /**
+     * AST arricchito e controllato di source, senza ottimizzazioni ne' codice,
+     * per i programmi di verifica e i benchmark. Errore se source ha errori.
+     */
+    static Node frontEnd(String source) {
+        Result result = new Result();
+        CompilationContext context = new CompilationContext();
+        context.diagnostics = new PrintStream(OutputStream.nullOutputStream());
+        Node ast = new Pipeline().analyze(CharStreams.fromString(source), context, result);
+        if (ast == null) throw new IllegalStateException("Program has "+result+":\n"+source);
+        return ast;
+    }
+
+    private void compile(CharStream chars, CompilationContext context, Result result) {
+        Node ast = analyze(chars, context, result);
+        if (ast == null) return;
+        long start = System.nanoTime();
+        if (codeGen.constantFolding()) {
+            ast = new ConstantFoldingEASTVisitor().visit(ast);
+            start = phase(result, CONSTANT_FOLDING, start);
+        }
+
+        result.code = Peephole.optimize(new CodeGenerationASTVisitor(context, codeGen).generate(ast).lines());
+        start = phase(result, CODE_GENERATION, start);
+
+        Assembler assembler = new Assembler(result.asm());
+        assembler.diagnostics = context.diagnostics;
+        assembler.assemble();
+        result.asmLexicalErrors = assembler.lexicalErrors;
+        result.asmSyntaxErrors = assembler.syntaxErrors;
+        if (result.errors() == 0) result.object = ObjectFile.of(assembler, codeGen.refCounting());
+        phase(result, ASSEMBLY, start);
+    }
+
+    // parsing, tabella dei simboli e type checking: l'AST arricchito, null se ci sono errori
+    private Node analyze(CharStream chars, CompilationContext context, Result result) {
+        long start = System.nanoTime();
+        Node ast = prattParser ? new PrattParser(chars.toString()).parse() : null;
+        if (ast != null) {
+            start = phase(result, PARSING, start); // comprende la costruzione dell'AST
+        } else {
+            ast = parse(chars, context, result, start);
+            if (ast == null) return null;
+            start = System.nanoTime();
+        }
+
+        SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(context);
+        symtableVisitor.visit(ast);
+        result.symbolTableErrors = symtableVisitor.stErrors;
+        start = phase(result, SYMBOL_TABLE, start);
+
+        try {
+            result.type = new TypeCheckEASTVisitor(context).visit(ast);
+        } catch (IncomplException e) {
+            // AST incompleto per gli errori della tabella dei simboli, gia' contati
+        } catch (TypeException e) {
+            context.diagnostics.println("Type checking error in main program expression: "+e.text);
+        }
+        result.typeErrors = context.typeErrors;
+        result.ast = ast;
+        phase(result, TYPE_CHECKING, start);
+        return result.frontEndErrors() > 0 ? null : ast;
+    }
+
+    // FOOLLexer, FOOLParser e ASTGenerationSTVisitor: l'AST, null se ci sono errori di parsing
+    private Node parse(CharStream chars, CompilationContext context, Result result, long start) {
+        FOOLLexer lexer = new FOOLLexer(chars);
+        lexer.diagnostics = context.diagnostics;
+        FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                context.diagnostics.println("line "+line+":"+charPositionInLine+" "+msg);
+            }
+        });
+        ParseTree st = FOOLlib.parse(parser, FOOLParser::prog);
+        result.lexicalErrors = lexer.lexicalErrors;
+        result.syntaxErrors = parser.getNumberOfSyntaxErrors();
+        start = phase(result, PARSING, start);
+        if (result.frontEndErrors() > 0) return null;
+
+        Node ast = new ASTGenerationSTVisitor().visit(st);
+        phase(result, AST_GENERATION, start);
+        return ast;
+    }
+
+    // registra la durata della fase iniziata a start e restituisce l'inizio della successiva
+    private static long phase(Result result, int phase, long start) {
+        long end = System.nanoTime();
+        result.phaseNanos[phase] = end - start;
+        return end;
+    }
+}
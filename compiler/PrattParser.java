@@ -0,0 +1,434 @@
+package compiler;
+
+import java.util.*;
+
+import compiler.AST.*;
+import compiler.lib.*;
+
+import static compiler.FOOLLexer.*;
+
+/**
+ * Lexer e parser di FOOL scritti a mano, alternativi a FOOLLexer, FOOLParser e
+ * ASTGenerationSTVisitor: costruiscono l'AST (con le stesse righe di setLine)
+ * in una sola passata sul sorgente, senza token stream ne' parse tree.
+ *
+ * Le dichiarazioni sono riconosciute per discesa ricorsiva, le espressioni con
+ * un parser di Pratt che riproduce le precedenze di FOOL.g4: in ordine
+ * crescente && e ||, poi == <= >=, poi + -, poi * /, tutti associativi a
+ * sinistra; l'operando di ! e' un'intera espressione (come exp(12) in
+ * FOOLParser), quindi !a && b e' !(a && b).
+ *
+ * Non c'e' recupero dagli errori: al primo carattere non valido o token
+ * inatteso parse() restituisce null, e il sorgente va analizzato con
+ * FOOLParser, che resta l'implementazione di riferimento anche per i messaggi
+ * di errore (vedi Pipeline).
+ */
+public class PrattParser {
+
+    // precedenza degli operatori binari (0 se il token non lo e')
+    private static final int[] PRECEDENCE = new int[ID + 1];
+    private static final Map<String, Integer> KEYWORDS = new HashMap<>();
+
+    static {
+        PRECEDENCE[AND] = PRECEDENCE[OR] = 1;
+        PRECEDENCE[EQ] = PRECEDENCE[LE] = PRECEDENCE[GE] = 2;
+        PRECEDENCE[PLUS] = PRECEDENCE[MINUS] = 3;
+        PRECEDENCE[TIMES] = PRECEDENCE[DIV] = 4;
+        for (int type = TRUE; type <= BOOL; type++) {
+            String literal = VOCABULARY.getLiteralName(type);
+            KEYWORDS.put(literal.substring(1, literal.length() - 1), type);
+        }
+    }
+
+    /** Errore lessicale o sintattico: interrompe il parsing. */
+    private static class SyntaxError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final SyntaxError SYNTAX_ERROR = new SyntaxError();
+
+    private final CharSequence source;
+
+    // token corrente
+    private int pos = 0, line = 1;
+    private int type, start, end, tokenLine;
+
+    public PrattParser(CharSequence source) {
+        this.source = source;
+    }
+
+    /** L'AST del programma, null se il sorgente ha errori lessicali o sintattici. */
+    public Node parse() {
+        try {
+            next();
+            Node prog = prog();
+            expect(EOF);
+            return prog;
+        } catch (SyntaxError e) {
+            return null;
+        }
+    }
+
+    private Node prog() {
+        if (type != LET) {
+            Node exp = exp(0);
+            expect(SEMIC);
+            return new ProgNode(exp);
+        }
+        next();
+        List<DecNode> declist = new ArrayList<>();
+        while (type == CLASS) declist.add(cldec());
+        if (declist.isEmpty()) declist.add(dec()); // senza classi serve almeno una dichiarazione
+        while (type != IN) declist.add(dec());
+        next();
+        Node exp = exp(0);
+        expect(SEMIC);
+        return new ProgLetInNode(declist, exp);
+    }
+
+    private ClassNode cldec() {
+        next();
+        int classLine = tokenLine;
+        String classID = id();
+        String superID = null;
+        if (type == EXTENDS) {
+            next();
+            superID = id();
+        }
+        expect(LPAR);
+        List<FieldNode> fields = new ArrayList<>();
+        if (type != RPAR) {
+            do {
+                int fieldLine = tokenLine;
+                String fieldID = id();
+                expect(COLON);
+                FieldNode field = new FieldNode(fieldID, type());
+                field.setLine(fieldLine);
+                fields.add(field);
+            } while (accept(COMMA));
+        }
+        expect(RPAR);
+        expect(CLPAR);
+        List<MethodNode> methods = new ArrayList<>();
+        while (type != CRPAR) {
+            if (type != FUN) throw SYNTAX_ERROR;
+            next();
+            int methodLine = tokenLine;
+            String methodID = id();
+            expect(COLON);
+            TypeNode retType = type();
+            List<ParNode> parList = parameters();
+            List<DecNode> decList = localDeclarations();
+            Node exp = exp(0);
+            expect(SEMIC);
+            MethodNode method = new MethodNode(methodID, retType, parList, decList, exp);
+            method.setLine(methodLine);
+            methods.add(method);
+        }
+        next();
+        ClassNode n = new ClassNode(classID, superID, fields, methods);
+        n.setLine(classLine);
+        return n;
+    }
+
+    private DecNode dec() {
+        int decLine = tokenLine;
+        if (accept(VAR)) {
+            String id = id();
+            expect(COLON);
+            TypeNode varType = type();
+            expect(ASS);
+            Node exp = exp(0);
+            expect(SEMIC);
+            VarNode n = new VarNode(id, varType, exp);
+            n.setLine(decLine);
+            return n;
+        }
+        expect(FUN);
+        String id = id();
+        expect(COLON);
+        TypeNode retType = type();
+        List<ParNode> parList = parameters();
+        List<DecNode> decList = localDeclarations();
+        Node exp = exp(0);
+        expect(SEMIC);
+        FunNode n = new FunNode(id, retType, parList, decList, exp);
+        n.setLine(decLine);
+        return n;
+    }
+
+    // LPAR (ID COLON type (COMMA ID COLON type)*)? RPAR
+    private List<ParNode> parameters() {
+        expect(LPAR);
+        List<ParNode> parList = new ArrayList<>();
+        if (type != RPAR) {
+            do {
+                int parLine = tokenLine;
+                String id = id();
+                expect(COLON);
+                ParNode par = new ParNode(id, type());
+                par.setLine(parLine);
+                parList.add(par);
+            } while (accept(COMMA));
+        }
+        expect(RPAR);
+        return parList;
+    }
+
+    // (LET dec+ IN)?
+    private List<DecNode> localDeclarations() {
+        List<DecNode> decList = new ArrayList<>();
+        if (accept(LET)) {
+            do decList.add(dec()); while (type != IN);
+            next();
+        }
+        return decList;
+    }
+
+    private TypeNode type() {
+        if (accept(INT)) return new IntTypeNode();
+        if (accept(BOOL)) return new BoolTypeNode();
+        int typeLine = tokenLine;
+        RefTypeNode n = new RefTypeNode(id());
+        n.setLine(typeLine);
+        return n;
+    }
+
+    // espressione con operatori binari di precedenza almeno minPrecedence
+    private Node exp(int minPrecedence) {
+        Node left = primary();
+        for (int op = type; precedence(op) > 0 && precedence(op) >= minPrecedence; op = type) {
+            int opLine = tokenLine;
+            next();
+            Node right = exp(precedence(op) + 1);
+            switch (op) {
+                case TIMES: left = new TimesNode(left, right); break;
+                case DIV: left = new DivNode(left, right); break;
+                case PLUS: left = new PlusNode(left, right); break;
+                case MINUS: left = new MinusNode(left, right); break;
+                case EQ: left = new EqualNode(left, right); break;
+                case LE: left = new LessEqualNode(left, right); break;
+                case GE: left = new GreaterEqualNode(left, right); break;
+                case AND: left = new AndNode(left, right); break;
+                default: left = new OrNode(left, right);
+            }
+            left.setLine(opLine);
+        }
+        return left;
+    }
+
+    private static int precedence(int type) {
+        return type >= 0 && type < PRECEDENCE.length ? PRECEDENCE[type] : 0;
+    }
+
+    private Node primary() {
+        int primaryLine = tokenLine;
+        Node n;
+        switch (type) {
+            case NOT:
+                next();
+                n = new NotNode(exp(0));
+                break;
+            case LPAR:
+                next();
+                n = exp(0);
+                expect(RPAR);
+                return n;
+            case MINUS:
+                next();
+                if (type != NUM) throw SYNTAX_ERROR;
+                n = new IntNode(-Integer.parseInt(text()));
+                next();
+                return n;
+            case NUM:
+                n = new IntNode(Integer.parseInt(text()));
+                next();
+                return n;
+            case TRUE:
+                next();
+                return new BoolNode(true);
+            case FALSE:
+                next();
+                return new BoolNode(false);
+            case NULL:
+                next();
+                return new EmptyNode();
+            case NEW:
+                next();
+                primaryLine = tokenLine;
+                String classID = id();
+                n = new NewNode(classID, arguments());
+                break;
+            case IF: {
+                next();
+                Node cond = exp(0);
+                expect(THEN);
+                expect(CLPAR);
+                Node th = exp(0);
+                expect(CRPAR);
+                expect(ELSE);
+                expect(CLPAR);
+                Node el = exp(0);
+                expect(CRPAR);
+                n = new IfNode(cond, th, el);
+                break;
+            }
+            case PRINT:
+                next();
+                expect(LPAR);
+                n = new PrintNode(exp(0));
+                expect(RPAR);
+                break;
+            case ID: {
+                String id = id();
+                if (type == LPAR) {
+                    n = new CallNode(id, arguments());
+                } else if (accept(DOT)) {
+                    primaryLine = tokenLine;
+                    String methodID = id();
+                    n = new ClassCallNode(id, methodID, arguments());
+                } else {
+                    n = new IdNode(id);
+                }
+                break;
+            }
+            default:
+                throw SYNTAX_ERROR;
+        }
+        n.setLine(primaryLine);
+        return n;
+    }
+
+    // LPAR (exp (COMMA exp)*)? RPAR
+    private List<Node> arguments() {
+        expect(LPAR);
+        List<Node> argList = new ArrayList<>();
+        if (type != RPAR) {
+            do argList.add(exp(0)); while (accept(COMMA));
+        }
+        expect(RPAR);
+        return argList;
+    }
+
+    private String id() {
+        if (type != ID) throw SYNTAX_ERROR;
+        String id = text();
+        next();
+        return id;
+    }
+
+    private void expect(int expected) {
+        if (type != expected) throw SYNTAX_ERROR;
+        next();
+    }
+
+    private boolean accept(int expected) {
+        if (type != expected) return false;
+        next();
+        return true;
+    }
+
+    private String text() {
+        return source.subSequence(start, end).toString();
+    }
+
+    // lexer: legge il token successivo, saltando spazi e commenti
+    private void next() {
+        int length = source.length();
+        while (pos < length) {
+            char c = source.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') {
+                pos++;
+                continue;
+            }
+            if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '*') {
+                int close = pos + 2;
+                while (close + 1 < length && !(source.charAt(close) == '*' && source.charAt(close + 1) == '/')) close++;
+                if (close + 1 >= length) throw SYNTAX_ERROR; // commento non chiuso
+                for (int k = pos; k < close; k++) {
+                    if (source.charAt(k) == '\n') line++;
+                }
+                pos = close + 2;
+                continue;
+            }
+            start = pos;
+            tokenLine = line;
+            if (isLetter(c)) {
+                do pos++; while (pos < length && (isLetter(source.charAt(pos)) || isDigit(source.charAt(pos))));
+                end = pos;
+                Integer keyword = KEYWORDS.get(text());
+                type = keyword == null ? ID : keyword;
+                return;
+            }
+            if (isDigit(c)) {
+                pos++;
+                if (c != '0') {
+                    while (pos < length && isDigit(source.charAt(pos))) pos++;
+                }
+                end = pos;
+                type = NUM;
+                return;
+            }
+            char d = pos + 1 < length ? source.charAt(pos + 1) : 0;
+            pos++;
+            switch (c) {
+                case '+': type = PLUS; break;
+                case '-': type = MINUS; break;
+                case '*': type = TIMES; break;
+                case '/': type = DIV; break;
+                case '(': type = LPAR; break;
+                case ')': type = RPAR; break;
+                case '{': type = CLPAR; break;
+                case '}': type = CRPAR; break;
+                case ';': type = SEMIC; break;
+                case ':': type = COLON; break;
+                case ',': type = COMMA; break;
+                case '.': type = DOT; break;
+                case '!': type = NOT; break;
+                case '|': type = two(d, '|', OR); break;
+                case '&': type = two(d, '&', AND); break;
+                case '>': type = two(d, '=', GE); break;
+                case '<': type = two(d, '=', LE); break;
+                case '=':
+                    if (d == '=') {
+                        pos++;
+                        type = EQ;
+                    } else {
+                        type = ASS;
+                    }
+                    break;
+                default:
+                    throw SYNTAX_ERROR; // carattere non valido
+            }
+            end = pos;
+            return;
+        }
+        type = EOF;
+        start = end = pos;
+        tokenLine = line;
+    }
+
+    // operatore di due caratteri, il secondo dei quali deve essere second
+    private int two(char d, char second, int type) {
+        if (d != second) throw SYNTAX_ERROR;
+        pos++;
+        return type;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
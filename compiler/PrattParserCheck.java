@@ -0,0 +1,135 @@
+package compiler;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.antlr.v4.runtime.*;
+import compiler.lib.*;
+
+/**
+ * Confronto differenziale fra PrattParser e il front-end ANTLR (FOOLLexer,
+ * FOOLParser e ASTGenerationSTVisitor), che resta l'implementazione di
+ * riferimento. Su prova.fool, sui file .fool indicati e su programmi generati
+ * controlla che i due AST siano identici, sia nella stampa di PrintEASTVisitor
+ * sia nelle righe assegnate ai nodi; su varianti dei sorgenti con un carattere
+ * rimosso controlla inoltre che PrattParser rifiuti esattamente i sorgenti con
+ * errori lessicali o sintattici. Infine confronta i tempi dei due front-end.
+ * Uso: java compiler.PrattParserCheck [directory|file.fool ...]
+ */
+public class PrattParserCheck {
+
+    private static final int VARIANTS = 200; // varianti con un carattere rimosso per sorgente
+
+    public static void main(String[] args) throws Exception {
+        List<String> sources = new ArrayList<>();
+        sources.add(Files.readString(Paths.get("prova.fool")));
+        for (String arg : args) {
+            try (var walk = Files.walk(Paths.get(arg))) {
+                for (Path file : (Iterable<Path>) walk.filter(f -> f.toString().endsWith(".fool")).sorted()::iterator) {
+                    sources.add(Files.readString(file));
+                }
+            }
+        }
+        for (int n = 0; n < 50; n++) sources.add(ConcurrentCompileCheck.program(n));
+        sources.add(ParseBenchmark.program(100));
+
+        Random random = new Random(42);
+        int compared = 0, rejected = 0;
+        for (String source : sources) {
+            compared += check(source) ? 1 : 0;
+            for (int v = 0; v < VARIANTS && source.length() > 0; v++) {
+                int at = random.nextInt(source.length());
+                rejected += check(source.substring(0, at) + source.substring(at + 1)) ? 0 : 1;
+            }
+        }
+        System.out.println(sources.size()+" sources and "+sources.size() * VARIANTS+" variants: "
+            +compared+" identical ASTs, "+rejected+" variants rejected by both parsers.");
+
+        System.out.println("declarations    ANTLR ms    Pratt ms  speedup");
+        for (int n = 500; n <= 8000; n *= 2) {
+            String source = ParseBenchmark.program(n);
+            long antlr = Long.MAX_VALUE, pratt = Long.MAX_VALUE;
+            for (int run = 0; run < 10; run++) {
+                long start = System.nanoTime();
+                antlr(source);
+                antlr = Math.min(antlr, System.nanoTime() - start);
+                start = System.nanoTime();
+                new PrattParser(source).parse();
+                pratt = Math.min(pratt, System.nanoTime() - start);
+            }
+            System.out.printf(Locale.ROOT, "%12d %11.2f %11.2f %7.1fx%n", n, antlr / 1e6, pratt / 1e6, (double) antlr / pratt);
+        }
+    }
+
+    // true se il sorgente e' corretto e gli AST coincidono, false se entrambi lo rifiutano
+    private static boolean check(String source) throws Exception {
+        Node expected, actual;
+        try {
+            expected = antlr(source);
+        } catch (NumberFormatException e) { // costante fuori dall'intervallo di int: stessa eccezione
+            expected = null;
+        }
+        try {
+            actual = new PrattParser(source).parse();
+        } catch (NumberFormatException e) {
+            actual = null;
+        }
+        if ((expected == null) != (actual == null)) {
+            throw new IllegalStateException((expected == null ? "Only ANTLR rejects:\n" : "Only PrattParser rejects:\n")+source);
+        }
+        if (expected == null) return false;
+        if (!print(expected).equals(print(actual)) || !sameLines(expected, actual)) {
+            throw new IllegalStateException("Different ASTs for:\n"+source);
+        }
+        return true;
+    }
+
+    // l'AST costruito dal front-end ANTLR, null se ci sono errori lessicali o sintattici
+    private static Node antlr(String source) {
+        FOOLLexer lexer = new FOOLLexer(CharStreams.fromString(source));
+        lexer.diagnostics = new PrintStream(OutputStream.nullOutputStream());
+        FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        var st = FOOLlib.parse(parser, FOOLParser::prog);
+        if (lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() > 0) return null;
+        return new ASTGenerationSTVisitor().visit(st);
+    }
+
+    private static String print(Node ast) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            new PrintEASTVisitor().visit(ast);
+        } finally {
+            System.setOut(out);
+        }
+        return printed.toString(StandardCharsets.UTF_8);
+    }
+
+    // stesse righe (getLine) in tutti i nodi corrispondenti dei due alberi
+    private static boolean sameLines(Object a, Object b) throws IllegalAccessException {
+        if (a == null || b == null) return a == b;
+        if (a instanceof List) {
+            List<?> la = (List<?>) a, lb = (List<?>) b;
+            if (la.size() != lb.size()) return false;
+            for (int i = 0; i < la.size(); i++) {
+                if (!sameLines(la.get(i), lb.get(i))) return false;
+            }
+            return true;
+        }
+        if (!(a instanceof Node)) return true;
+        if (a.getClass() != b.getClass() || ((Node) a).getLine() != ((Node) b).getLine()) return false;
+        for (Class<?> c = a.getClass(); c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || !(Node.class.isAssignableFrom(f.getType()) || List.class.isAssignableFrom(f.getType()))) continue;
+                f.setAccessible(true);
+                if (!sameLines(f.get(a), f.get(b))) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.*;
 import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
 
 public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
@@ -28,10 +29,21 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         return entry;
     }
 
-    SymbolTableASTVisitor() {}
+    private final CompilationContext context; // destinazione dei messaggi di errore
 
-    SymbolTableASTVisitor(boolean debug) {
+    // solo per il Test originale, che crea i visitor senza argomenti (vedi
+    // simulate-prof-test.yml): il resto del compilatore passa sempre il contesto
+    SymbolTableASTVisitor() {
+        this(new CompilationContext());
+    }
+
+    SymbolTableASTVisitor(CompilationContext context) {
+        this.context = context;
+    }
+
+    SymbolTableASTVisitor(CompilationContext context, boolean debug) {
         super(debug);
+        this.context = context;
     }
 
     @Override
@@ -75,7 +87,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         );
 
         if (scopeTable.put(n.id, entry) != null) {
-            System.out.println("Fun id " + n.id + " at line " + n.getLine() + " already declared");
+            context.diagnostics.println("Fun id " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
 
@@ -89,7 +101,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         int parOffset = 1;
         for (ParNode par : n.parList) {
             if (funScope.put(par.id, new STentry(nestingLevel, par.getType(), parOffset++)) != null) {
-                System.out.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
+                context.diagnostics.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
                 stErrors++;
             }
         }
@@ -115,7 +127,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         STentry entry = new STentry(nestingLevel, n.getType(), decOffset--);
 
         if (scopeTable.put(n.id, entry) != null) {
-            System.out.println("Var id " + n.id + " at line " + n.getLine() + " already declared");
+            context.diagnostics.println("Var id " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
         return null;
@@ -132,7 +144,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         if (n.superID != null) {
             Map<String, STentry> superVT = classTable.get(n.superID);
             if (superVT == null) {
-                System.out.println("Extending class id " + n.superID + " at line " + n.getLine() + " not declared");
+                context.diagnostics.println("Extending class id " + n.superID + " at line " + n.getLine() + " not declared");
                 stErrors++;
             } else {
                 STentry superEntry = globalST.get(n.superID);
@@ -150,7 +162,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         n.type = ct;
 
         if (globalST.put(n.id, classEntry) != null) {
-            System.out.println("Class id " + n.id + " at line " + n.getLine() + " already declared");
+            context.diagnostics.println("Class id " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
 
@@ -174,7 +186,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         for (FieldNode f : n.fields) {
             if (seenInClass.contains(f.id)) {
-                System.out.println("Field id " + f.id + " at line " + f.getLine() + " already declared in class");
+                context.diagnostics.println("Field id " + f.id + " at line " + f.getLine() + " already declared in class");
                 stErrors++;
             }
             seenInClass.add(f.id);
@@ -189,7 +201,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
                 fe = new STentry(nestingLevel, f.getType(), currentFieldOffset--);
                 ct.allFields.add(-fe.offset - 1, fe.type);
                 if (overridden != null) {
-                    System.out.println("Cannot override field id " + f.id + " with a method");
+                    context.diagnostics.println("Cannot override field id " + f.id + " with a method");
                     stErrors++;
                 }
             }
@@ -204,7 +216,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         for (MethodNode m : n.methods) {
             if (seenInClass.contains(m.id)) {
-                System.out.println("Method id " + m.id + " at line " + m.getLine() + " already declared in class");
+                context.diagnostics.println("Method id " + m.id + " at line " + m.getLine() + " already declared in class");
                 stErrors++;
             }
             seenInClass.add(m.id);
@@ -258,7 +270,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         } else {
             me = new STentry(nestingLevel, mType, decOffset++);
             if (overridden != null) {
-                System.out.println("Cannot override method id " + n.id + " with a field");
+                context.diagnostics.println("Cannot override method id " + n.id + " with a field");
                 stErrors++;
             }
         }
@@ -276,7 +288,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         int parOffset = 1;
         for (ParNode p : n.parList) {
             if (methodScope.put(p.id, new STentry(nestingLevel, p.getType(), parOffset++)) != null) {
-                System.out.println("Par id " + p.id + " at line " + n.getLine() + " already declared");
+                context.diagnostics.println("Par id " + p.id + " at line " + n.getLine() + " already declared");
                 stErrors++;
             }
         }
@@ -298,7 +310,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         STentry classEntry = symTable.get(0).get(n.id);
         if (classEntry == null) {
-            System.out.println("Class id " + n.id + " at line " + n.getLine() + " not declared");
+            context.diagnostics.println("Class id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         } else {
             n.entry = classEntry;
@@ -315,7 +327,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         if (print) printNode(n, n.id);
 
         if (!classTable.containsKey(n.id)) {
-            System.out.println("Class with id " + n.id + " at line " + n.getLine() + " not declared");
+            context.diagnostics.println("Class with id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         }
         return null;
@@ -327,14 +339,14 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         STentry objEntry = stLookup(n.objId);
         if (objEntry == null) {
-            System.out.println("Object id " + n.objId + " at line " + n.getLine() + " not declared");
+            context.diagnostics.println("Object id " + n.objId + " at line " + n.getLine() + " not declared");
             stErrors++;
             for (Node arg : n.argList) visit(arg);
             return null;
         }
 
         if (!(objEntry.type instanceof RefTypeNode)) {
-            System.out.println("Object id " + n.objId + " at line " + n.getLine() + " is not a class reference");
+            context.diagnostics.println("Object id " + n.objId + " at line " + n.getLine() + " is not a class reference");
             stErrors++;
             for (Node arg : n.argList) visit(arg);
             return null;
@@ -346,7 +358,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         String classId = ((RefTypeNode) objEntry.type).id;
         Map<String, STentry> vtable = classTable.get(classId);
         if (vtable == null) {
-            System.out.println("Class " + classId + " for object " + n.objId + " not declared");
+            context.diagnostics.println("Class " + classId + " for object " + n.objId + " not declared");
             stErrors++;
             for (Node arg : n.argList) visit(arg);
             return null;
@@ -356,7 +368,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         if (methodEntry == null
                 || methodEntry.offset < 0
                 || !(methodEntry.type instanceof ArrowTypeNode)) {
-            System.out.println("Method id " + n.methId + " at line " + n.getLine()
+            context.diagnostics.println("Method id " + n.methId + " at line " + n.getLine()
                     + " not declared in class " + classId);
             stErrors++;
         } else {
@@ -375,7 +387,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         STentry entry = stLookup(n.id);
         if (entry == null) {
-            System.out.println("Fun id " + n.id + " at line " + n.getLine() + " not declared");
+            context.diagnostics.println("Fun id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         } else {
             n.entry = entry;
@@ -394,7 +406,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         STentry entry = stLookup(n.id);
         if (entry == null) {
-            System.out.println("Var or Par id " + n.id + " at line " + n.getLine() + " not declared");
+            context.diagnostics.println("Var or Par id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         } else {
             n.entry = entry;
@@ -0,0 +1,106 @@
+package compiler;
+
+import java.util.*;
+
+import compiler.lib.*;
+import compiler.CodeGenerationASTVisitor.Options;
+import svm.*;
+
+import static compiler.EngineHarness.*;
+
+/**
+ * Verifica l'eliminazione delle chiamate ricorsive in coda di
+ * CodeGenerationASTVisitor, per il garbage collector e per il reference counting:
+ * - programmi con ricorsioni in coda (funzioni con variabili locali e parametri
+ *   riferimento, funzioni annidate che usano l'access link, metodi che richiamano
+ *   se stessi o un override su un altro oggetto) devono dare lo stesso output con
+ *   e senza l'ottimizzazione, con tutte le modalita' di esecuzione;
+ * - con l'ottimizzazione una ricorsione in coda di un milione di chiamate (che
+ *   crea ad ogni passo un oggetto) deve funzionare con la memoria iniziale, senza
+ *   farla crescere, mentre senza l'ottimizzazione non ci sta.
+ * Stampa anche il tempo di esecuzione con cpu() nei due casi.
+ * Uso: java compiler.TailCallCheck [chiamate]
+ */
+public class TailCallCheck {
+
+    private static final String[] PROGRAMS = {
+        // funzione con una variabile locale, chiamata in coda in un if annidato
+        "let\n"
+            + "  fun collatz:int (n:int, steps:int)\n"
+            + "    let var half:int = n / 2;\n"
+            + "    in if (n <= 1) then { steps } else { if (half + half == n) then { collatz(half, steps + 1) }\n"
+            + "                                         else { collatz(3 * n + 1, steps + 1) } };\n"
+            + "in print(collatz(27, 0));\n",
+        // funzione annidata ricorsiva che legge parametri della funzione esterna
+        "let\n"
+            + "  fun power:int (base:int, exp:int)\n"
+            + "    let fun loop:int (k:int, acc:int) if (k <= 0) then { acc } else { loop(k - 1, acc * base) };\n"
+            + "    in loop(exp, 1);\n"
+            + "in print(power(3, 12));\n",
+        // parametri e variabili riferimento, metodi che richiamano se stessi o un override
+        "let\n"
+            + "  class Node (v:int, next:Node) {\n"
+            + "    fun tail:Node () next;\n"
+            + "    fun sum:int (acc:int) if (next == null) then { acc + v } else { next.sum(acc + v) };\n"
+            + "  }\n"
+            + "  class Neg extends Node (w:int) {\n"
+            + "    fun sum:int (acc:int) if (next == null) then { acc - v } else { next.sum(acc - v) };\n"
+            + "  }\n"
+            + "  fun build:Node (n:int, l:Node) if (n <= 0) then { l } else {\n"
+            + "    build(n - 1, if (n - (n / 3) * 3 == 0) then { new Neg(n, l, 0) } else { new Node(n, l) }) };\n"
+            + "  fun length:int (l:Node, acc:int)\n"
+            + "    let var rest:Node = l.tail();\n"
+            + "    in if (rest == null) then { acc + 1 } else { length(rest, acc + 1) };\n"
+            + "  var list:Node = build(200, null);\n"
+            + "in print(length(list, 0) + list.sum(0));\n",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        for (String source : PROGRAMS) {
+            Node ast = Pipeline.frontEnd(source);
+            for (boolean refCounting : new boolean[] {false, true}) {
+                String expected = run(compile(ast, Options.heap(refCounting).conditionCodes(true).callInstructions(true)), ExecuteVM::cpu);
+                sameOnAllEngines(compile(ast, Options.heap(refCounting).conditionCodes(true).callInstructions(true).tailCallElimination(true)), expected,
+                    "tail calls"+(refCounting ? " (rc)" : "")+" of:\n"+source);
+            }
+        }
+        System.out.println(PROGRAMS.length+" programs with the same output with and without tail calls.");
+
+        String loop = "let\n"
+            + "  class Box (v:int) { fun get:int () v; }\n"
+            + "  fun count:int (n:int, acc:int, last:Box)\n"
+            + "    let var box:Box = new Box(n);\n"
+            + "    in if (n <= 0) then { acc + last.get() } else { count(n - 1, acc + 1, box) };\n"
+            + "in print(count(" + calls + ", 0, new Box(0)));\n";
+        Node ast = Pipeline.frontEnd(loop);
+        String expected = (calls + 1) + "\n"; // l'ultimo Box creato vale 1
+        System.out.println("mode  tail calls  initial memory   cpu ms");
+        for (boolean refCounting : new boolean[] {false, true}) {
+            for (boolean tailCalls : new boolean[] {false, true}) {
+                ObjectFile object = compile(ast, Options.heap(refCounting).conditionCodes(true).callInstructions(true).tailCallElimination(tailCalls));
+                ExecuteVM fixed = object.newVM();
+                fixed.setMemorySize(ExecuteVM.MEMSIZE, ExecuteVM.MEMSIZE);
+                boolean fits;
+                try {
+                    fits = run(fixed, ExecuteVM::cpu).equals(expected);
+                } catch (IllegalStateException e) {
+                    fits = false;
+                }
+                if (fits != tailCalls) {
+                    throw new IllegalStateException((refCounting ? "rc: " : "gc: ")+calls+" calls "
+                        +(fits ? "fit" : "do not fit")+" in the initial memory "+(tailCalls ? "with" : "without")+" tail calls");
+                }
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 5; run++) {
+                    long start = System.nanoTime();
+                    String output = run(object, ExecuteVM::cpu);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (!output.equals(expected)) throw new IllegalStateException("Wrong result: "+output);
+                }
+                System.out.printf(Locale.ROOT, "%4s  %-10s  %-14s %7.2f%n", refCounting ? "rc" : "gc",
+                    tailCalls ? "yes" : "no", fits ? "enough" : "not enough", best / 1e6);
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package compiler;
 
 import java.io.*;
+import java.util.*;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import compiler.lib.*;
+import compiler.TypeRels.CompilationContext;
 import compiler.exc.*;
 import svm.*;
 
@@ -13,13 +15,40 @@ public class Test {
    			
     	String fileName = "prova.fool";
 
+    	if (Arrays.asList(args).contains("-load")) { // esegue il codice oggetto di una compilazione precedente
+    		System.out.println("Running "+fileName+".svmo via Stack Virtual Machine.");
+    		ExecuteVM.load(new File(fileName+".svmo")).cpu();
+    		return;
+    	}
+
+    	// -rc reference counting invece del garbage collector, -call istruzioni di chiamata,
+    	// -tailcalls eliminazione delle chiamate in coda, -display scope esterni tramite il display,
+    	// -nofold senza constant folding
+    	CodeGenerationASTVisitor.Options options = CodeGenerationASTVisitor.Options.heap(Arrays.asList(args).contains("-rc"))
+    		.callInstructions(Arrays.asList(args).contains("-call"))
+    		.tailCallElimination(Arrays.asList(args).contains("-tailcalls"))
+    		.display(Arrays.asList(args).contains("-display"))
+    		.conditionCodes(true)
+    		.constantFolding(!Arrays.asList(args).contains("-nofold"));
+
+    	if (Arrays.asList(args).contains("-cache")) { // compila tramite la cache su disco (vedi CompilationCache)
+    		CompilationCache cache = new CompilationCache(new File(".foolcache").toPath(), CompilationCache.DEFAULT_MAX_SIZE);
+    		Pipeline.Result result = cache.compile(new Pipeline(options, false), CharStreams.fromFileName(fileName).toString());
+    		System.out.print(result.diagnostics);
+    		System.out.println((result.cached ? "Found " : "Compiled ")+fileName+" in the cache: you had "+result+".\n");
+    		if (result.object == null) System.exit(1);
+    		System.out.println("Running generated code via Stack Virtual Machine.");
+    		result.run();
+    		return;
+    	}
+
     	CharStream chars = CharStreams.fromFileName(fileName);
     	FOOLLexer lexer = new FOOLLexer(chars);
     	CommonTokenStream tokens = new CommonTokenStream(lexer);
     	FOOLParser parser = new FOOLParser(tokens);
 
     	System.out.println("Generating ST via lexer and parser.");
-    	ParseTree st = parser.prog();
+    	ParseTree st = FOOLlib.parse(parser, FOOLParser::prog);
     	System.out.println("You had "+lexer.lexicalErrors+" lexical errors and "+
     		parser.getNumberOfSyntaxErrors()+" syntax errors.\n");
 
@@ -29,7 +58,8 @@ public class Test {
     	System.out.println("");
 
     	System.out.println("Enriching AST via symbol table.");
-    	SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
+    	CompilationContext context = new CompilationContext();
+    	SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(context);
     	symtableVisitor.visit(ast);
     	System.out.println("You had "+symtableVisitor.stErrors+" symbol table errors.\n");
 
@@ -39,7 +69,7 @@ public class Test {
 
     	System.out.println("Checking Types.");
     	try {
-    		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor();
+    		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(context);
     		TypeNode mainType = typeCheckVisitor.visit(ast);
     		System.out.print("Type of main program expression is: ");
     		new PrintEASTVisitor().visit(mainType);
@@ -48,35 +78,65 @@ public class Test {
     	} catch (TypeException e) {
     		System.out.println("Type checking error in main program expression: "+e.text); 
     	}       	
-    	System.out.println("You had "+FOOLlib.typeErrors+" type checking errors.\n");
+    	System.out.println("You had "+context.typeErrors+" type checking errors.\n");
 
-    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.typeErrors;
+    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+context.typeErrors;
 		System.out.println("You had a total of "+frontEndErrors+" front-end errors.\n");
 		
 		if ( frontEndErrors > 0) System.exit(1);   
 
+    	if (options.constantFolding()) {
+    		System.out.println("Folding constants.");
+    		ConstantFoldingEASTVisitor foldingVisitor = new ConstantFoldingEASTVisitor();
+    		ast = foldingVisitor.visit(ast);
+    		System.out.println("You had "+foldingVisitor.folded+" expressions folded or simplified.\n");
+    	}
+
+    	if (Arrays.asList(args).contains("-jvm")) {
+    		System.out.println("Generating JVM classes.");
+    		JVMCodeGenerationASTVisitor jvmVisitor = new JVMCodeGenerationASTVisitor();
+    		jvmVisitor.visit(ast);
+    		JVMCodeGenerationASTVisitor.write(jvmVisitor.getClasses(), new File(fileName+".classes"));
+    		System.out.println("");
+
+    		System.out.println("Running generated code via JVM.");
+    		JVMCodeGenerationASTVisitor.run(jvmVisitor.getClasses());
+    		return;
+    	}
+
     	System.out.println("Generating code.");
-    	String code = new CodeGenerationASTVisitor().visit(ast);
+    	CodeGenerationASTVisitor.CodeBuffer generated = new CodeGenerationASTVisitor(context, options).generate(ast);
+    	String code = String.join("\n", Peephole.optimize(generated.lines()));
     	BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm")); 
     	out.write(code);
     	out.close(); 
     	System.out.println("");
 
     	System.out.println("Assembling generated code.");
-    	CharStream charsASM = CharStreams.fromFileName(fileName+".asm");
-    	SVMLexer lexerASM = new SVMLexer(charsASM);
-    	CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-    	SVMParser parserASM = new SVMParser(tokensASM);
-
-    	parserASM.assembly();
+    	Assembler assembler = new Assembler(code);
+    	assembler.assemble();
 
     	// needed only for debug
-    	System.out.println("You had: "+lexerASM.lexicalErrors+" lexical errors and "+parserASM.getNumberOfSyntaxErrors()+" syntax errors.\n");
-    	if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors()>0) System.exit(1);
+    	System.out.println("You had: "+assembler.lexicalErrors+" lexical errors and "+assembler.syntaxErrors+" syntax errors.\n");
+    	if (assembler.lexicalErrors+assembler.syntaxErrors>0) System.exit(1);
 
     	System.out.println("Running generated code via Stack Virtual Machine.");
-    	ExecuteVM vm = new ExecuteVM(parserASM.code);
-    	vm.cpu();
+    	ObjectFile object = ObjectFile.of(assembler, options.refCounting());
+    	object.write(new File(fileName+".svmo")); // rieseguibile con -load senza ricompilare
+    	ExecuteVM vm = object.newVM();
+    	// memoria fuori dallo heap Java, eventualmente mappata su file per esaminarla dopo l'esecuzione
+    	Memory memory = Arrays.asList(args).contains("-mmap") ? new OffHeapMemory(new File(fileName+".mem").toPath(), ExecuteVM.MEMSIZE)
+    		: Arrays.asList(args).contains("-offheap") ? new OffHeapMemory(ExecuteVM.MEMSIZE) : null;
+    	if (memory == null) {
+    		vm.cpu();
+    		return;
+    	}
+    	vm.setMemory(memory);
+    	try {
+    		vm.cpu();
+    	} finally {
+    		vm.getMemory().close(); // quella attuale, se la memoria e' cresciuta con resize()
+    	}
 
     }
 }
@@ -3,17 +3,26 @@ package compiler;
 import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
-
-import static compiler.TypeRels.*;
+import compiler.TypeRels.CompilationContext;
 
 public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeException> {
 
+    private final CompilationContext context; // errori di tipo, messaggi e gerarchia delle classi
+
+    // solo per il Test originale, che crea i visitor senza argomenti (vedi
+    // simulate-prof-test.yml): il resto del compilatore passa sempre il contesto
     TypeCheckEASTVisitor() {
+        this(new CompilationContext());
+    }
+
+    TypeCheckEASTVisitor(CompilationContext context) {
         super(true);
+        this.context = context;
     }
 
-    TypeCheckEASTVisitor(boolean debug) {
+    TypeCheckEASTVisitor(CompilationContext context, boolean debug) {
         super(true, debug);
+        this.context = context;
     }
 
     private TypeNode ckvisit(TypeNode t) throws TypeException {
@@ -21,6 +30,20 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         return t;
     }
 
+    // errore di tipo, contato nel contesto della compilazione
+    private TypeException typeError(String text, int line) {
+        context.typeErrors++;
+        return new TypeException(text, line);
+    }
+
+    private boolean isSubtype(TypeNode a, TypeNode b) {
+        return TypeRels.isSubtype(a, b, context.superType);
+    }
+
+    private TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+        return TypeRels.lowestCommonAncestor(a, b, context.superType);
+    }
+
     @Override
     public TypeNode visitNode(ProgLetInNode n) throws TypeException {
         if (print) printNode(n);
@@ -29,7 +52,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.diagnostics.println("Type checking error in a declaration: " + e.text);
             }
         }
         return visit(n.exp);
@@ -49,11 +72,11 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.diagnostics.println("Type checking error in a declaration: " + e.text);
             }
         }
         if (!isSubtype(visit(n.exp), ckvisit(n.retType))) {
-            throw new TypeException("Wrong return type for function " + n.id, n.getLine());
+            throw typeError("Wrong return type for function " + n.id, n.getLine());
         }
         return null;
     }
@@ -62,7 +85,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(VarNode n) throws TypeException {
         if (print) printNode(n, n.id);
         if (!isSubtype(visit(n.exp), ckvisit(n.getType()))) {
-            throw new TypeException("Incompatible value for variable " + n.id, n.getLine());
+            throw typeError("Incompatible value for variable " + n.id, n.getLine());
         }
         return null;
     }
@@ -77,13 +100,13 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(IfNode n) throws TypeException {
         if (print) printNode(n);
         if (!isSubtype(visit(n.cond), new BoolTypeNode())) {
-            throw new TypeException("Non boolean condition in if", n.getLine());
+            throw typeError("Non boolean condition in if", n.getLine());
         }
         TypeNode t = visit(n.th);
         TypeNode e = visit(n.el);
         TypeNode lca = lowestCommonAncestor(t, e);
         if (lca == null) {
-            throw new TypeException("Incompatible types in then-else branches", n.getLine());
+            throw typeError("Incompatible types in then-else branches", n.getLine());
         }
         return lca;
     }
@@ -94,7 +117,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode l = visit(n.l);
         TypeNode r = visit(n.r);
         if (!(isSubtype(l, r) || isSubtype(r, l))) {
-            throw new TypeException("Incompatible types in equal", n.getLine());
+            throw typeError("Incompatible types in equal", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -105,7 +128,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode l = visit(n.l);
         TypeNode r = visit(n.r);
         if (!(isSubtype(l, r) || isSubtype(r, l))) {
-            throw new TypeException("Incompatible types in greater equal", n.getLine());
+            throw typeError("Incompatible types in greater equal", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -116,7 +139,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode l = visit(n.l);
         TypeNode r = visit(n.r);
         if (!(isSubtype(l, r) || isSubtype(r, l))) {
-            throw new TypeException("Incompatible types in less equal", n.getLine());
+            throw typeError("Incompatible types in less equal", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -127,7 +150,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode l = visit(n.l);
         TypeNode r = visit(n.r);
         if (!(isSubtype(l, r) || isSubtype(r, l))) {
-            throw new TypeException("Incompatible types in AND", n.getLine());
+            throw typeError("Incompatible types in AND", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -138,7 +161,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode l = visit(n.l);
         TypeNode r = visit(n.r);
         if (!(isSubtype(l, r) || isSubtype(r, l))) {
-            throw new TypeException("Incompatible types in OR", n.getLine());
+            throw typeError("Incompatible types in OR", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -147,7 +170,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(NotNode n) throws TypeException {
         if (print) printNode(n);
         if (!isSubtype(visit(n.exp), new BoolTypeNode())) {
-            throw new TypeException("Non boolean operand in not", n.getLine());
+            throw typeError("Non boolean operand in not", n.getLine());
         }
         return new BoolTypeNode();
     }
@@ -156,7 +179,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(TimesNode n) throws TypeException {
         if (print) printNode(n);
         if (!(isSubtype(visit(n.l), new IntTypeNode()) && isSubtype(visit(n.r), new IntTypeNode()))) {
-            throw new TypeException("Non integers in multiplication", n.getLine());
+            throw typeError("Non integers in multiplication", n.getLine());
         }
         return new IntTypeNode();
     }
@@ -165,7 +188,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(DivNode n) throws TypeException {
         if (print) printNode(n);
         if (!(isSubtype(visit(n.l), new IntTypeNode()) && isSubtype(visit(n.r), new IntTypeNode()))) {
-            throw new TypeException("Non integers in division", n.getLine());
+            throw typeError("Non integers in division", n.getLine());
         }
         return new IntTypeNode();
     }
@@ -174,7 +197,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(PlusNode n) throws TypeException {
         if (print) printNode(n);
         if (!(isSubtype(visit(n.l), new IntTypeNode()) && isSubtype(visit(n.r), new IntTypeNode()))) {
-            throw new TypeException("Non integers in sum", n.getLine());
+            throw typeError("Non integers in sum", n.getLine());
         }
         return new IntTypeNode();
     }
@@ -183,7 +206,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     public TypeNode visitNode(MinusNode n) throws TypeException {
         if (print) printNode(n);
         if (!(isSubtype(visit(n.l), new IntTypeNode()) && isSubtype(visit(n.r), new IntTypeNode()))) {
-            throw new TypeException("Non integers in subtraction", n.getLine());
+            throw typeError("Non integers in subtraction", n.getLine());
         }
         return new IntTypeNode();
     }
@@ -194,18 +217,18 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
 
         TypeNode t = visit(n.entry);
         if (!(t instanceof ArrowTypeNode)) {
-            throw new TypeException("Invocation of a non-function " + n.id, n.getLine());
+            throw typeError("Invocation of a non-function " + n.id, n.getLine());
         }
 
         ArrowTypeNode at = (ArrowTypeNode) t;
 
         if (at.parList.size() != n.argList.size()) {
-            throw new TypeException("Wrong number of parameters in the invocation of " + n.id, n.getLine());
+            throw typeError("Wrong number of parameters in the invocation of " + n.id, n.getLine());
         }
 
         for (int i = 0; i < n.argList.size(); i++) {
             if (!isSubtype(visit(n.argList.get(i)), at.parList.get(i))) {
-                throw new TypeException(
+                throw typeError(
                         "Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.id,
                         n.getLine()
                 );
@@ -221,18 +244,18 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
 
         TypeNode mt = visit(n.methodEntry);
         if (!(mt instanceof ArrowTypeNode)) {
-            throw new TypeException("Invocation of a non-method " + n.methId, n.getLine());
+            throw typeError("Invocation of a non-method " + n.methId, n.getLine());
         }
 
         ArrowTypeNode at = (ArrowTypeNode) mt;
 
         if (at.parList.size() != n.argList.size()) {
-            throw new TypeException("Wrong number of parameters in the invocation of " + n.methId, n.getLine());
+            throw typeError("Wrong number of parameters in the invocation of " + n.methId, n.getLine());
         }
 
         for (int i = 0; i < n.argList.size(); i++) {
             if (!isSubtype(visit(n.argList.get(i)), at.parList.get(i))) {
-                throw new TypeException(
+                throw typeError(
                         "Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.methId,
                         n.getLine()
                 );
@@ -248,10 +271,10 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         TypeNode t = visit(n.entry);
 
         if (t instanceof ArrowTypeNode) {
-            throw new TypeException("Wrong usage of function identifier " + n.id, n.getLine());
+            throw typeError("Wrong usage of function identifier " + n.id, n.getLine());
         }
         if (t instanceof ClassTypeNode) {
-            throw new TypeException("Wrong usage of class identifier " + n.id, n.getLine());
+            throw typeError("Wrong usage of class identifier " + n.id, n.getLine());
         }
         return t;
     }
@@ -261,18 +284,18 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(n, n.id);
 
         if (!(n.entry.type instanceof ClassTypeNode)) {
-            throw new TypeException("Invocation of new on a non-class " + n.id, n.getLine());
+            throw typeError("Invocation of new on a non-class " + n.id, n.getLine());
         }
 
         ClassTypeNode ct = (ClassTypeNode) n.entry.type;
 
         if (ct.allFields.size() != n.argList.size()) {
-            throw new TypeException("Wrong number of fields in new " + n.id, n.getLine());
+            throw typeError("Wrong number of fields in new " + n.id, n.getLine());
         }
 
         for (int i = 0; i < n.argList.size(); i++) {
             if (!isSubtype(visit(n.argList.get(i)), ct.allFields.get(i))) {
-                throw new TypeException(
+                throw typeError(
                         "Wrong type for " + (i + 1) + "-th field in new " + n.id,
                         n.getLine()
                 );
@@ -291,7 +314,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         }
 
         if (n.superID != null) {
-            superType.put(n.id, n.superID);
+            context.superType.put(n.id, n.superID);
 
             ClassTypeNode classType = n.type;
             ClassTypeNode parentType = (ClassTypeNode) n.superEntry.type;
@@ -300,7 +323,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 int pos = -f.offset - 1;
                 if (pos < parentType.allFields.size()
                         && !isSubtype(classType.allFields.get(pos), parentType.allFields.get(pos))) {
-                    throw new TypeException("Wrong type for field " + f.id, f.getLine());
+                    throw typeError("Wrong type for field " + f.id, f.getLine());
                 }
             }
 
@@ -308,7 +331,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 int pos = m.offset;
                 if (pos < parentType.allMethods.size()
                         && !isSubtype(classType.allMethods.get(pos), parentType.allMethods.get(pos))) {
-                    throw new TypeException("Wrong type for method " + m.id, m.getLine());
+                    throw typeError("Wrong type for method " + m.id, m.getLine());
                 }
             }
         }
@@ -325,12 +348,12 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.diagnostics.println("Type checking error in a declaration: " + e.text);
             }
         }
 
         if (!isSubtype(visit(n.exp), ckvisit(n.retType))) {
-            throw new TypeException("Wrong return type for method " + n.id, n.getLine());
+            throw typeError("Wrong return type for method " + n.id, n.getLine());
         }
 
         return null;
@@ -3,15 +3,18 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.PrintStream;
+import java.util.*;
 import java.util.stream.IntStream;
 
+/**
+ * Relazioni fra tipi: sottotipo e minimo antenato comune. La gerarchia delle
+ * classi (classe -> superclasse) e' quella della compilazione in corso, vedi
+ * CompilationContext.superType.
+ */
 public class TypeRels {
 
-    public static Map<String, String> superType = new HashMap<>();
-
-    public static boolean isSubtype(TypeNode a, TypeNode b) {
+    public static boolean isSubtype(TypeNode a, TypeNode b, Map<String, String> superType) {
 
         if (a instanceof RefTypeNode && b instanceof RefTypeNode) {
             String t = ((RefTypeNode) a).id;
@@ -31,9 +34,9 @@ public class TypeRels {
                 return false;
             }
 
-            return isSubtype(atA.retType, atB.retType)
+            return isSubtype(atA.retType, atB.retType, superType)
                     && IntStream.range(0, atA.parList.size())
-                    .allMatch(i -> isSubtype(atB.parList.get(i), atA.parList.get(i)));
+                    .allMatch(i -> isSubtype(atB.parList.get(i), atA.parList.get(i), superType));
         }
 
         if (a.getClass().equals(b.getClass())) {
@@ -51,7 +54,7 @@ public class TypeRels {
         return false;
     }
 
-    public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+    public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b, Map<String, String> superType) {
 
         if (a instanceof EmptyTypeNode) {
             return b;
@@ -71,7 +74,7 @@ public class TypeRels {
             String t = ida;
             while (t != null) {
                 RefTypeNode cand = new RefTypeNode(t);
-                if (isSubtype(b, cand)) {
+                if (isSubtype(b, cand, superType)) {
                     return cand;
                 }
                 t = superType.get(t);
@@ -89,4 +92,37 @@ public class TypeRels {
 
         return null;
     }
+
+    /**
+     * Stato mutabile di una singola compilazione, condiviso dai visitor che la
+     * eseguono: errori di tipo, contatori delle label fresche, gerarchia delle
+     * classi e destinazione dei messaggi di errore. Ogni compilazione usa un
+     * proprio contesto, per cui compilazioni diverse possono procedere in
+     * parallelo nella stessa JVM e le label ripartono da zero ad ogni programma
+     * (una singola compilazione resta sequenziale).
+     * Sta qui, e non in compiler.lib, perche' i visitor e TypeRels devono
+     * compilare anche insieme ai soli file di supporto originali.
+     */
+    public static class CompilationContext {
+
+        public int typeErrors = 0;
+
+        // messaggi di errore di tabella dei simboli e type checking
+        public PrintStream diagnostics = System.out;
+
+        // classe -> superclasse diretta, riempita dal type checking
+        public final Map<String, String> superType = new HashMap<>();
+
+        private int labCount = 0;
+
+        public String freshLabel() {
+            return "label"+(labCount++);
+        }
+
+        private int funlabCount = 0;
+
+        public String freshFunLabel() {
+            return "function"+(funlabCount++);
+        }
+    }
 }
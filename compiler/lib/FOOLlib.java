@@ -1,5 +1,12 @@
 package compiler.lib;
 
+import java.util.*;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
 public class FOOLlib {
 
 	public static String extractNodeName(String s) { // s is in the form compiler.AST$NameNode
@@ -14,36 +21,37 @@ public class FOOLlib {
     	return Character.toLowerCase(s.charAt(0))+s.substring(1,s.length());
     }
     
-	public static int typeErrors = 0;
-
 	// crea un'unica stringa a partire da un insieme di stringhe concatenadole e 
 	// introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
 	public static String nlJoin(String... lines) { //argomenti null ignorati 
-		String code = null;
-		for (int i = 0; i<lines.length; i++) 
-			if (lines[i]!=null) code = (code==null?"":code+"\n")+lines[i]; 
-		return code;
-	}
-
-	private static int labCount = 0;
-
-	public static String freshLabel() {
-		return "label"+(labCount++);
-	}
-
-	private static int funlabCount = 0;
-
-	public static String freshFunLabel() {
-		return "function"+(funlabCount++);
-	}
-
-	private static String funCode = null;
-
-	public static void putCode(String c) {
-		funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
+		StringBuilder code = null;
+		for (String line : lines)
+			if (line!=null) code = (code==null?new StringBuilder():code.append("\n")).append(line);
+		return code==null?null:code.toString();
 	}
 
-	public static String getCode() {
-		return funCode;
+	// parsing in due fasi con la regola rule: prima con la predizione SLL (veloce) e
+	// una strategia che si ferma al primo errore, senza riportarlo; solo se fallisce
+	// si riparte dall'inizio (il lexer non viene rieseguito) con la predizione LL
+	// completa e la gestione degli errori originale, che riporta gli stessi messaggi
+	// del parsing in una sola fase. Input corretti non arrivano quasi mai alla seconda
+	public static <P extends Parser, T extends ParserRuleContext> T parse(P parser, Function<P, T> rule) {
+		List<ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+		ANTLRErrorStrategy errorHandler = parser.getErrorHandler();
+		PredictionMode mode = parser.getInterpreter().getPredictionMode();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		T tree = null;
+		try {
+			tree = rule.apply(parser);
+		} catch (ParseCancellationException e) {
+			parser.reset(); // riporta anche il token stream all'inizio
+		} finally {
+			listeners.forEach(parser::addErrorListener);
+			parser.setErrorHandler(errorHandler);
+			parser.getInterpreter().setPredictionMode(mode);
+		}
+		return tree != null ? tree : rule.apply(parser);
 	}
 }
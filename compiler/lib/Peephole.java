@@ -0,0 +1,92 @@
+package compiler.lib;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Ottimizzazione peephole sul codice SVM prodotto da CodeGenerationASTVisitor.
+ *
+ * Sostituisce le sequenze ricorrenti del codice generato con le superistruzioni
+ * della SVM:
+ * - "lfp; push k; add; lw"            diventa "lwfp k"      (variabile locale)
+ * - "lfp; lw (n volte)"                diventa "lal n"       (catena di access link)
+ * - "lhp; sw; lhp; push 1; add; shp"   diventa "swhp"        (scrittura in heap)
+ * - "push k; add"                      diventa "addi k"
+ * - "push a; push b; add"              diventa "push a+b"
+ * - "push a; lw" (anche dopo la somma) diventa "lwa a"       (globale o display)
+ *
+ * Le righe di label fanno da barriera: nessuna sequenza viene fusa attraverso
+ * una label, per cui i salti continuano ad arrivare all'inizio di un'istruzione.
+ */
+public class Peephole {
+
+	private static final Pattern INTEGER = Pattern.compile("0|-?[1-9][0-9]*");
+
+	public static String optimize(String code) {
+		if (code == null) return null;
+		return String.join("\n", optimize(Arrays.asList(code.split("\n", -1))));
+	}
+
+	// stessa ottimizzazione sulle righe del codice (es. CodeGenerationASTVisitor.CodeBuffer.lines())
+	public static List<String> optimize(List<String> lines) {
+		List<String> out = new ArrayList<>(lines.size());
+		int i = 0;
+		while (i < lines.size()) {
+			if (matches(lines, i, "lhp", "sw", "lhp", "push 1", "add", "shp")) {
+				out.add("swhp");
+				i += 6;
+			} else if (lines.get(i).equals("lfp")) {
+				int n = 0;
+				while (i + 1 + n < lines.size() && lines.get(i + 1 + n).equals("lw")) n++;
+				int j = i + 1 + n;
+				Integer k = pushedInt(lines, j);
+				if (k != null && matches(lines, j + 1, "add", "lw")) {
+					if (n == 0) {
+						out.add("lwfp " + k);
+					} else {
+						out.add("lal " + n);
+						out.add("addi " + k);
+						out.add("lw");
+					}
+					i = j + 3;
+				} else {
+					out.add(n == 0 ? "lfp" : "lal " + n);
+					i = j;
+				}
+			} else if (pushedInt(lines, i) != null && pushedInt(lines, i + 1) != null
+					&& matches(lines, i + 2, "add")) {
+				int a = pushedInt(lines, i) + pushedInt(lines, i + 1);
+				if (matches(lines, i + 3, "lw")) {
+					out.add("lwa " + a);
+					i += 4;
+				} else {
+					out.add("push " + a);
+					i += 3;
+				}
+			} else if (pushedInt(lines, i) != null && matches(lines, i + 1, "lw")) {
+				out.add("lwa " + pushedInt(lines, i));
+				i += 2;
+			} else if (pushedInt(lines, i) != null && matches(lines, i + 1, "add")) {
+				out.add("addi " + pushedInt(lines, i));
+				i += 2;
+			} else {
+				out.add(lines.get(i++));
+			}
+		}
+		return out;
+	}
+
+	private static boolean matches(List<String> lines, int from, String... pattern) {
+		if (from + pattern.length > lines.size()) return false;
+		for (int k = 0; k < pattern.length; k++)
+			if (!lines.get(from + k).equals(pattern[k])) return false;
+		return true;
+	}
+
+	// valore di una "push n" con operando intero (non label), null altrimenti
+	private static Integer pushedInt(List<String> lines, int i) {
+		if (i >= lines.size() || !lines.get(i).startsWith("push ")) return null;
+		String arg = lines.get(i).substring(5);
+		return INTEGER.matcher(arg).matches() ? Integer.valueOf(arg) : null;
+	}
+}
@@ -1,181 +1,103 @@
 push 0
 lhp
 push function0
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
+objmap 0 1 1
 lhp
 push function0
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
 push function1
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
+objmap 1 2 2
 lhp
 push function2
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
 push function3
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
+objmap 3 2 1 -1
 lhp
 push function2
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
 push function4
-lhp
-sw
-lhp
-push 1
-add
-shp
+swhp
+objmap 5 2 1 -1
 push 50000
 push 40000
-lhp
-sw
-lhp
+alloc 3
+label12:
+stackmap label12 -1
+swhp
+swhp
 push 1
-add
-shp
-lhp
-sw
-lhp
-push 1
-add
-shp
-push 10000
-push -3
-add
-lw
 lhp
 sw
 lhp
 lhp
-push 1
-add
+addi 1
 shp
+alloc 2
+label13:
+stackmap label13 -1 -6
+swhp
+push 5
 lhp
 sw
 lhp
-push 1
-add
-shp
-push 10000
-push -5
-add
-lw
-lhp
-sw
 lhp
-lhp
-push 1
-add
+addi 1
 shp
 push 20000
 push 5000
-lhp
-sw
-lhp
-push 1
-add
-shp
-lhp
-sw
-lhp
+alloc 3
+label14:
+stackmap label14 -1 -6
+swhp
+swhp
 push 1
-add
-shp
-push 10000
-push -3
-add
-lw
 lhp
 sw
 lhp
 lhp
-push 1
-add
+addi 1
 shp
 lfp
-lfp
-push -7
-add
-lw
-lfp
-push -6
-add
-lw
+lwfp -7
+lwfp -6
 stm
 ltm
 ltm
 lw
-push 1
-add
+addi 1
 lw
 js
-lfp
-push -8
-add
-lw
+label15:
+stackmap label15 -1 -6 -7
+lwfp -8
 push -1
-beq label10
-push 0
-b label11
-label10:
-push 1
-label11:
-push 1
-beq label8
+beq label16
 lfp
-lfp
-push -8
-add
-lw
+lwfp -8
 stm
 ltm
 ltm
 lw
-push 0
-add
+addi 0
 lw
 js
-b label9
-label8:
+label18:
+stackmap label18 -1 -6 -7 -8
+b label17
+label16:
 push 0
-label9:
+label17:
 print
 halt
 
 function0:
 cfp
 lra
-lfp
-lw
-push -1
-add
+lal 1
+addi -1
 lw
 stm
 sra
@@ -188,10 +110,8 @@ js
 function1:
 cfp
 lra
-lfp
-lw
-push -2
-add
+lal 1
+addi -2
 lw
 stm
 sra
@@ -204,10 +124,8 @@ js
 function2:
 cfp
 lra
-lfp
-lw
-push -1
-add
+lal 1
+addi -1
 lw
 stm
 sra
@@ -222,75 +140,55 @@ cfp
 lra
 push 30000
 lfp
-lfp
-push 1
-add
-lw
+lwfp 1
 stm
 ltm
 ltm
 lw
-push 0
-add
+addi 0
 lw
 js
+label2:
+stackmap label2 1 0 1
 lfp
-lfp
-push 1
-add
-lw
+lwfp 1
 stm
 ltm
 ltm
 lw
-push 1
-add
+addi 1
 lw
 js
-add
-sub
-push 0
-bleq label2
-push 0
-b label3
-label2:
-push 1
 label3:
-push 1
-beq label0
+stackmap label3 1 0 1
+add
+bleq label0
 push -1
 b label1
 label0:
 lfp
-lfp
-lw
-push -1
-add
+lal 1
+addi -1
 lw
 stm
 ltm
 ltm
 lw
-push 0
-add
+addi 0
 lw
 js
-lhp
-sw
-lhp
-push 1
-add
-shp
-push 10000
-push -2
-add
-lw
+label4:
+stackmap label4 1 0 1
+alloc 2
+label5:
+stackmap label5 1 0 1
+swhp
+push 0
 lhp
 sw
 lhp
 lhp
-push 1
-add
+addi 1
 shp
 label1:
 stm
@@ -307,83 +205,59 @@ cfp
 lra
 push 20000
 lfp
-lfp
-push 1
-add
-lw
+lwfp 1
 stm
 ltm
 ltm
 lw
-push 0
-add
+addi 0
 lw
 js
-sub
-push 0
+label8:
+stackmap label8 1 0 1
 bleq label6
-push 0
+push -1
 b label7
 label6:
-push 1
-label7:
-push 1
-beq label4
-push -1
-b label5
-label4:
-lfp
 lfp
-lw
-push -1
-add
+lal 1
+addi -1
 lw
 stm
 ltm
 ltm
 lw
-push 0
-add
+addi 0
 lw
 js
+label9:
+stackmap label9 1 0 1
 lfp
-lfp
-lw
-push -1
-add
+lal 1
+addi -1
 lw
 stm
 ltm
 ltm
 lw
-push 1
-add
+addi 1
 lw
 js
-lhp
-sw
-lhp
-push 1
-add
-shp
-lhp
-sw
-lhp
+label10:
+stackmap label10 1 0 1
+alloc 3
+label11:
+stackmap label11 1 0 1
+swhp
+swhp
 push 1
-add
-shp
-push 10000
-push -3
-add
-lw
 lhp
 sw
 lhp
 lhp
-push 1
-add
+addi 1
 shp
-label5:
+label7:
 stm
 sra
 pop
@@ -0,0 +1,41 @@
+package svm;
+
+import java.util.Arrays;
+
+/**
+ * Memoria su un int[] dello heap Java: e' la memoria di ExecuteVM se non ne viene
+ * impostata un'altra, usata da cpu() tramite questa classe e dagli altri
+ * interpreti accedendo direttamente a cells.
+ */
+public class ArrayMemory implements Memory {
+
+    final int[] cells;
+
+    public ArrayMemory(int[] cells) {
+        this.cells = cells;
+    }
+
+    @Override
+    public int size() {
+        return cells.length;
+    }
+
+    @Override
+    public int load(int index) {
+        return cells[index];
+    }
+
+    @Override
+    public void store(int index, int value) {
+        cells[index] = value;
+    }
+
+    @Override
+    public Memory resize(int newSize) {
+        return new ArrayMemory(Arrays.copyOf(cells, newSize));
+    }
+
+    @Override
+    public void close() {
+    }
+}
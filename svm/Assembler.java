@@ -0,0 +1,447 @@
+package svm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Assemblatore del codice SVM scritto a mano, alternativo a SVMParser.assembly()
+ * e con lo stesso risultato (code, lines, labelDef, stackMaps, objectMaps) per
+ * ogni programma corretto: legge direttamente il testo (una CharSequence o un
+ * ByteBuffer, ad esempio un file .asm mappato in memoria) in una sola passata,
+ * senza token ne' parse tree.
+ *
+ * Le label sono identificate dalla loro posizione nel testo e internate in una
+ * tabella hash ad indirizzamento aperto di int, senza creare stringhe: i
+ * riferimenti in avanti vengono annotati (indirizzo di codice, label) e risolti
+ * alla fine. Le uniche allocazioni oltre agli array del risultato sono le
+ * mappe delle direttive e, alla fine, le stringhe dei nomi delle label per
+ * labelDef.
+ *
+ * I token sono quelli del lexer SVMLexer (parole chiave, label, interi, ':',
+ * commenti e spazi) e i caratteri non validi vengono segnalati e ignorati come
+ * fa il lexer; per gli errori di sintassi il messaggio indica riga e colonna
+ * del token inatteso e l'assemblaggio prosegue dal token successivo.
+ */
+public class Assembler {
+
+    // tipi di token oltre ai codici delle parole chiave (quelli di SVMParser)
+    private static final int EOF = -1, IDENT = SVMParser.LABEL, INTEGER = SVMParser.INTEGER, COL = SVMParser.COL;
+
+    // parole chiave di SVMLexer (i token che precedono ':'), in una tabella hash ad indirizzamento aperto
+    private static final String[] KEYWORDS = new String[128];
+    private static final int[] KEYWORD_TYPES = new int[128];
+
+    static {
+        for (int type = SVMParser.PUSH; type < SVMParser.COL; type++) {
+            String literal = SVMParser.VOCABULARY.getLiteralName(type);
+            String keyword = literal.substring(1, literal.length() - 1);
+            int slot = hash(keyword, 0, keyword.length()) & (KEYWORDS.length - 1);
+            while (KEYWORDS[slot] != null) slot = (slot + 1) & (KEYWORDS.length - 1);
+            KEYWORDS[slot] = keyword;
+            KEYWORD_TYPES[slot] = type;
+        }
+    }
+
+    public int[] code = new int[1024];  // dimensionato al programma al termine di assemble()
+    public int[] lines = new int[1024]; // riga del sorgente .asm dell'istruzione di ogni parola di code
+    public Map<String, Integer> labelDef = new HashMap<>();
+    public Map<Integer, int[]> stackMaps = new HashMap<>();
+    public Map<Integer, int[]> objectMaps = new HashMap<>();
+    public int lexicalErrors = 0;
+    public int syntaxErrors = 0;
+
+    public PrintStream diagnostics = System.out; // messaggi di errore
+
+    private final CharSequence text;
+    private int i = 0; // parole di code emesse
+
+    // token corrente
+    private int pos = 0, line = 1, lineStart = 0;
+    private int type, start, end, tokenLine, tokenColumn;
+    private int value; // valore di un INTEGER
+
+    // label: posizione del nome nel testo, hash e indirizzo (-1 finche' non definita)
+    private int[] table = new int[256]; // indice della label + 1, 0 se libero
+    private int[] labelStart = new int[64], labelEnd = new int[64], labelHash = new int[64], labelAddress = new int[64];
+    private int labels = 0;
+
+    // riferimenti da risolvere: parola di code e label (per le stack map la label e l'indice della mappa)
+    private int[] refAt = new int[256], refLabel = new int[256];
+    private int refs = 0;
+    private final List<int[]> pendingStackMaps = new ArrayList<>();
+    private int[] pendingStackMapLabels = new int[16];
+
+    public Assembler(CharSequence text) {
+        this.text = text;
+    }
+
+    /** Testo ASCII in buf (dalla posizione corrente al limite), ad esempio un file mappato in memoria. */
+    public Assembler(ByteBuffer buf) {
+        this(new AsciiSequence(buf.slice()));
+    }
+
+    /** Assembla il file .asm mappandolo in memoria. */
+    public static Assembler of(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            Assembler assembler = new Assembler(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            assembler.assemble();
+            return assembler;
+        }
+    }
+
+    public void assemble() {
+        next();
+        while (type != EOF) instruction();
+        for (int r = 0; r < refs; r++) {
+            int address = labelAddress[refLabel[r]];
+            if (address < 0) undefined(refLabel[r]);
+            else code[refAt[r]] = address;
+        }
+        for (int m = 0; m < pendingStackMaps.size(); m++) {
+            int address = labelAddress[pendingStackMapLabels[m]];
+            if (address < 0) undefined(pendingStackMapLabels[m]);
+            else stackMaps.put(address, pendingStackMaps.get(m));
+        }
+        for (int l = 0; l < labels; l++) {
+            if (labelAddress[l] >= 0) labelDef.put(text.subSequence(labelStart[l], labelEnd[l]).toString(), labelAddress[l]);
+        }
+        code = Arrays.copyOf(code, i);
+        lines = Arrays.copyOf(lines, i);
+    }
+
+    private void instruction() {
+        int op = type, opLine = tokenLine;
+        switch (op) {
+            case IDENT: {
+                int label = label();
+                next();
+                if (type != COL) {
+                    syntaxError("missing ':' after label");
+                    return;
+                }
+                labelAddress[label] = i;
+                next();
+                return;
+            }
+            case SVMParser.PUSH:
+                next();
+                emit(op, opLine);
+                if (type == INTEGER) {
+                    emit(value, opLine);
+                } else if (type == IDENT) {
+                    reference(label(), opLine);
+                } else {
+                    syntaxError("expecting {LABEL, INTEGER}");
+                    i--; // push senza operando: non viene emessa
+                    return;
+                }
+                next();
+                return;
+            case SVMParser.BRANCH:
+            case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ:
+            case SVMParser.BRANCHNOTEQ:
+            case SVMParser.BRANCHLESS:
+            case SVMParser.BRANCHGREATER:
+                next();
+                if (type != IDENT) {
+                    syntaxError("expecting LABEL");
+                    return;
+                }
+                emit(op, opLine);
+                reference(label(), opLine);
+                next();
+                return;
+            case SVMParser.LOADFPOFF:
+            case SVMParser.LOADAL:
+            case SVMParser.ADDI:
+            case SVMParser.ALLOC:
+            case SVMParser.CALL:
+            case SVMParser.VCALL:
+            case SVMParser.RET:
+            case SVMParser.LOADABS:
+                next();
+                if (type != INTEGER) {
+                    syntaxError("expecting INTEGER");
+                    return;
+                }
+                emit(op, opLine);
+                emit(value, opLine);
+                next();
+                return;
+            case SVMParser.STACKMAP: {
+                next();
+                if (type != IDENT) {
+                    syntaxError("expecting LABEL");
+                    return;
+                }
+                int label = label();
+                next();
+                int[] values = integers();
+                if (values == null) return;
+                if (pendingStackMaps.size() == pendingStackMapLabels.length) {
+                    pendingStackMapLabels = Arrays.copyOf(pendingStackMapLabels, 2 * pendingStackMapLabels.length);
+                }
+                pendingStackMapLabels[pendingStackMaps.size()] = label;
+                pendingStackMaps.add(values);
+                return;
+            }
+            case SVMParser.OBJMAP: {
+                next();
+                int[] m = integers();
+                if (m != null) objectMaps.put(m[0], Arrays.copyOfRange(m, 1, m.length));
+                return;
+            }
+            case INTEGER:
+            case COL:
+                syntaxError("extraneous input");
+                next();
+                return;
+            default: // istruzione senza operandi
+                emit(op, opLine);
+                next();
+        }
+    }
+
+    // uno o piu' INTEGER consecutivi, null (dopo l'errore) se non ce ne sono
+    private int[] integers() {
+        if (type != INTEGER) {
+            syntaxError("expecting INTEGER");
+            return null;
+        }
+        int from = refs; // refAt/refLabel come spazio temporaneo, oltre i riferimenti annotati
+        int n = 0;
+        while (type == INTEGER) {
+            ensureRefs(from + n + 1);
+            refAt[from + n++] = value;
+            next();
+        }
+        return Arrays.copyOfRange(refAt, from, from + n);
+    }
+
+    private void emit(int word, int line) {
+        if (i == code.length) {
+            code = Arrays.copyOf(code, 2 * i);
+            lines = Arrays.copyOf(lines, 2 * i);
+        }
+        lines[i] = line;
+        code[i++] = word;
+    }
+
+    private void reference(int label, int line) {
+        ensureRefs(refs + 1);
+        refAt[refs] = i;
+        refLabel[refs++] = label;
+        emit(0, line);
+    }
+
+    private void ensureRefs(int n) {
+        if (n > refAt.length) {
+            int length = Math.max(n, 2 * refAt.length);
+            refAt = Arrays.copyOf(refAt, length);
+            refLabel = Arrays.copyOf(refLabel, length);
+        }
+    }
+
+    // indice della label del token corrente (IDENT), aggiunta alla tabella se nuova
+    private int label() {
+        int h = hash(text, start, end);
+        int mask = table.length - 1;
+        int slot = h & mask;
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int l = entry - 1;
+            if (labelHash[l] == h && sameText(labelStart[l], labelEnd[l], start, end)) return l;
+        }
+        if (labels == labelStart.length) {
+            int length = 2 * labels;
+            labelStart = Arrays.copyOf(labelStart, length);
+            labelEnd = Arrays.copyOf(labelEnd, length);
+            labelHash = Arrays.copyOf(labelHash, length);
+            labelAddress = Arrays.copyOf(labelAddress, length);
+        }
+        int l = labels++;
+        labelStart[l] = start;
+        labelEnd[l] = end;
+        labelHash[l] = h;
+        labelAddress[l] = -1;
+        table[slot] = l + 1;
+        if (2 * labels > table.length) rehash();
+        return l;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int l = 0; l < labels; l++) {
+            int slot = labelHash[l] & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = l + 1;
+        }
+    }
+
+    private boolean sameText(int s1, int e1, int s2, int e2) {
+        if (e1 - s1 != e2 - s2) return false;
+        for (int k = 0; k < e1 - s1; k++) {
+            if (text.charAt(s1 + k) != text.charAt(s2 + k)) return false;
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int k = from; k < to; k++) h = 31 * h + s.charAt(k);
+        return h ^ (h >>> 16);
+    }
+
+    // lexer: legge il token successivo, saltando spazi, commenti e caratteri non validi
+    private void next() {
+        int length = text.length();
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == '\n') {
+                pos++;
+                line++;
+                lineStart = pos;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                pos++;
+            } else if (c == '/' && pos + 1 < length && text.charAt(pos + 1) == '*' && skipComment()) {
+                // commento saltato
+            } else if (isLetter(c)) {
+                token(IDENT);
+                while (pos < length && (isLetter(text.charAt(pos)) || isDigit(text.charAt(pos)))) pos++;
+                end = pos;
+                type = keyword();
+                return;
+            } else if (c == '0' || (c >= '1' && c <= '9')
+                    || (c == '-' && pos + 1 < length && text.charAt(pos + 1) >= '1' && text.charAt(pos + 1) <= '9')) {
+                token(INTEGER);
+                integer();
+                return;
+            } else if (c == ':') {
+                token(COL);
+                end = pos;
+                return;
+            } else {
+                diagnostics.println("Invalid char: "+c+" at line "+line);
+                lexicalErrors++;
+                pos++;
+            }
+        }
+        type = EOF;
+        start = end = pos;
+        tokenLine = line;
+        tokenColumn = pos - lineStart;
+    }
+
+    private void token(int type) {
+        this.type = type;
+        start = pos++;
+        tokenLine = line;
+        tokenColumn = start - lineStart;
+    }
+
+    // salta il commento che inizia in pos, se e' chiuso; altrimenti '/' e' un carattere non valido
+    private boolean skipComment() {
+        int length = text.length();
+        int k = pos + 2, l = line, ls = lineStart;
+        while (k + 1 < length && !(text.charAt(k) == '*' && text.charAt(k + 1) == '/')) {
+            if (text.charAt(k) == '\n') {
+                l++;
+                ls = k + 1;
+            }
+            k++;
+        }
+        if (k + 1 >= length) return false;
+        pos = k + 2;
+        line = l;
+        lineStart = ls;
+        return true;
+    }
+
+    // '0' oppure '-'? [1-9][0-9]*, a partire dal primo carattere gia' consumato
+    private void integer() {
+        boolean negative = text.charAt(start) == '-';
+        long v = 0;
+        if (text.charAt(start) != '0') {
+            int length = text.length();
+            pos = negative ? start + 1 : start;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                if (v <= Integer.MAX_VALUE + 1L) v = 10 * v + text.charAt(pos) - '0';
+                pos++;
+            }
+        }
+        end = pos;
+        if (negative) v = -v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            syntaxError("integer out of range");
+            v = 0;
+        }
+        value = (int) v;
+    }
+
+    // tipo del token IDENT corrente: la parola chiave o IDENT
+    private int keyword() {
+        int slot = hash(text, start, end) & (KEYWORDS.length - 1);
+        for (String keyword; (keyword = KEYWORDS[slot]) != null; slot = (slot + 1) & (KEYWORDS.length - 1)) {
+            if (keyword.length() == end - start) {
+                int k = 0;
+                while (k < keyword.length() && keyword.charAt(k) == text.charAt(start + k)) k++;
+                if (k == keyword.length()) return KEYWORD_TYPES[slot];
+            }
+        }
+        return IDENT;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void syntaxError(String message) {
+        String found = type == EOF ? "<EOF>" : "'"+text.subSequence(start, end)+"'";
+        diagnostics.println("line "+tokenLine+":"+tokenColumn+" "+message+" at "+found);
+        syntaxErrors++;
+    }
+
+    private void undefined(int label) {
+        diagnostics.println("Undefined label "+text.subSequence(labelStart[label], labelEnd[label]));
+        syntaxErrors++;
+    }
+
+    /** Vista come CharSequence di un testo ASCII in un ByteBuffer, senza copiarlo. */
+    private static class AsciiSequence implements CharSequence {
+        private final ByteBuffer buf;
+
+        AsciiSequence(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int length() {
+            return buf.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            StringBuilder s = new StringBuilder(to - from);
+            for (int k = from; k < to; k++) s.append(charAt(k));
+            return s;
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
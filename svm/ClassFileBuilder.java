@@ -0,0 +1,325 @@
+package svm;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Costruttore minimale di file .class per i back-end che generano bytecode JVM.
+ *
+ * Produce classi in formato 49 (Java 5): per questa versione la JVM non richiede
+ * la StackMapTable e verifica il codice per inferenza dei tipi, quindi i metodi
+ * possono essere emessi senza calcolare i frame. Gestisce constant pool, campi,
+ * metodi e, per il codice, label con backpatching dei salti (anche nelle switch).
+ */
+public class ClassFileBuilder {
+
+    // access flag
+    public static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008,
+        ACC_FINAL = 0x0010, ACC_SUPER = 0x0020, ACC_ABSTRACT = 0x0400;
+
+    // opcode JVM usati dai back-end
+    public static final int NOP = 0, ACONST_NULL = 1, ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17,
+        LDC = 18, LDC_W = 19, ILOAD = 21, ALOAD = 25, IALOAD = 46, AALOAD = 50, ISTORE = 54,
+        ASTORE = 58, IASTORE = 79, AASTORE = 83, POP = 87, POP2 = 88, DUP = 89, DUP_X1 = 90,
+        DUP_X2 = 91, DUP2 = 92, SWAP = 95, IADD = 96, ISUB = 100, IMUL = 104, IDIV = 108,
+        INEG = 116, IAND = 126, IOR = 128, IXOR = 130, IINC = 132, IFEQ = 153, IFNE = 154,
+        IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158, IF_ICMPEQ = 159, IF_ICMPNE = 160,
+        IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPGT = 163, IF_ICMPLE = 164, IF_ACMPEQ = 165,
+        IF_ACMPNE = 166, GOTO = 167, TABLESWITCH = 170, LOOKUPSWITCH = 171, IRETURN = 172,
+        ARETURN = 176, RETURN = 177, GETSTATIC = 178, PUTSTATIC = 179, GETFIELD = 180,
+        PUTFIELD = 181, INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184,
+        NEW = 187, NEWARRAY = 188, ANEWARRAY = 189, ARRAYLENGTH = 190, ATHROW = 191,
+        CHECKCAST = 192, INSTANCEOF = 193, IFNULL = 198, IFNONNULL = 199;
+
+    public static final int T_INT = 10; // tipo per NEWARRAY
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    public ClassFileBuilder(int access, String name, String superName) {
+        this.access = access;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    // ---------------------------------------------------------------- constant pool
+
+    private int entry(String key, int tag, Object... parts) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            poolOut.writeByte(tag);
+            for (Object p : parts) {
+                if (p instanceof String) poolOut.writeUTF((String) p);
+                else if (tag == 3) poolOut.writeInt((Integer) p);
+                else poolOut.writeShort((Integer) p);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    public int utf8(String s) {
+        return entry("U" + s, 1, s);
+    }
+
+    public int integer(int v) {
+        return entry("I" + v, 3, v);
+    }
+
+    public int string(String s) {
+        int u = utf8(s);
+        return entry("S" + s, 8, u);
+    }
+
+    public int classRef(String internalName) {
+        int u = utf8(internalName);
+        return entry("C" + internalName, 7, u);
+    }
+
+    private int nameAndType(String name, String desc) {
+        int n = utf8(name), d = utf8(desc);
+        return entry("N" + name + ":" + desc, 12, n, d);
+    }
+
+    public int fieldRef(String owner, String name, String desc) {
+        int c = classRef(owner), nt = nameAndType(name, desc);
+        return entry("F" + owner + "." + name + ":" + desc, 9, c, nt);
+    }
+
+    public int methodRef(String owner, String name, String desc) {
+        int c = classRef(owner), nt = nameAndType(name, desc);
+        return entry("M" + owner + "." + name + ":" + desc, 10, c, nt);
+    }
+
+    // ---------------------------------------------------------------- membri
+
+    public void field(int access, String name, String desc) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fields.add(b.toByteArray());
+    }
+
+    /**
+     * Crea un nuovo metodo e ne restituisce il buffer di codice.
+     * maxStack e maxLocals vanno impostati dal chiamante prima di toByteArray().
+     */
+    public Code method(int access, String name, String desc) {
+        Code c = new Code(access, utf8(name), utf8(desc));
+        methods.add(c);
+        return c;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        try {
+            int codeAttr = utf8("Code");
+            List<byte[]> methodBytes = new ArrayList<>();
+            for (Code m : methods) methodBytes.add(m.toByteArray(codeAttr));
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] f : fields) out.write(f);
+            out.writeShort(methods.size());
+            for (byte[] m : methodBytes) out.write(m);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return b.toByteArray();
+    }
+
+    // ---------------------------------------------------------------- codice
+
+    /** Posizione nel codice di un metodo, risolta quando viene marcata. */
+    public static class Label {
+        int pos = -1;
+        final List<int[]> refs = new ArrayList<>(); // {posizione operando, base, larghezza}
+    }
+
+    /** Buffer del codice di un metodo. */
+    public class Code {
+        private final int access, name, desc;
+        private byte[] buf = new byte[256];
+        private int len;
+        public int maxStack = 8, maxLocals = 1;
+
+        Code(int access, int name, int desc) {
+            this.access = access;
+            this.name = name;
+            this.desc = desc;
+        }
+
+        public int size() {
+            return len;
+        }
+
+        private void u1(int v) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+            buf[len++] = (byte) v;
+        }
+
+        private void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        private void u4(int v) {
+            u2(v >> 16);
+            u2(v);
+        }
+
+        private void put(int pos, int v, int width) {
+            for (int i = width - 1; i >= 0; i--, v >>= 8) buf[pos + i] = (byte) v;
+        }
+
+        public Code op(int opcode) {
+            u1(opcode);
+            return this;
+        }
+
+        /** Istruzione con un operando di un byte (es. BIPUSH, NEWARRAY). */
+        public Code op1(int opcode, int operand) {
+            u1(opcode);
+            u1(operand);
+            return this;
+        }
+
+        /** Istruzione con un operando di due byte (indici di constant pool, SIPUSH). */
+        public Code op2(int opcode, int operand) {
+            u1(opcode);
+            u2(operand);
+            return this;
+        }
+
+        public Code iconst(int v) {
+            if (v >= -1 && v <= 5) return op(ICONST_0 + v);
+            if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) return op1(BIPUSH, v);
+            if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) return op2(SIPUSH, v);
+            int index = integer(v);
+            return index < 256 ? op1(LDC, index) : op2(LDC_W, index);
+        }
+
+        public Code var(int opcode, int local) { // ILOAD, ALOAD, ISTORE, ASTORE
+            if (local <= 3) return op(opcode == ILOAD ? 26 + local : opcode == ALOAD ? 42 + local
+                : opcode == ISTORE ? 59 + local : 75 + local);
+            return op1(opcode, local);
+        }
+
+        public Code iinc(int local, int delta) {
+            u1(IINC);
+            u1(local);
+            u1(delta);
+            return this;
+        }
+
+        public Code invoke(int opcode, String owner, String name, String desc) {
+            return op2(opcode, methodRef(owner, name, desc));
+        }
+
+        public Code field(int opcode, String owner, String name, String desc) {
+            return op2(opcode, fieldRef(owner, name, desc));
+        }
+
+        public Code type(int opcode, String internalName) { // NEW, CHECKCAST, ANEWARRAY
+            return op2(opcode, classRef(internalName));
+        }
+
+        public Label label() {
+            return new Label();
+        }
+
+        public Code mark(Label l) {
+            l.pos = len;
+            for (int[] r : l.refs) put(r[0], len - r[1], r[2]);
+            return this;
+        }
+
+        private void ref(Label l, int base, int width) {
+            int at = len;
+            if (width == 2) u2(0); else u4(0);
+            if (l.pos >= 0) put(at, l.pos - base, width);
+            else l.refs.add(new int[] {at, base, width});
+        }
+
+        /** Salto (condizionato o GOTO) con offset a 16 bit. */
+        public Code jump(int opcode, Label target) {
+            int base = len;
+            u1(opcode);
+            ref(target, base, 2);
+            return this;
+        }
+
+        public Code tableswitch(int low, Label dflt, Label[] targets) {
+            int base = len;
+            u1(TABLESWITCH);
+            while (len % 4 != 0) u1(0);
+            ref(dflt, base, 4);
+            u4(low);
+            u4(low + targets.length - 1);
+            for (Label t : targets) ref(t, base, 4);
+            return this;
+        }
+
+        public Code lookupswitch(Label dflt, int[] keys, Label[] targets) { // keys ordinate
+            int base = len;
+            u1(LOOKUPSWITCH);
+            while (len % 4 != 0) u1(0);
+            ref(dflt, base, 4);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                ref(targets[i], base, 4);
+            }
+            return this;
+        }
+
+        byte[] toByteArray(int codeAttr) throws IOException {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(b);
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(desc);
+            if ((access & ACC_ABSTRACT) != 0) {
+                out.writeShort(0);
+                return b.toByteArray();
+            }
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + len);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(len);
+            out.write(buf, 0, len);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributi
+            return b.toByteArray();
+        }
+    }
+}
@@ -1,126 +1,1121 @@
 package svm;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * La memoria e' un unico array la cui dimensione e' una potenza di 2 e cresce
+ * (raddoppiando) durante l'esecuzione: lo heap parte dall'inizio e cresce verso
+ * l'alto, lo stack parte dalla fine e cresce verso il basso. Per il programma gli
+ * indirizzi dello heap sono i suoi indici nell'array, quelli dello stack sono
+ * negativi e contati dalla fine (-1 e' la cella sentinella in cima, sotto la quale
+ * iniziano il frame globale e lo stack): quando l'array cresce lo stack viene
+ * spostato in fondo al nuovo array e nessun indirizzo cambia. L'indice di un
+ * indirizzo qualsiasi si ottiene con una and con memory.length-1.
+ * Internamente sp e fp sono indici in memory: vengono convertiti solo da lfp, sfp
+ * e lal, che espongono o ricevono indirizzi.
+ * La memoria cresce quando heap e stack si avvicinano a meno di STACK_RESERVE
+ * celle: il controllo avviene all'ingresso delle funzioni (cfp, enter), quando hp avanza
+ * (shp, swhp) e nelle alloc; oltre la dimensione massima l'esecuzione termina con
+ * un errore che indica l'indirizzo dell'istruzione.
+ * In alternativa all'int[] la memoria puo' essere una Memory impostata con
+ * setMemory() (es. OffHeapMemory, fuori dallo heap Java o mappata su file),
+ * eseguita da cpu() con lo stesso modello di indirizzi.
+ */
 public class ExecuteVM {
     
-    public static final int CODESIZE = 10000;
-    public static final int MEMSIZE = 10000;
+    // dimensioni di default della memoria (in celle), configurabili con le
+    // proprieta' di sistema svm.memsize e svm.maxmemsize o con setMemorySize()
+    public static final int MEMSIZE = Integer.getInteger("svm.memsize", 1 << 14);
+    public static final int MAX_MEMSIZE = Integer.getInteger("svm.maxmemsize", 1 << 26);
+
+    // celle lasciate libere fra heap e stack: una alloc che le occuperebbe avvia
+    // la garbage collection (o la crescita della memoria), cosi' come la chiamata
+    // di una funzione quando lo stack vi arriva
+    public static final int STACK_RESERVE = 1024;
     
     private int[] code;
-    private int[] memory = new int[MEMSIZE];
+    private int[] memory;
+    private Memory backend;   // memoria impostata con setMemory() (memory e' allora null)
+    private ArrayMemory view; // vista di memory per cpu(), il collector e il reference counting
+    private int maxMemory;
     
     private int ip = 0;
-    private int sp = MEMSIZE;
+    private int sp;
     
     private int hp = 0;       
-    private int fp = MEMSIZE; 
+    private int fp; 
     private int ra;           
     private int tm;
+    private int heapEnd = 0; // fine dello heap se oltre hp (reference counting)
+    private int[] lines;     // riga del sorgente .asm di ogni indirizzo di codice, se nota
+    private PrintStream out = System.out;      // destinazione di print
+    private long jumpLimit = Long.MAX_VALUE;
+
+    private GarbageCollector gc; // null se il programma non ha le mappe per il collector
+    private ReferenceCounter rc; // non null per il codice compilato con il reference counting
     
     public ExecuteVM(int[] code) {
       this.code = code;
+      setMemorySize(MEMSIZE, MAX_MEMSIZE);
+    }
+
+    public ExecuteVM(int[] code, GarbageCollector gc) {
+      this(code);
+      this.gc = gc;
+    }
+
+    public ExecuteVM(int[] code, ReferenceCounter rc) {
+      this(code);
+      this.rc = rc;
+    }
+
+    /**
+     * Dimensione iniziale e massima della memoria, arrotondate alla potenza di 2
+     * successiva (ma almeno 4*STACK_RESERVE). Va chiamato prima dell'esecuzione.
+     */
+    public void setMemorySize(int initialSize, int maxSize) {
+      int size = Integer.highestOneBit(Math.max(initialSize - 1, 4 * STACK_RESERVE - 1)) << 1;
+      memory = new int[size];
+      maxMemory = Math.max(maxSize, size);
+      sp = fp = size - 1;
+    }
+
+    /** Carica un programma scritto da ObjectFile.write(), senza riassemblarlo. */
+    public static ExecuteVM load(File file) throws IOException {
+      return ObjectFile.read(file).newVM();
+    }
+
+    /** Stream su cui print scrive i valori (System.out se non impostato); cpuJit() usa sempre System.out. */
+    public void setOutput(PrintStream out) {
+      this.out = out;
+    }
+
+    /**
+     * Numero massimo di salti all'indietro e chiamate eseguiti da cpu(), oltre il
+     * quale l'esecuzione termina con un errore (per eseguire programmi non fidati,
+     * vedi CompileServer). Fra due di questi si eseguono al piu' code.length
+     * istruzioni, per cui il limite ferma ogni ciclo o ricorsione infinita senza
+     * un controllo ad ogni istruzione. Le altre modalita' di esecuzione non lo
+     * supportano.
+     */
+    public void setJumpLimit(long limit) {
+      this.jumpLimit = limit;
+    }
+
+    /** Tabella delle righe del sorgente .asm, usata nei messaggi di errore. */
+    public void setLineTable(int[] lines) {
+      this.lines = lines;
+    }
+
+    /**
+     * Usa backend come memoria della VM al posto dell'int[]: la sua dimensione
+     * (potenza di 2, almeno 4*STACK_RESERVE) e' quella iniziale e cresce con
+     * resize() entro la dimensione massima. La esegue solo cpu(). Va chiamato
+     * prima dell'esecuzione; chiudere la memoria resta compito del chiamante,
+     * che dopo l'esecuzione deve chiudere quella di getMemory().
+     */
+    public void setMemory(Memory backend) {
+      int size = backend.size();
+      if (Integer.bitCount(size) != 1 || size < 4 * STACK_RESERVE) {
+        throw new IllegalArgumentException("Memory size "+size+" is not a power of 2 of at least "+4 * STACK_RESERVE);
+      }
+      this.backend = backend;
+      memory = null;
+      view = null;
+      maxMemory = Math.max(maxMemory, size);
+      sp = fp = size - 1;
+    }
+
+    /** La memoria impostata con setMemory(), o quella che l'ha sostituita crescendo (null se non impostata). */
+    public Memory getMemory() {
+      return backend;
     }
     
+    /*
+     * Le celle sono lette e scritte tramite Memory, sia per l'int[] (con la sua
+     * vista ArrayMemory) sia per una memoria impostata con setMemory(): il codice
+     * e' uno solo e, finche' nella JVM si usa un solo tipo di memoria, il JIT
+     * rende i load e gli store accessi diretti alle celle.
+     */
     public void cpu() {
-      while ( true ) {
-        int bytecode = code[ip++]; // fetch
-        int v1,v2;
-        int address;
-        switch ( bytecode ) {
-          case SVMParser.PUSH:
-            push( code[ip++] );
-            break;
-          case SVMParser.POP:
-            pop();
-            break;
-          case SVMParser.ADD :
-            v1=pop();
-            v2=pop();
-            push(v2 + v1);
-            break;
-          case SVMParser.MULT :
-            v1=pop();
-            v2=pop();
-            push(v2 * v1);
-            break;
-          case SVMParser.DIV :
-            v1=pop();
-            v2=pop();
-            push(v2 / v1);
-            break;
-          case SVMParser.SUB :
-            v1=pop();
-            v2=pop();
-            push(v2 - v1);
-            break;
-          case SVMParser.STOREW : //
-            address = pop();
-            memory[address] = pop();    
-            break;
-          case SVMParser.LOADW : //
-            push(memory[pop()]);
-            break;
-          case SVMParser.BRANCH : 
-            address = code[ip];
-            ip = address;
-            break;
-          case SVMParser.BRANCHEQ :
-            address = code[ip++];
-            v1=pop();
-            v2=pop();
-            if (v2 == v1) ip = address;
-            break;
-          case SVMParser.BRANCHLESSEQ :
-            address = code[ip++];
-            v1=pop();
-            v2=pop();
-            if (v2 <= v1) ip = address;
-            break;
-          case SVMParser.JS : //
-            address = pop();
-            ra = ip;
-            ip = address;
-            break;
-         case SVMParser.STORERA : //
-            ra=pop();
-            break;
-         case SVMParser.LOADRA : //
-            push(ra);
-            break;
-         case SVMParser.STORETM : 
-            tm=pop();
-            break;
-         case SVMParser.LOADTM : 
-            push(tm);
-            break;
-         case SVMParser.LOADFP : //
-            push(fp);
-            break;
-         case SVMParser.STOREFP : //
-            fp=pop();
-            break;
-         case SVMParser.COPYFP : //
-            fp=sp;
-            break;
-         case SVMParser.STOREHP : //
-            hp=pop();
-            break;
-         case SVMParser.LOADHP : //
-            push(hp);
-            break;
-         case SVMParser.PRINT :
-            System.out.println((sp<MEMSIZE)?memory[sp]:"Empty stack!");
-            break;
-         case SVMParser.HALT :
-            return;
+      int at = ip;
+      long fuel = jumpLimit; // salti all'indietro e chiamate ancora consentiti
+      Memory m = heap();     // sostituita quando la memoria cresce
+      try {
+        while ( true ) {
+          at = ip;
+          int bytecode = code[ip++]; // fetch
+          int v1,v2;
+          int address;
+          switch ( bytecode ) {
+            case SVMParser.PUSH:
+              m.store(--sp, code[ip++]);
+              break;
+            case SVMParser.POP:
+              sp++;
+              break;
+            case SVMParser.ADD :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) + v1);
+              break;
+            case SVMParser.MULT :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) * v1);
+              break;
+            case SVMParser.DIV :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) / v1);
+              break;
+            case SVMParser.SUB :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) - v1);
+              break;
+            case SVMParser.STOREW :
+              address = m.load(sp++);
+              m.store(address & (m.size() - 1), m.load(sp++));
+              break;
+            case SVMParser.LOADW :
+              m.store(sp, m.load(m.load(sp) & (m.size() - 1)));
+              break;
+            case SVMParser.BRANCH :
+              address = code[ip];
+              ip = address;
+              if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              break;
+            case SVMParser.BRANCHEQ :
+              address = code[ip++];
+              v1=m.load(sp++);
+              v2=m.load(sp++);
+              if (v2 == v1) {
+                ip = address;
+                if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              }
+              break;
+            case SVMParser.BRANCHLESSEQ :
+              address = code[ip++];
+              v1=m.load(sp++);
+              v2=m.load(sp++);
+              if (v2 <= v1) {
+                ip = address;
+                if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              }
+              break;
+            case SVMParser.BRANCHNOTEQ :
+              address = code[ip++];
+              v1=m.load(sp++);
+              v2=m.load(sp++);
+              if (v2 != v1) {
+                ip = address;
+                if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              }
+              break;
+            case SVMParser.BRANCHLESS :
+              address = code[ip++];
+              v1=m.load(sp++);
+              v2=m.load(sp++);
+              if (v2 < v1) {
+                ip = address;
+                if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              }
+              break;
+            case SVMParser.BRANCHGREATER :
+              address = code[ip++];
+              v1=m.load(sp++);
+              v2=m.load(sp++);
+              if (v2 > v1) {
+                ip = address;
+                if (address <= at && --fuel < 0) throw jumpLimitExceeded(at);
+              }
+              break;
+            case SVMParser.JS :
+              address = m.load(sp++);
+              ra = ip;
+              ip = address;
+              if (--fuel < 0) throw jumpLimitExceeded(at);
+              break;
+           case SVMParser.STORERA :
+              ra=m.load(sp++);
+              break;
+           case SVMParser.LOADRA :
+              m.store(--sp, ra);
+              break;
+           case SVMParser.STORETM :
+              tm=m.load(sp++);
+              break;
+           case SVMParser.LOADTM :
+              m.store(--sp, tm);
+              break;
+           case SVMParser.LOADFP :
+              m.store(--sp, fp - m.size());
+              break;
+           case SVMParser.STOREFP :
+              fp=m.load(sp++) & (m.size() - 1);
+              break;
+           case SVMParser.COPYFP :
+              fp=sp;
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                move(grow(at, sp, hp, 0, 0));
+                m = heap();
+              }
+              break;
+           case SVMParser.STOREHP :
+              hp=m.load(sp++);
+              if (hp > sp - STACK_RESERVE) {
+                move(grow(at, sp, hp, 0, 0));
+                m = heap();
+              }
+              break;
+           case SVMParser.LOADHP :
+              m.store(--sp, hp);
+              break;
+           case SVMParser.PRINT :
+              out.println((sp<m.size()-1)?m.load(sp):"Empty stack!");
+              break;
+           case SVMParser.HALT :
+              return;
+           case SVMParser.LOADFPOFF :
+              m.store(--sp, m.load(fp + code[ip++]));
+              break;
+           case SVMParser.LOADAL :
+              address = fp - m.size();
+              for (v1 = code[ip++]; v1 > 0; v1--) address = m.load(address & (m.size() - 1));
+              m.store(--sp, address);
+              break;
+           case SVMParser.LOADABS :
+              m.store(--sp, m.load(code[ip++] & (m.size() - 1)));
+              break;
+           case SVMParser.STOREHPBUMP :
+              m.store(hp++, m.load(sp++));
+              if (hp > sp - STACK_RESERVE) {
+                move(grow(at, sp, hp, 0, 0));
+                m = heap();
+              }
+              break;
+           case SVMParser.ADDI :
+              m.store(sp, m.load(sp) + code[ip++]);
+              break;
+           case SVMParser.ALLOC :
+              v1 = code[ip++];
+              if (rc != null || hp + v1 > sp - STACK_RESERVE) {
+                allocate(ip, v1);
+                m = heap();
+              }
+              break;
+           case SVMParser.INC :
+              v1 = m.load(sp);
+              if (v1 >= 0) m.store(v1 + 1, m.load(v1 + 1) + 1);
+              break;
+           case SVMParser.DEC :
+              v1 = m.load(sp);
+              if (v1 < 0) break;
+              v2 = m.load(v1 + 1) - 1;
+              m.store(v1 + 1, v2);
+              if (v2 == 0) rc.free(m, v1);
+              break;
+           case SVMParser.EQ :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) == v1 ? 1 : 0);
+              break;
+           case SVMParser.LESS :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) < v1 ? 1 : 0);
+              break;
+           case SVMParser.LESSEQ :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) <= v1 ? 1 : 0);
+              break;
+           case SVMParser.GREATEREQ :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) >= v1 ? 1 : 0);
+              break;
+           case SVMParser.NOT :
+              m.store(sp, m.load(sp) == 0 ? 1 : 0);
+              break;
+           case SVMParser.AND :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) != 0 && v1 != 0 ? 1 : 0);
+              break;
+           case SVMParser.OR :
+              v1=m.load(sp++);
+              m.store(sp, m.load(sp) != 0 || v1 != 0 ? 1 : 0);
+              break;
+           case SVMParser.CALL :
+              address = m.load((m.load(sp) + code[ip++]) & (m.size() - 1));
+              ra = ip;
+              ip = address;
+              if (--fuel < 0) throw jumpLimitExceeded(at);
+              break;
+           case SVMParser.VCALL :
+              address = m.load(m.load(sp) & (m.size() - 1));
+              address = m.load((address + code[ip++]) & (m.size() - 1));
+              ra = ip;
+              ip = address;
+              if (--fuel < 0) throw jumpLimitExceeded(at);
+              break;
+           case SVMParser.ENTER :
+              fp=sp;
+              m.store(--sp, ra);
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                move(grow(at, sp, hp, 0, 0));
+                m = heap();
+              }
+              break;
+           case SVMParser.RET :
+              v2 = code[ip++];
+              v1 = m.load(sp);
+              ip = m.load(fp - 1);
+              sp = fp + v2 + 1;
+              fp = m.load(sp) & (m.size() - 1);
+              m.store(sp, v1);
+              break;
+          }
         }
+      } catch (IndexOutOfBoundsException e) {
+        throw invalidAccess(at, e);
       }
-    } 
-    
-    private int pop() {
-      return memory[sp++];
     }
     
-    private void push(int v) {
-      memory[--sp] = v;
+    /**
+     * Modalita' di esecuzione alternativa a cpu(): il codice prodotto da
+     * SVMParser.assembly() viene pre-decodificato una sola volta (al primo
+     * utilizzo) in una forma "threaded" in cui ogni indirizzo di codice contiene
+     * gia' l'handler da eseguire, il suo operando e l'indirizzo successivo,
+     * cosi' il ciclo non rilegge piu' code[ip++] per gli operandi.
+     * In fase di decodifica le sequenze piu' frequenti prodotte dal compilatore
+     * (es. "lfp; push k; add; lw") vengono fuse in un unico handler.
+     * I registri della macchina sono tenuti in variabili locali durante
+     * l'esecuzione e riscritti nei campi solo all'uscita.
+     * La semantica osservabile e' identica a quella di cpu().
+     */
+    public void cpuThreaded() {
+      onHeap("cpuThreaded");
+      unlimited("cpuThreaded");
+      if (insns == null) insns = decoded.computeIfAbsent(code, ExecuteVM::decode);
+      final long[] insns = this.insns;
+      int[] memory = this.memory;
+      int mask = memory.length - 1;
+      int ip = this.ip, sp = this.sp, fp = this.fp, hp = this.hp, ra = this.ra, tm = this.tm;
+      int at = ip;
+      int v1, v2;
+      try {
+        while ( true ) {
+          long insn = insns[at = ip];
+          ip = ((int) insn) >>> 8;
+          switch ( ((int) insn) & 0xFF ) {
+            case H_PUSH:
+              memory[--sp] = (int) (insn >> 32);
+              break;
+            case H_POP:
+              sp++;
+              break;
+            case H_ADD:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] + v1;
+              break;
+            case H_SUB:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] - v1;
+              break;
+            case H_MULT:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] * v1;
+              break;
+            case H_DIV:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] / v1;
+              break;
+            case H_STOREW:
+              v1 = memory[sp++];
+              memory[v1 & mask] = memory[sp++];
+              break;
+            case H_LOADW:
+              memory[sp] = memory[memory[sp] & mask];
+              break;
+            case H_BRANCH:
+              ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHEQ:
+              v1 = memory[sp++];
+              v2 = memory[sp++];
+              if (v2 == v1) ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHLESSEQ:
+              v1 = memory[sp++];
+              v2 = memory[sp++];
+              if (v2 <= v1) ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHNOTEQ:
+              v1 = memory[sp++];
+              v2 = memory[sp++];
+              if (v2 != v1) ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHLESS:
+              v1 = memory[sp++];
+              v2 = memory[sp++];
+              if (v2 < v1) ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHGREATER:
+              v1 = memory[sp++];
+              v2 = memory[sp++];
+              if (v2 > v1) ip = (int) (insn >> 32);
+              break;
+            case H_JS:
+              ra = ip;
+              ip = memory[sp++];
+              break;
+            case H_STORERA:
+              ra = memory[sp++];
+              break;
+            case H_LOADRA:
+              memory[--sp] = ra;
+              break;
+            case H_STORETM:
+              tm = memory[sp++];
+              break;
+            case H_LOADTM:
+              memory[--sp] = tm;
+              break;
+            case H_LOADFP:
+              memory[--sp] = fp - mask - 1;
+              break;
+            case H_STOREFP:
+              fp = memory[sp++] & mask;
+              break;
+            case H_COPYFP:
+              fp = sp;
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_STOREHP:
+              hp = memory[sp++];
+              if (hp > sp - STACK_RESERVE) {
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_LOADHP:
+              memory[--sp] = hp;
+              break;
+            case H_PRINT:
+              out.println((sp<mask)?memory[sp]:"Empty stack!");
+              break;
+            case H_HALT:
+              return;
+            // handler fusi e superistruzioni: l'operando e' la costante k della sequenza
+            case H_ADDI: // push k; add  (o addi k)
+              memory[sp] = memory[sp] + (int) (insn >> 32);
+              break;
+            case H_SUBI: // push k; sub
+              memory[sp] = memory[sp] - (int) (insn >> 32);
+              break;
+            case H_LOADOFF: // push k; add; lw  (o addi k; lw)
+              memory[sp] = memory[(memory[sp] + (int) (insn >> 32)) & mask];
+              break;
+            case H_LOADFPOFF: // lfp; push k; add; lw  (o lwfp k)
+              memory[--sp] = memory[fp + (int) (insn >> 32)];
+              break;
+            case H_STMLTMLTM: // stm; ltm; ltm
+              tm = memory[sp];
+              memory[--sp] = tm;
+              break;
+            case H_LOADAL: // lal k
+              v2 = fp - mask - 1;
+              for (v1 = (int) (insn >> 32); v1 > 0; v1--) v2 = memory[v2 & mask];
+              memory[--sp] = v2;
+              break;
+            case H_LOADABS: // lwa a
+              memory[--sp] = memory[(int) (insn >> 32) & mask];
+              break;
+            case H_STOREHPBUMP: // swhp
+              memory[hp++] = memory[sp++];
+              if (hp > sp - STACK_RESERVE) {
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_ALLOC:
+              v1 = (int) (insn >> 32);
+              if (rc != null || hp + v1 > sp - STACK_RESERVE) {
+                this.sp = sp; this.fp = fp; this.hp = hp;
+                allocate(ip, v1);
+                sp = this.sp; fp = this.fp; hp = this.hp; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_INC:
+              v1 = memory[sp];
+              if (v1 >= 0) memory[v1 + 1]++;
+              break;
+            case H_DEC:
+              v1 = memory[sp];
+              if (v1 >= 0 && --memory[v1 + 1] == 0) rc.free(heap(), v1);
+              break;
+            case H_EQ:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] == v1 ? 1 : 0;
+              break;
+            case H_LESS:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] < v1 ? 1 : 0;
+              break;
+            case H_LESSEQ:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] <= v1 ? 1 : 0;
+              break;
+            case H_GREATEREQ:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] >= v1 ? 1 : 0;
+              break;
+            case H_NOT:
+              memory[sp] = memory[sp] == 0 ? 1 : 0;
+              break;
+            case H_AND:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] != 0 && v1 != 0 ? 1 : 0;
+              break;
+            case H_OR:
+              v1 = memory[sp++];
+              memory[sp] = memory[sp] != 0 || v1 != 0 ? 1 : 0;
+              break;
+            case H_CALL:
+              ra = ip;
+              ip = memory[(memory[sp] + (int) (insn >> 32)) & mask];
+              break;
+            case H_VCALL:
+              ra = ip;
+              ip = memory[(memory[memory[sp] & mask] + (int) (insn >> 32)) & mask];
+              break;
+            case H_ENTER:
+              fp = sp;
+              memory[--sp] = ra;
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_RET:
+              v1 = memory[sp];
+              ip = memory[fp - 1];
+              sp = fp + (int) (insn >> 32) + 1;
+              fp = memory[sp] & mask;
+              memory[sp] = v1;
+              break;
+            default: // opcode non valido: come cpu() lo si salta
+              break;
+          }
+        }
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw invalidAccess(at, e);
+      } finally {
+        this.ip = ip; this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+      }
     }
-    
+
+    /**
+     * Variante di cpuThreaded() con caching del top dello stack: l'elemento in
+     * cima allo stack e' tenuto nella variabile locale tos, per cui le istruzioni
+     * aritmetiche e di salto fanno un solo accesso a memory[] invece di tre.
+     * Invariante: tos e' il valore (logico) di memory[sp], mentre memory[sp] puo'
+     * non essere aggiornato; tutte le altre celle dello stack sono sempre
+     * aggiornate. sp ha sempre il valore che avrebbe in cpu(), quindi cfp/lfp
+     * espongono gli stessi indirizzi.
+     * La cima viene riversata in memory[sp] (spill) solo quando serve: da una
+     * push (che la "abbassa" di una posizione), dalle letture e scritture in
+     * memoria (lw, sw e superistruzioni di load), da cfp, print e halt.
+     * A stack vuoto la cima corrisponde alla cella sentinella in fondo a memory.
+     */
+    public void cpuCached() {
+      onHeap("cpuCached");
+      unlimited("cpuCached");
+      if (insns == null) insns = decoded.computeIfAbsent(code, ExecuteVM::decode);
+      final long[] insns = this.insns;
+      int[] memory = this.memory;
+      int mask = memory.length - 1;
+      int ip = this.ip, sp = this.sp, fp = this.fp, hp = this.hp, ra = this.ra, tm = this.tm;
+      int tos = memory[sp];
+      int at = ip;
+      int v1, v2;
+      try {
+        while ( true ) {
+          long insn = insns[at = ip];
+          ip = ((int) insn) >>> 8;
+          switch ( ((int) insn) & 0xFF ) {
+            case H_PUSH:
+              memory[sp--] = tos;
+              tos = (int) (insn >> 32);
+              break;
+            case H_POP:
+              tos = memory[++sp];
+              break;
+            case H_ADD:
+              tos = memory[++sp] + tos;
+              break;
+            case H_SUB:
+              tos = memory[++sp] - tos;
+              break;
+            case H_MULT:
+              tos = memory[++sp] * tos;
+              break;
+            case H_DIV:
+              tos = memory[++sp] / tos;
+              break;
+            case H_STOREW:
+              memory[sp] = tos; // spill
+              v1 = memory[sp + 1];
+              sp += 2;
+              memory[tos & mask] = v1;
+              tos = memory[sp];
+              break;
+            case H_LOADW:
+              memory[sp] = tos; // spill
+              tos = memory[tos & mask];
+              break;
+            case H_BRANCH:
+              ip = (int) (insn >> 32);
+              break;
+            case H_BRANCHEQ:
+              v2 = memory[sp + 1];
+              if (v2 == tos) ip = (int) (insn >> 32);
+              sp += 2;
+              tos = memory[sp];
+              break;
+            case H_BRANCHLESSEQ:
+              v2 = memory[sp + 1];
+              if (v2 <= tos) ip = (int) (insn >> 32);
+              sp += 2;
+              tos = memory[sp];
+              break;
+            case H_BRANCHNOTEQ:
+              v2 = memory[sp + 1];
+              if (v2 != tos) ip = (int) (insn >> 32);
+              sp += 2;
+              tos = memory[sp];
+              break;
+            case H_BRANCHLESS:
+              v2 = memory[sp + 1];
+              if (v2 < tos) ip = (int) (insn >> 32);
+              sp += 2;
+              tos = memory[sp];
+              break;
+            case H_BRANCHGREATER:
+              v2 = memory[sp + 1];
+              if (v2 > tos) ip = (int) (insn >> 32);
+              sp += 2;
+              tos = memory[sp];
+              break;
+            case H_JS:
+              ra = ip;
+              ip = tos;
+              tos = memory[++sp];
+              break;
+            case H_STORERA:
+              ra = tos;
+              tos = memory[++sp];
+              break;
+            case H_LOADRA:
+              memory[sp--] = tos;
+              tos = ra;
+              break;
+            case H_STORETM:
+              tm = tos;
+              tos = memory[++sp];
+              break;
+            case H_LOADTM:
+              memory[sp--] = tos;
+              tos = tm;
+              break;
+            case H_LOADFP:
+              memory[sp--] = tos;
+              tos = fp - mask - 1;
+              break;
+            case H_STOREFP:
+              fp = tos & mask;
+              tos = memory[++sp];
+              break;
+            case H_COPYFP:
+              memory[sp] = tos; // spill: fp punta alla cima
+              fp = sp;
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_STOREHP:
+              hp = tos;
+              tos = memory[++sp];
+              if (hp > sp - STACK_RESERVE) {
+                memory[sp] = tos; // spill: lo stack viene spostato
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_LOADHP:
+              memory[sp--] = tos;
+              tos = hp;
+              break;
+            case H_PRINT:
+              memory[sp] = tos;
+              out.println((sp<mask)?tos:"Empty stack!");
+              break;
+            case H_HALT:
+              memory[sp] = tos;
+              return;
+            case H_ADDI:
+              tos += (int) (insn >> 32);
+              break;
+            case H_SUBI:
+              tos -= (int) (insn >> 32);
+              break;
+            case H_LOADOFF:
+              memory[sp] = tos; // spill
+              tos = memory[(tos + (int) (insn >> 32)) & mask];
+              break;
+            case H_LOADFPOFF:
+              memory[sp--] = tos; // spill: la cima puo' essere letta
+              tos = memory[fp + (int) (insn >> 32)];
+              break;
+            case H_STMLTMLTM:
+              tm = tos;
+              memory[sp--] = tos;
+              break;
+            case H_LOADAL:
+              memory[sp--] = tos;
+              v2 = fp - mask - 1;
+              for (v1 = (int) (insn >> 32); v1 > 0; v1--) v2 = memory[v2 & mask];
+              tos = v2;
+              break;
+            case H_LOADABS:
+              memory[sp--] = tos;
+              tos = memory[(int) (insn >> 32) & mask];
+              break;
+            case H_STOREHPBUMP:
+              v1 = tos;
+              tos = memory[++sp];
+              memory[hp++] = v1;
+              if (hp > sp - STACK_RESERVE) {
+                memory[sp] = tos; // spill: lo stack viene spostato
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_ALLOC:
+              v1 = (int) (insn >> 32);
+              if (rc != null || hp + v1 > sp - STACK_RESERVE) {
+                memory[sp] = tos; // spill: il collector aggiorna anche la cima
+                this.sp = sp; this.fp = fp; this.hp = hp;
+                allocate(ip, v1);
+                sp = this.sp; fp = this.fp; hp = this.hp; memory = this.memory; mask = memory.length - 1;
+                tos = memory[sp];
+              }
+              break;
+            case H_INC: // la cella del contatore e' in heap: nessuno spill
+              if (tos >= 0) memory[tos + 1]++;
+              break;
+            case H_DEC:
+              if (tos >= 0 && --memory[tos + 1] == 0) rc.free(heap(), tos);
+              break;
+            case H_EQ:
+              tos = memory[++sp] == tos ? 1 : 0;
+              break;
+            case H_LESS:
+              tos = memory[++sp] < tos ? 1 : 0;
+              break;
+            case H_LESSEQ:
+              tos = memory[++sp] <= tos ? 1 : 0;
+              break;
+            case H_GREATEREQ:
+              tos = memory[++sp] >= tos ? 1 : 0;
+              break;
+            case H_NOT:
+              tos = tos == 0 ? 1 : 0;
+              break;
+            case H_AND:
+              tos = memory[++sp] != 0 && tos != 0 ? 1 : 0;
+              break;
+            case H_OR:
+              tos = memory[++sp] != 0 || tos != 0 ? 1 : 0;
+              break;
+            case H_CALL: // l'access link resta la cima
+              ra = ip;
+              ip = memory[(tos + (int) (insn >> 32)) & mask];
+              break;
+            case H_VCALL:
+              ra = ip;
+              ip = memory[(memory[tos & mask] + (int) (insn >> 32)) & mask];
+              break;
+            case H_ENTER:
+              fp = sp;
+              memory[sp--] = tos; // spill: fp punta alla cima
+              tos = ra;
+              if (sp - STACK_RESERVE < hp || sp - STACK_RESERVE < heapEnd) {
+                memory[sp] = tos; // spill: lo stack viene spostato
+                v1 = grow(at, sp, hp, 0, 0);
+                sp += v1; fp += v1; memory = this.memory; mask = memory.length - 1;
+              }
+              break;
+            case H_RET: // ra e control link sono sotto la cima, quindi aggiornati in memory
+              ip = memory[fp - 1];
+              sp = fp + (int) (insn >> 32) + 1;
+              fp = memory[sp] & mask;
+              break;
+            default:
+              break;
+          }
+        }
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw invalidAccess(at, e);
+      } finally {
+        this.ip = ip; this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+      }
+    }
+
+    /**
+     * Esecuzione tramite traduzione in bytecode JVM (vedi JitCompiler): il
+     * programma viene tradotto una sola volta e poi eseguito come codice Java,
+     * che HotSpot puo' compilare in codice nativo. L'output e lo stato finale
+     * dei registri sono gli stessi di cpu().
+     * Quando una alloc richiede una garbage collection il codice tradotto esce
+     * (regs[6] = 1, regs[0] = indirizzo successivo alla alloc): la raccolta
+     * avviene qui e l'esecuzione riprende da quell'indirizzo. Con il reference
+     * counting (regs[7] = 1) si esce cosi' a ogni alloc, e anche dopo una dec che
+     * ha azzerato il contatore dell'oggetto in cima allo stack (regs[6] = 2),
+     * per liberarlo. Si esce allo stesso modo quando la memoria deve crescere
+     * (regs[6] = 3, dopo cfp, enter, shp e swhp); regs[8] e' la fine dello heap
+     * gestito dal reference counting.
+     */
+    public void cpuJit() {
+      onHeap("cpuJit");
+      unlimited("cpuJit");
+      int[] regs = {ip, sp, fp, hp, ra, tm, 0, rc != null ? 1 : 0, heapEnd};
+      JitCompiler.Program program = JitCompiler.compile(code);
+      try {
+        while (true) {
+          program.run(memory, regs);
+          if (regs[6] == 0) break;
+          ip = regs[0]; sp = regs[1]; fp = regs[2]; hp = regs[3];
+          if (regs[6] == 1) allocate(ip, code[ip - 1]);
+          else if (regs[6] == 2) rc.free(heap(), memory[sp]);
+          else move(grow(ip - 1, sp, hp, 0, 0)); // dopo cfp, enter, shp o swhp (senza operando)
+          regs[1] = sp; regs[2] = fp; regs[3] = hp; regs[6] = 0; regs[8] = heapEnd;
+        }
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw invalidAccess(-1, e);
+      } finally {
+        ip = regs[0]; sp = regs[1]; fp = regs[2]; hp = regs[3]; ra = regs[4]; tm = regs[5];
+      }
+    }
+
+    // indici degli handler della forma pre-decodificata (densi, partono da 0)
+    private static final int H_INVALID = 0, H_PUSH = 1, H_POP = 2, H_ADD = 3, H_SUB = 4,
+        H_MULT = 5, H_DIV = 6, H_STOREW = 7, H_LOADW = 8, H_BRANCH = 9, H_BRANCHEQ = 10,
+        H_BRANCHLESSEQ = 11, H_JS = 12, H_LOADRA = 13, H_STORERA = 14, H_LOADTM = 15,
+        H_STORETM = 16, H_LOADFP = 17, H_STOREFP = 18, H_COPYFP = 19, H_LOADHP = 20,
+        H_STOREHP = 21, H_PRINT = 22, H_HALT = 23,
+        H_ADDI = 24, H_SUBI = 25, H_LOADOFF = 26, H_LOADFPOFF = 27, H_STMLTMLTM = 28,
+        H_LOADAL = 29, H_STOREHPBUMP = 30, H_ALLOC = 31, H_INC = 32, H_DEC = 33,
+        H_BRANCHNOTEQ = 34, H_BRANCHLESS = 35, H_BRANCHGREATER = 36, H_EQ = 37, H_LESS = 38,
+        H_LESSEQ = 39, H_GREATEREQ = 40, H_NOT = 41, H_AND = 42, H_OR = 43,
+        H_CALL = 44, H_VCALL = 45, H_ENTER = 46, H_RET = 47, H_LOADABS = 48;
+
+    // forma pre-decodificata: per ogni indirizzo di codice una parola che contiene
+    // l'operando (32 bit alti), l'indirizzo successivo (24 bit) e l'handler (8 bit bassi)
+    private long[] insns;
+
+    // cache delle forme pre-decodificate: lo stesso programma eseguito da piu' VM
+    // viene decodificato una sola volta
+    private static final Map<int[], long[]> decoded = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Pre-decodifica code[] nella forma usata da cpuThreaded().
+     * Ogni indirizzo viene decodificato come se fosse l'inizio di un'istruzione:
+     * un salto nel mezzo di una sequenza fusa esegue quindi le singole istruzioni
+     * rimanenti, esattamente come cpu(). Viene decodificato solo il prefisso di
+     * code[] effettivamente occupato.
+     */
+    private static long[] decode(int[] code) {
+      int n = code.length;
+      while (n > 0 && code[n - 1] == 0) n--;
+      if (n >= 1 << 24) throw new IllegalStateException("Code too large for threaded mode: "+n);
+      long[] insns = new long[n + 2]; // le ultime parole (H_INVALID) proseguono oltre, come cpu()
+      for (int a = 0; a < n; a++) {
+        int h = handlerOf(code[a]);
+        int operand = 0, nextIp = a + 1;
+        if (h == H_PUSH || h == H_BRANCH || h == H_BRANCHEQ || h == H_BRANCHLESSEQ
+            || h == H_BRANCHNOTEQ || h == H_BRANCHLESS || h == H_BRANCHGREATER || h == H_LOADFPOFF
+            || h == H_LOADAL || h == H_ADDI || h == H_ALLOC || h == H_CALL || h == H_VCALL || h == H_RET
+            || h == H_LOADABS) {
+          operand = a + 1 < n ? code[a + 1] : 0;
+          nextIp = a + 2;
+        }
+        if (h == H_PUSH && at(code, a + 2, SVMParser.ADD, n)) {
+          if (at(code, a + 3, SVMParser.LOADW, n)) {
+            h = H_LOADOFF; nextIp = a + 4;
+          } else {
+            h = H_ADDI; nextIp = a + 3;
+          }
+        } else if (h == H_PUSH && at(code, a + 2, SVMParser.SUB, n)) {
+          h = H_SUBI; nextIp = a + 3;
+        } else if (h == H_LOADFP && at(code, a + 1, SVMParser.PUSH, n)
+            && at(code, a + 3, SVMParser.ADD, n) && at(code, a + 4, SVMParser.LOADW, n)) {
+          h = H_LOADFPOFF; operand = code[a + 2]; nextIp = a + 5;
+        } else if (h == H_STORETM && at(code, a + 1, SVMParser.LOADTM, n) && at(code, a + 2, SVMParser.LOADTM, n)) {
+          h = H_STMLTMLTM; nextIp = a + 3;
+        } else if (h == H_ADDI && at(code, a + 2, SVMParser.LOADW, n)) {
+          h = H_LOADOFF; nextIp = a + 3;
+        }
+        insns[a] = ((long) operand << 32) | ((long) nextIp << 8) | h;
+      }
+      insns[n] = ((long) (n + 1) << 8) | H_INVALID;
+      insns[n + 1] = ((long) (n + 2) << 8) | H_INVALID;
+      return insns;
+    }
+
+    private static boolean at(int[] code, int a, int bytecode, int n) {
+      return a < n && code[a] == bytecode;
+    }
+
+    private static int handlerOf(int bytecode) {
+      switch ( bytecode ) {
+        case SVMParser.PUSH: return H_PUSH;
+        case SVMParser.POP: return H_POP;
+        case SVMParser.ADD: return H_ADD;
+        case SVMParser.SUB: return H_SUB;
+        case SVMParser.MULT: return H_MULT;
+        case SVMParser.DIV: return H_DIV;
+        case SVMParser.STOREW: return H_STOREW;
+        case SVMParser.LOADW: return H_LOADW;
+        case SVMParser.BRANCH: return H_BRANCH;
+        case SVMParser.BRANCHEQ: return H_BRANCHEQ;
+        case SVMParser.BRANCHLESSEQ: return H_BRANCHLESSEQ;
+        case SVMParser.JS: return H_JS;
+        case SVMParser.LOADRA: return H_LOADRA;
+        case SVMParser.STORERA: return H_STORERA;
+        case SVMParser.LOADTM: return H_LOADTM;
+        case SVMParser.STORETM: return H_STORETM;
+        case SVMParser.LOADFP: return H_LOADFP;
+        case SVMParser.STOREFP: return H_STOREFP;
+        case SVMParser.COPYFP: return H_COPYFP;
+        case SVMParser.LOADHP: return H_LOADHP;
+        case SVMParser.STOREHP: return H_STOREHP;
+        case SVMParser.PRINT: return H_PRINT;
+        case SVMParser.HALT: return H_HALT;
+        case SVMParser.LOADFPOFF: return H_LOADFPOFF;
+        case SVMParser.LOADAL: return H_LOADAL;
+        case SVMParser.STOREHPBUMP: return H_STOREHPBUMP;
+        case SVMParser.ADDI: return H_ADDI;
+        case SVMParser.ALLOC: return H_ALLOC;
+        case SVMParser.INC: return H_INC;
+        case SVMParser.DEC: return H_DEC;
+        case SVMParser.BRANCHNOTEQ: return H_BRANCHNOTEQ;
+        case SVMParser.BRANCHLESS: return H_BRANCHLESS;
+        case SVMParser.BRANCHGREATER: return H_BRANCHGREATER;
+        case SVMParser.EQ: return H_EQ;
+        case SVMParser.LESS: return H_LESS;
+        case SVMParser.LESSEQ: return H_LESSEQ;
+        case SVMParser.GREATEREQ: return H_GREATEREQ;
+        case SVMParser.NOT: return H_NOT;
+        case SVMParser.AND: return H_AND;
+        case SVMParser.OR: return H_OR;
+        case SVMParser.CALL: return H_CALL;
+        case SVMParser.VCALL: return H_VCALL;
+        case SVMParser.ENTER: return H_ENTER;
+        case SVMParser.RET: return H_RET;
+        case SVMParser.LOADABS: return H_LOADABS;
+        default: return H_INVALID;
+      }
+    }
+
+    /*
+     * alloc di n celle (ip e' l'indirizzo successivo) che invaderebbe la riserva dello
+     * stack, o con il reference counting: aggiorna hp, ed eventualmente memory, sp e fp.
+     * Con il garbage collector si raccoglie prima e si fa crescere la memoria se dopo
+     * la raccolta ne resta libero meno di un quarto; con il reference counting il
+     * blocco viene da una free list o dalla cima dello heap, facendo crescere la
+     * memoria se non c'e' spazio.
+     */
+    private void allocate(int ip, int n) {
+      if (rc != null) {
+        int block = rc.allocate(heap(), n, sp - STACK_RESERVE);
+        if (block < 0) {
+          move(grow(ip - 2, sp, rc.top(), n + 1, n + 1));
+          block = rc.allocate(heap(), n, sp - STACK_RESERVE);
+        }
+        hp = block;
+        heapEnd = rc.top();
+        return;
+      }
+      if (gc != null) hp = gc.collect(heap(), ip, sp, fp, hp);
+      move(grow(ip - 2, sp, hp, n, n + size() / 4));
+    }
+
+    /*
+     * Fa crescere memory (raddoppiando, entro la dimensione massima) finche' fra la
+     * fine dello heap e lo stack restano libere wanted celle oltre la riserva,
+     * spostando lo stack in fondo al nuovo array, e restituisce lo spostamento di sp
+     * e fp. Se non se ne possono avere almeno needed l'esecuzione termina con un
+     * errore per l'istruzione all'indirizzo at.
+     */
+    private int grow(int at, int sp, int hp, int needed, int wanted) {
+      int end = Math.max(hp, heapEnd), free = sp - end - STACK_RESERVE;
+      int size = size();
+      long length = size;
+      while (length - size + free < wanted && length * 2 <= maxMemory) length *= 2;
+      if (length - size + free < needed) {
+        throw new IllegalStateException("Out of memory (limit of "+maxMemory+" cells) at "+location(at));
+      }
+      if (length == size) return 0;
+      if (backend != null) {
+        int delta = (int) length - size;
+        backend = backend.resize((int) length);
+        for (int i = size - 1; i >= sp; i--) backend.store(i + delta, backend.load(i));
+        return delta;
+      }
+      int[] grown = new int[(int) length];
+      int delta = grown.length - memory.length;
+      System.arraycopy(memory, 0, grown, 0, end);
+      System.arraycopy(memory, sp, grown, sp + delta, memory.length - sp);
+      memory = grown;
+      return delta;
+    }
+
+    private void move(int delta) {
+      sp += delta;
+      fp += delta;
+    }
+
+    // numero di celle della memoria
+    private int size() {
+      return backend != null ? backend.size() : memory.length;
+    }
+
+    // la memoria come Memory, per cpu(), il collector e il reference counting
+    private Memory heap() {
+      if (backend != null) return backend;
+      if (view == null || view.cells != memory) view = new ArrayMemory(memory);
+      return view;
+    }
+
+    private void onHeap(String engine) {
+      if (backend != null) throw new IllegalStateException(engine+"() requires the on-heap memory (use cpu())");
+    }
+
+    private void unlimited(String engine) {
+      if (jumpLimit != Long.MAX_VALUE) throw new IllegalStateException(engine+"() does not support a jump limit (use cpu())");
+    }
+
+    private IllegalStateException jumpLimitExceeded(int at) {
+      return new IllegalStateException("Jump limit of "+jumpLimit+" exceeded at "+location(at));
+    }
+
+    private IllegalStateException invalidAccess(int at, IndexOutOfBoundsException e) {
+      return new IllegalStateException((at < 0 ? "Invalid code or memory access in translated code"
+          : "Invalid code or memory access at "+location(at))+" ("+e.getMessage()+")", e);
+    }
+
+    private String location(int at) {
+      return "address "+at+(lines != null && at < lines.length ? " (line "+lines[at]+" of the assembly)" : "");
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Garbage collector copiante e preciso per lo heap della SVM.
+ *
+ * Lo heap parte dall'indirizzo 0: in fondo ci sono le dispatch table delle classi,
+ * create all'avvio e mai raccolte, sopra gli oggetti. Un oggetto occupa i suoi campi
+ * seguiti dal dispatch pointer, e il puntatore all'oggetto indica il dispatch pointer
+ * (il campo i e' a offset -i-1).
+ *
+ * Le radici sono trovate in modo preciso grazie alle mappe emesse dal compilatore
+ * (direttive stackmap e objmap, raccolte da SVMParser):
+ * - per ogni punto in cui puo' avvenire una raccolta (alloc) e per ogni indirizzo di
+ *   ritorno, il numero di parametri del frame e gli offset da fp degli slot che
+ *   contengono riferimenti (access link dei metodi, parametri, variabili, temporanei);
+ * - per ogni dispatch pointer, il numero di campi e quali sono riferimenti.
+ * I frame vengono risaliti dal corrente fino a quello globale seguendo l'indirizzo
+ * di ritorno (fp-1) e il control link (fp+parametri+1).
+ *
+ * La raccolta e' alla Cheney: gli oggetti raggiungibili vengono copiati in uno spazio
+ * di appoggio, aggiornando i riferimenti, e poi ricopiati compatti all'inizio dello
+ * heap degli oggetti.
+ */
+public class GarbageCollector {
+
+    private final Map<Integer, int[]> stackMaps;
+    private final Map<Integer, int[]> objectMaps;
+    private final int heapBase; // fine delle dispatch table: inizio degli oggetti
+
+    private Memory memory;
+    private int hp;
+    private int[] forward;      // per ogni cella dello heap: nuovo indirizzo + 1 (0 = non copiato)
+    private int[] to;
+    private int top;
+    private int[] queue;        // oggetti copiati ancora da scandire (nuovi indirizzi)
+    private int queued;
+
+    public int collections = 0;
+    public long reclaimed = 0;  // celle liberate in totale
+
+    public GarbageCollector(Map<Integer, int[]> stackMaps, Map<Integer, int[]> objectMaps) {
+        this.stackMaps = stackMaps;
+        this.objectMaps = objectMaps;
+        int base = 0;
+        for (Map.Entry<Integer, int[]> e : objectMaps.entrySet())
+            base = Math.max(base, e.getKey() + e.getValue()[0]);
+        heapBase = base;
+    }
+
+    /**
+     * Esegue una raccolta. ip e' l'indirizzo successivo all'istruzione alloc
+     * (chiave della sua stack map), sp, fp e hp i registri della VM (sp e fp come
+     * indici in memory). Restituisce il nuovo valore di hp.
+     */
+    int collect(Memory memory, int ip, int sp, int fp, int hp) {
+        this.memory = memory;
+        this.hp = hp;
+        int size = Math.max(hp - heapBase, 0);
+        forward = new int[size];
+        to = new int[size];
+        queue = new int[size];
+        top = 0;
+        queued = 0;
+
+        int key = ip;
+        while (true) {
+            int[] map = stackMaps.get(key);
+            if (map == null) throw new IllegalStateException("No stack map for address "+key);
+            for (int i = 1; i < map.length; i++) memory.store(fp + map[i], evacuate(memory.load(fp + map[i])));
+            if (map[0] < 0) break; // frame globale
+            key = memory.load(fp - 1);
+            fp = memory.load(fp + map[0] + 1) & (memory.size() - 1); // il control link e' un indirizzo
+        }
+        for (int q = 0; q < queued; q++) {
+            int p = queue[q] - heapBase;
+            int[] layout = objectMaps.get(to[p]);
+            for (int i = 2; i < layout.length; i++) to[p + layout[i]] = evacuate(to[p + layout[i]]);
+        }
+
+        for (int i = 0; i < top; i++) memory.store(heapBase + i, to[i]);
+        collections++;
+        reclaimed += size - top;
+        this.memory = null;
+        forward = to = queue = null;
+        return heapBase + top;
+    }
+
+    // nuovo indirizzo dell'oggetto puntato da p, copiandolo se non ancora fatto
+    private int evacuate(int p) {
+        if (p < heapBase || p >= hp) return p; // null, dispatch table
+        if (forward[p - heapBase] != 0) return forward[p - heapBase] - 1;
+        int[] layout = objectMaps.get(memory.load(p));
+        if (layout == null) throw new IllegalStateException("Heap address "+p+" is not an object");
+        int fields = layout[1];
+        for (int i = p - fields; i <= p; i++) to[top++] = memory.load(i);
+        int moved = heapBase + top - 1;
+        forward[p - heapBase] = moved + 1;
+        queue[queued++] = moved;
+        return moved;
+    }
+}
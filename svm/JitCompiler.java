@@ -0,0 +1,526 @@
+package svm;
+
+import java.lang.invoke.*;
+import java.util.*;
+
+import svm.ClassFileBuilder.Code;
+import svm.ClassFileBuilder.Label;
+
+import static svm.ClassFileBuilder.*;
+
+/**
+ * Traduttore da codice SVM assemblato (int[] prodotto da SVMParser.assembly())
+ * a bytecode JVM, usato da ExecuteVM.cpuJit().
+ *
+ * Il codice viene diviso in blocchi base; blocchi consecutivi sono raggruppati
+ * in "regioni", ognuna tradotta in un metodo statico abbastanza piccolo da
+ * essere compilato da HotSpot. I salti (b e i condizionati) verso la stessa regione
+ * diventano goto JVM; js (il cui target e' noto solo a runtime) e i salti
+ * verso altre regioni passano invece per una switch di dispatch sull'indirizzo.
+ * I registri della SVM sono variabili locali del metodo e lo stack resta
+ * nell'array memory della VM, quindi cfp/lfp/lw/sw vedono gli stessi indirizzi
+ * dell'interprete (sp e fp sono indici in memory come in ExecuteVM). Quando la
+ * memoria deve crescere il codice tradotto esce verso cpuJit(), che la sostituisce:
+ * ogni regione rilegge la dimensione di memory all'ingresso. La classe generata e'
+ * una hidden class del package svm.
+ */
+public class JitCompiler {
+
+    // dimensione massima stimata (in byte di bytecode) di una regione: sotto il
+    // limite oltre il quale HotSpot non compila un metodo (HugeMethodLimit)
+    private static final int REGION_LIMIT = 6000;
+
+    // variabili locali dei metodi di regione
+    private static final int MEM = 0, REGS = 1, IP = 2, SP = 3, FP = 4, HP = 5, RA = 6, TM = 7,
+        V1 = 8, V2 = 9, MASK = 10;
+
+    private static final String NAME = "svm/SVMJitProgram";
+    private static final String REGION_DESC = "([I[II)I";
+
+    /** Programma tradotto: esegue il codice su memory a partire dai registri in regs. */
+    static class Program {
+        private final MethodHandle run;
+
+        Program(MethodHandle run) {
+            this.run = run;
+        }
+
+        // regs = {ip, sp, fp, hp, ra, tm, richiesta a cpuJit(), reference counting,
+        // fine dello heap del reference counting}, aggiornati all'uscita
+        void run(int[] memory, int[] regs) {
+            try {
+                run.invokeExact(memory, regs);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final Map<int[], Program> compiled = Collections.synchronizedMap(new WeakHashMap<>());
+
+    static Program compile(int[] code) {
+        return compiled.computeIfAbsent(code, c -> new JitCompiler(c).translate());
+    }
+
+    // chiamati dal codice generato
+    static void print(int[] memory, int sp) {
+        System.out.println((sp<memory.length-1)?memory[sp]:"Empty stack!");
+    }
+
+    static void badJump(int ip) {
+        throw new IllegalStateException("Jump to address "+ip+" which is not an instruction entry point");
+    }
+
+    private final int[] code;
+    private final int n;                 // lunghezza effettiva del codice
+    private final boolean[] start;       // inizio di istruzione
+    private final boolean[] leader;      // inizio di blocco base
+    private final int[] regionOf;        // regione di ogni leader (-1 altrimenti)
+    private final List<int[]> regions = new ArrayList<>(); // {da, a) in indirizzi
+
+    private JitCompiler(int[] code) {
+        this.code = code;
+        int len = code.length;
+        while (len > 0 && code[len - 1] == 0) len--;
+        n = len;
+        start = new boolean[n + 1];
+        leader = new boolean[n + 1];
+        regionOf = new int[n + 1];
+        Arrays.fill(regionOf, -1);
+    }
+
+    private static boolean hasOperand(int op) {
+        switch (op) {
+            case SVMParser.PUSH: case SVMParser.BRANCH: case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ: case SVMParser.BRANCHNOTEQ: case SVMParser.BRANCHLESS:
+            case SVMParser.BRANCHGREATER: case SVMParser.LOADFPOFF: case SVMParser.LOADAL:
+            case SVMParser.ADDI: case SVMParser.ALLOC: case SVMParser.CALL: case SVMParser.VCALL:
+            case SVMParser.RET: case SVMParser.LOADABS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int next(int a) {
+        return a + (hasOperand(code[a]) ? 2 : 1);
+    }
+
+    private int operand(int a) {
+        return a + 1 < code.length ? code[a + 1] : 0;
+    }
+
+    // individua i blocchi base e li raggruppa in regioni
+    private void analyze() {
+        for (int a = 0; a < n; a = next(a)) start[a] = true;
+        start[n] = true;
+        leader[0] = true;
+        leader[n] = true;
+        for (int a = 0; a < n; a = next(a)) {
+            switch (code[a]) {
+                case SVMParser.BRANCH: case SVMParser.BRANCHEQ: case SVMParser.BRANCHLESSEQ:
+                case SVMParser.BRANCHNOTEQ: case SVMParser.BRANCHLESS: case SVMParser.BRANCHGREATER:
+                    int t = operand(a);
+                    if (t >= 0 && t <= n && start[t]) leader[t] = true;
+                    leader[Math.min(next(a), n)] = true;
+                    break;
+                case SVMParser.JS: case SVMParser.HALT: case SVMParser.ALLOC: case SVMParser.DEC:
+                case SVMParser.COPYFP: case SVMParser.STOREHP: case SVMParser.STOREHPBUMP:
+                case SVMParser.CALL: case SVMParser.VCALL: case SVMParser.ENTER: case SVMParser.RET:
+                    leader[Math.min(next(a), n)] = true; // indirizzo di ritorno (o di ripresa)
+                    break;
+                case SVMParser.PUSH: // possibile indirizzo di funzione (push label)
+                    int v = operand(a);
+                    if (v >= 0 && v <= n && start[v]) leader[v] = true;
+                    break;
+            }
+        }
+        int from = 0, estimate = 0;
+        for (int a = 0; a < n; a = next(a)) {
+            if (leader[a] && a > from && estimate > REGION_LIMIT) {
+                regions.add(new int[] {from, a});
+                from = a;
+                estimate = 0;
+            }
+            estimate += leader[a] ? 40 : 24;
+        }
+        regions.add(new int[] {from, n});
+        for (int r = 0; r < regions.size(); r++)
+            for (int a = regions.get(r)[0]; a < regions.get(r)[1]; a++)
+                if (leader[a]) regionOf[a] = r;
+    }
+
+    private Program translate() {
+        analyze();
+        ClassFileBuilder cf = new ClassFileBuilder(ACC_PUBLIC | ACC_FINAL | ACC_SUPER, NAME, "java/lang/Object");
+        for (int r = 0; r < regions.size(); r++) region(cf, r);
+        driver(cf);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cf.toByteArray(), true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run",
+                MethodType.methodType(void.class, int[].class, int[].class, int[].class));
+            return new Program(MethodHandles.insertArguments(run, 2, (Object) regionOf));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load translated program", e);
+        }
+    }
+
+    // run(memory, regs, regionOf): ciclo che passa il controllo da una regione all'altra
+    private void driver(ClassFileBuilder cf) {
+        Code m = cf.method(ACC_PUBLIC | ACC_STATIC, "run", "([I[I[I)V");
+        int ip = 3;
+        Label loop = m.label(), end = m.label(), bad = m.label();
+        Label[] targets = new Label[regions.size()];
+        m.var(ALOAD, REGS).iconst(0).op(IALOAD).var(ISTORE, ip);
+        m.mark(loop).var(ILOAD, ip).jump(IFLT, end);
+        m.var(ALOAD, 2).var(ILOAD, ip).op(IALOAD);
+        for (int r = 0; r < targets.length; r++) targets[r] = m.label();
+        m.tableswitch(0, bad, targets);
+        for (int r = 0; r < targets.length; r++) {
+            m.mark(targets[r]).var(ALOAD, MEM).var(ALOAD, REGS).var(ILOAD, ip)
+                .invoke(INVOKESTATIC, NAME, "r" + r, REGION_DESC).var(ISTORE, ip).jump(GOTO, loop);
+        }
+        m.mark(bad).var(ILOAD, ip).invoke(INVOKESTATIC, "svm/JitCompiler", "badJump", "(I)V");
+        m.mark(end).op(RETURN);
+        m.maxStack = 3;
+        m.maxLocals = 4;
+    }
+
+    private Code m;
+    private Label dispatch, exit;
+    private Label[] labels; // label JVM dei leader della regione corrente
+
+    private void region(ClassFileBuilder cf, int r) {
+        int from = regions.get(r)[0], to = regions.get(r)[1];
+        m = cf.method(ACC_STATIC, "r" + r, REGION_DESC);
+        m.maxStack = 6;
+        m.maxLocals = 11;
+        dispatch = m.label();
+        exit = m.label();
+        labels = new Label[n + 1];
+        List<Integer> keys = new ArrayList<>();
+        for (int a = from; a < to; a++)
+            if (leader[a]) {
+                labels[a] = m.label();
+                keys.add(a);
+            }
+
+        // prologo: registri dall'array regs alle variabili locali
+        for (int i = 1; i <= 5; i++) m.var(ALOAD, REGS).iconst(i).op(IALOAD).var(ISTORE, SP + i - 1);
+        m.var(ALOAD, MEM).op(ARRAYLENGTH).iconst(1).op(ISUB).var(ISTORE, MASK);
+        m.mark(dispatch).var(ILOAD, IP);
+        Label[] targets = new Label[keys.size()];
+        int[] keyArray = new int[keys.size()];
+        for (int i = 0; i < keyArray.length; i++) {
+            keyArray[i] = keys.get(i);
+            targets[i] = labels[keyArray[i]];
+        }
+        m.lookupswitch(exit, keyArray, targets);
+
+        for (int a = from; a < to; a = next(a)) {
+            if (labels[a] != null) m.mark(labels[a]);
+            instruction(a);
+        }
+        // fine regione per fall-through: si prosegue nella regione successiva
+        goTo(to);
+
+        // epilogo: registri dalle variabili locali all'array regs
+        m.mark(exit);
+        for (int i = 1; i <= 5; i++) m.var(ALOAD, REGS).iconst(i).var(ILOAD, SP + i - 1).op(IASTORE);
+        m.var(ILOAD, IP).op(IRETURN);
+    }
+
+    // salto statico: goto se il target e' nella regione, altrimenti uscita verso il driver
+    private void goTo(int target) {
+        if (target >= 0 && target <= n && labels[target] != null) {
+            m.jump(GOTO, labels[target]);
+        } else {
+            m.iconst(target).var(ISTORE, IP).jump(GOTO, exit);
+        }
+    }
+
+    private void condJump(int opcode, int target) {
+        if (target >= 0 && target <= n && labels[target] != null) {
+            m.jump(opcode, labels[target]);
+        } else {
+            Label skip = m.label();
+            m.jump(((opcode - IFEQ) ^ 1) + IFEQ, skip); // condizione negata (gli opcode if sono a coppie)
+            goTo(target);
+            m.mark(skip);
+        }
+    }
+
+    private void push() { // stack: valore da mettere in memory[--sp]
+        m.var(ISTORE, V1).iinc(SP, -1).var(ALOAD, MEM).var(ILOAD, SP).var(ILOAD, V1).op(IASTORE);
+    }
+
+    private void pop() { // lascia memory[sp++] sullo stack JVM
+        m.var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD).iinc(SP, 1);
+    }
+
+    private void binary(int opcode) { // memory[sp+1] = memory[sp+1] op memory[sp]; sp++
+        pop();
+        m.var(ISTORE, V1).var(ALOAD, MEM).var(ILOAD, SP).op(DUP2).op(IALOAD)
+            .var(ILOAD, V1).op(opcode).op(IASTORE);
+    }
+
+    private void instruction(int a) {
+        int nextIp = next(a);
+        switch (code[a]) {
+            case SVMParser.PUSH:
+                m.iinc(SP, -1).var(ALOAD, MEM).var(ILOAD, SP).iconst(operand(a)).op(IASTORE);
+                break;
+            case SVMParser.POP:
+                m.iinc(SP, 1);
+                break;
+            case SVMParser.ADD:
+                binary(IADD);
+                break;
+            case SVMParser.SUB:
+                binary(ISUB);
+                break;
+            case SVMParser.MULT:
+                binary(IMUL);
+                break;
+            case SVMParser.DIV:
+                binary(IDIV);
+                break;
+            case SVMParser.STOREW:
+                pop();
+                m.var(ILOAD, MASK).op(IAND).var(ISTORE, V1).var(ALOAD, MEM).var(ILOAD, V1);
+                pop();
+                m.op(IASTORE);
+                break;
+            case SVMParser.LOADW:
+                m.var(ALOAD, MEM).var(ILOAD, SP).var(ALOAD, MEM).var(ALOAD, MEM).var(ILOAD, SP)
+                    .op(IALOAD).var(ILOAD, MASK).op(IAND).op(IALOAD).op(IASTORE);
+                break;
+            case SVMParser.BRANCH:
+                goTo(operand(a));
+                break;
+            case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ:
+            case SVMParser.BRANCHNOTEQ:
+            case SVMParser.BRANCHLESS:
+            case SVMParser.BRANCHGREATER:
+                pop();
+                m.var(ISTORE, V1);
+                pop();
+                m.var(ILOAD, V1);
+                condJump(comparison(code[a]), operand(a));
+                break;
+            case SVMParser.JS:
+                m.iconst(nextIp).var(ISTORE, RA);
+                pop();
+                m.var(ISTORE, IP).jump(GOTO, dispatch);
+                break;
+            case SVMParser.CALL:
+            case SVMParser.VCALL:
+                // target letto dalla memoria a partire dall'access link in cima (che resta)
+                m.iconst(nextIp).var(ISTORE, RA);
+                m.var(ALOAD, MEM).var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD);
+                if (code[a] == SVMParser.VCALL) m.var(ILOAD, MASK).op(IAND).var(ALOAD, MEM).op(SWAP).op(IALOAD);
+                m.iconst(operand(a)).op(IADD).var(ILOAD, MASK).op(IAND).op(IALOAD)
+                    .var(ISTORE, IP).jump(GOTO, dispatch);
+                break;
+            case SVMParser.ENTER:
+                m.var(ILOAD, SP).var(ISTORE, FP).var(ILOAD, RA);
+                push();
+                Label enterGrow = m.label(), enterRoom = m.label();
+                m.var(ILOAD, SP).iconst(ExecuteVM.STACK_RESERVE).op(ISUB).var(ILOAD, HP)
+                    .jump(IF_ICMPLT, enterGrow);
+                m.var(ILOAD, SP).iconst(ExecuteVM.STACK_RESERVE).op(ISUB)
+                    .var(ALOAD, REGS).iconst(8).op(IALOAD).jump(IF_ICMPGE, enterRoom);
+                m.mark(enterGrow);
+                request(3, nextIp);
+                m.mark(enterRoom);
+                break;
+            case SVMParser.RET:
+                // risultato in V1, ritorno a memory[fp-1], control link sostituito dal risultato
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD).var(ISTORE, V1);
+                m.var(ALOAD, MEM).var(ILOAD, FP).iconst(1).op(ISUB).op(IALOAD).var(ISTORE, IP);
+                m.var(ILOAD, FP).iconst(operand(a) + 1).op(IADD).var(ISTORE, SP);
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD).var(ILOAD, MASK).op(IAND).var(ISTORE, FP);
+                m.var(ALOAD, MEM).var(ILOAD, SP).var(ILOAD, V1).op(IASTORE);
+                m.jump(GOTO, dispatch);
+                break;
+            case SVMParser.STORERA:
+                pop();
+                m.var(ISTORE, RA);
+                break;
+            case SVMParser.LOADRA:
+                m.var(ILOAD, RA);
+                push();
+                break;
+            case SVMParser.STORETM:
+                pop();
+                m.var(ISTORE, TM);
+                break;
+            case SVMParser.LOADTM:
+                m.var(ILOAD, TM);
+                push();
+                break;
+            case SVMParser.LOADFP:
+                virtualFp();
+                push();
+                break;
+            case SVMParser.STOREFP:
+                pop();
+                m.var(ILOAD, MASK).op(IAND).var(ISTORE, FP);
+                break;
+            case SVMParser.COPYFP:
+                m.var(ILOAD, SP).var(ISTORE, FP);
+                // stack entro la riserva: si esce chiedendo a cpuJit() di far crescere la memoria
+                Label grow = m.label(), room = m.label();
+                m.var(ILOAD, SP).iconst(ExecuteVM.STACK_RESERVE).op(ISUB).var(ILOAD, HP)
+                    .jump(IF_ICMPLT, grow);
+                m.var(ILOAD, SP).iconst(ExecuteVM.STACK_RESERVE).op(ISUB)
+                    .var(ALOAD, REGS).iconst(8).op(IALOAD).jump(IF_ICMPGE, room);
+                m.mark(grow);
+                request(3, nextIp);
+                m.mark(room);
+                break;
+            case SVMParser.STOREHP:
+                pop();
+                m.var(ISTORE, HP);
+                heapCheck(nextIp);
+                break;
+            case SVMParser.LOADHP:
+                m.var(ILOAD, HP);
+                push();
+                break;
+            case SVMParser.PRINT:
+                m.var(ALOAD, MEM).var(ILOAD, SP).invoke(INVOKESTATIC, "svm/JitCompiler", "print", "([II)V");
+                break;
+            case SVMParser.HALT:
+                // regs[0] = indirizzo dopo halt (come in cpu()), la regione restituisce -1
+                m.var(ALOAD, REGS).iconst(0).iconst(nextIp).op(IASTORE);
+                m.iconst(-1).var(ISTORE, IP).jump(GOTO, exit);
+                break;
+            case SVMParser.LOADFPOFF:
+                m.var(ALOAD, MEM).var(ILOAD, FP).iconst(operand(a)).op(IADD).op(IALOAD);
+                push();
+                break;
+            case SVMParser.LOADAL:
+                virtualFp();
+                for (int i = 0; i < operand(a); i++) m.var(ILOAD, MASK).op(IAND).var(ALOAD, MEM).op(SWAP).op(IALOAD);
+                push();
+                break;
+            case SVMParser.LOADABS:
+                m.var(ALOAD, MEM).iconst(operand(a)).var(ILOAD, MASK).op(IAND).op(IALOAD);
+                push();
+                break;
+            case SVMParser.STOREHPBUMP:
+                m.var(ALOAD, MEM).var(ILOAD, HP);
+                pop();
+                m.op(IASTORE).iinc(HP, 1);
+                heapCheck(nextIp);
+                break;
+            case SVMParser.ADDI:
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(DUP2).op(IALOAD).iconst(operand(a)).op(IADD).op(IASTORE);
+                break;
+            case SVMParser.ALLOC:
+                // se lo heap invaderebbe la riserva dello stack (o con il reference counting)
+                // si esce chiedendo l'allocazione a cpuJit()
+                Label free = m.label(), request = m.label();
+                m.var(ALOAD, REGS).iconst(7).op(IALOAD).jump(IFNE, request);
+                m.var(ILOAD, HP).iconst(operand(a) + ExecuteVM.STACK_RESERVE).op(IADD).var(ILOAD, SP)
+                    .jump(IF_ICMPLE, free);
+                m.mark(request);
+                request(1, nextIp);
+                m.mark(free);
+                break;
+            case SVMParser.INC:
+                Label skip = m.label();
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD).op(DUP).var(ISTORE, V1).jump(IFLT, skip);
+                m.var(ALOAD, MEM).var(ILOAD, V1).iconst(1).op(IADD).op(DUP2).op(IALOAD).iconst(1).op(IADD)
+                    .op(IASTORE);
+                m.mark(skip);
+                break;
+            case SVMParser.DEC:
+                // contatore azzerato: si esce chiedendo a cpuJit() di liberare l'oggetto
+                Label alive = m.label();
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(IALOAD).op(DUP).var(ISTORE, V1).jump(IFLT, alive);
+                m.var(ALOAD, MEM).var(ILOAD, V1).iconst(1).op(IADD).op(DUP2).op(IALOAD).iconst(1).op(ISUB)
+                    .op(DUP).var(ISTORE, V2).op(IASTORE);
+                m.var(ILOAD, V2).jump(IFNE, alive);
+                request(2, nextIp);
+                m.mark(alive);
+                break;
+            case SVMParser.EQ:
+            case SVMParser.LESS:
+            case SVMParser.LESSEQ:
+            case SVMParser.GREATEREQ:
+                pop();
+                m.var(ISTORE, V1).var(ALOAD, MEM).var(ILOAD, SP).op(DUP2).op(IALOAD).var(ILOAD, V1);
+                bool(comparison(code[a]));
+                m.op(IASTORE);
+                break;
+            case SVMParser.NOT:
+                m.var(ALOAD, MEM).var(ILOAD, SP).op(DUP2).op(IALOAD);
+                bool(IFEQ);
+                m.op(IASTORE);
+                break;
+            case SVMParser.AND:
+            case SVMParser.OR:
+                // 1 se (v2 != 0) op (v1 != 0): v2 e v1 ridotti a 0/1 e combinati con iand/ior
+                pop();
+                bool(IFNE);
+                m.var(ISTORE, V1).var(ALOAD, MEM).var(ILOAD, SP).op(DUP2).op(IALOAD);
+                bool(IFNE);
+                m.var(ILOAD, V1).op(code[a] == SVMParser.AND ? IAND : IOR).op(IASTORE);
+                break;
+            default: // opcode non valido: come cpu() lo si salta
+                break;
+        }
+        // blocco successivo in un'altra regione: si esce verso il driver
+        if (falls(code[a]) && nextIp <= n && leader[nextIp] && labels[nextIp] == null) goTo(nextIp);
+    }
+
+    // if JVM equivalente a un salto condizionato o a un confronto della SVM
+    private static int comparison(int op) {
+        switch (op) {
+            case SVMParser.BRANCHEQ: case SVMParser.EQ: return IF_ICMPEQ;
+            case SVMParser.BRANCHNOTEQ: return IF_ICMPNE;
+            case SVMParser.BRANCHLESS: case SVMParser.LESS: return IF_ICMPLT;
+            case SVMParser.BRANCHLESSEQ: case SVMParser.LESSEQ: return IF_ICMPLE;
+            case SVMParser.BRANCHGREATER: return IF_ICMPGT;
+            default: return IF_ICMPGE; // GREATEREQ
+        }
+    }
+
+    // sostituisce gli operandi in cima allo stack JVM con 1 se la condizione (if opcode) e' vera, 0 altrimenti
+    private void bool(int opcode) {
+        Label yes = m.label(), done = m.label();
+        m.jump(opcode, yes).iconst(0).jump(GOTO, done);
+        m.mark(yes).iconst(1);
+        m.mark(done);
+    }
+
+    // fp come indirizzo (negativo) dello stack
+    private void virtualFp() {
+        m.var(ILOAD, FP).var(ILOAD, MASK).op(ISUB).iconst(1).op(ISUB);
+    }
+
+    // heap entro la riserva dello stack: uscita per far crescere la memoria
+    private void heapCheck(int nextIp) {
+        Label room = m.label();
+        m.var(ILOAD, HP).var(ILOAD, SP).iconst(ExecuteVM.STACK_RESERVE).op(ISUB).jump(IF_ICMPLE, room);
+        request(3, nextIp);
+        m.mark(room);
+    }
+
+    // uscita verso cpuJit() con una richiesta (regs[6]), riprendendo poi da nextIp
+    private void request(int kind, int nextIp) {
+        m.var(ALOAD, REGS).iconst(6).iconst(kind).op(IASTORE);
+        m.var(ALOAD, REGS).iconst(0).iconst(nextIp).op(IASTORE);
+        m.iconst(-1).var(ISTORE, IP).jump(GOTO, exit);
+    }
+
+    private static boolean falls(int op) {
+        return op != SVMParser.BRANCH && op != SVMParser.JS && op != SVMParser.HALT
+            && op != SVMParser.CALL && op != SVMParser.VCALL && op != SVMParser.RET;
+    }
+}
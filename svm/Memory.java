@@ -0,0 +1,28 @@
+package svm;
+
+/**
+ * Memoria dati della SVM: size() celle intere indicizzate da 0, con size() potenza di 2.
+ *
+ * La memoria di ExecuteVM e' un int[], di cui ArrayMemory e' la vista, o una memoria
+ * esterna allo heap Java impostata con setMemory() (OffHeapMemory). cpu(), il
+ * garbage collector e il reference counting accedono alle celle solo tramite questa
+ * interfaccia; gli altri interpreti lavorano direttamente sull'int[].
+ */
+public interface Memory extends AutoCloseable {
+
+    int size();
+
+    int load(int index);
+
+    void store(int index, int value);
+
+    /**
+     * Restituisce una memoria di newSize celle (newSize > size()) che contiene in
+     * [0, size()) lo stesso contenuto di questa, che da quel momento non va piu' usata.
+     */
+    Memory resize(int newSize);
+
+    /** Rilascia le risorse della memoria (per quelle mappate su file le scrive sul file). */
+    @Override
+    void close();
+}
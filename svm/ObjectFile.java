@@ -0,0 +1,163 @@
+package svm;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Formato binario del codice SVM assemblato, per eseguire un programma senza
+ * rileggere e riassemblare il sorgente .asm (che resta il formato di debug).
+ *
+ * Il file e' una sequenza di int big endian:
+ * - intestazione: MAGIC, VERSION, flag, dimensione del codice, numero di label,
+ *   di stack map e di object map, dimensione della tabella delle righe (0 se assente);
+ * - il codice (code[] di SVMParser);
+ * - la tabella delle righe: per ogni parola del codice la riga del sorgente .asm;
+ * - le label: indirizzo, lunghezza e byte UTF-8 del nome;
+ * - le stack map e le object map (vedi GarbageCollector): chiave, lunghezza, valori.
+ * Codice e tabella delle righe stanno subito dopo l'intestazione, allineati a 4
+ * byte, e vengono letti in blocco dalla mappatura in memoria del file.
+ */
+public class ObjectFile {
+
+    public static final int MAGIC = 0x53564D4F; // "SVMO"
+    public static final int VERSION = 1;
+
+    public static final int REF_COUNTING = 1; // codice compilato con il reference counting
+
+    private static final int HEADER_SIZE = 8;
+
+    public final int flags;
+    public final int[] code;
+    public final int[] lines; // null se assente
+    public final Map<String, Integer> labels;
+    public final Map<Integer, int[]> stackMaps;
+    public final Map<Integer, int[]> objectMaps;
+
+    public ObjectFile(int flags, int[] code, int[] lines, Map<String, Integer> labels,
+                      Map<Integer, int[]> stackMaps, Map<Integer, int[]> objectMaps) {
+        this.flags = flags;
+        this.code = code;
+        this.lines = lines;
+        this.labels = labels;
+        this.stackMaps = stackMaps;
+        this.objectMaps = objectMaps;
+    }
+
+    /** Il programma assemblato da parser (dopo assembly()), con la sua tabella delle righe. */
+    public static ObjectFile of(SVMParser parser, boolean refCounting) {
+        return new ObjectFile(refCounting ? REF_COUNTING : 0, parser.code, parser.lines,
+            parser.labelDef, parser.stackMaps, parser.objectMaps);
+    }
+
+    /** Il programma assemblato da assembler (dopo assemble()), con la sua tabella delle righe. */
+    public static ObjectFile of(Assembler assembler, boolean refCounting) {
+        return new ObjectFile(refCounting ? REF_COUNTING : 0, assembler.code, assembler.lines,
+            assembler.labelDef, assembler.stackMaps, assembler.objectMaps);
+    }
+
+    public boolean refCounting() {
+        return (flags & REF_COUNTING) != 0;
+    }
+
+    /** Una VM pronta a eseguire il programma, con il gestore dello heap per cui e' stato compilato. */
+    public ExecuteVM newVM() {
+        ExecuteVM vm = refCounting() ? new ExecuteVM(code, new ReferenceCounter(objectMaps))
+            : new ExecuteVM(code, new GarbageCollector(stackMaps, objectMaps));
+        if (lines != null) vm.setLineTable(lines);
+        return vm;
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            write(out);
+        }
+    }
+
+    /** Scrive il programma su out, ad esempio all'interno di un altro file (vedi compiler.CompilationCache). */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(flags);
+        out.writeInt(code.length);
+        out.writeInt(labels.size());
+        out.writeInt(stackMaps.size());
+        out.writeInt(objectMaps.size());
+        out.writeInt(lines == null ? 0 : lines.length);
+        for (int word : code) out.writeInt(word);
+        if (lines != null) for (int line : lines) out.writeInt(line);
+        for (Map.Entry<String, Integer> l : labels.entrySet()) {
+            byte[] name = l.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(l.getValue());
+            out.writeInt(name.length);
+            out.write(name);
+        }
+        writeMaps(out, stackMaps);
+        writeMaps(out, objectMaps);
+    }
+
+    private static void writeMaps(DataOutputStream out, Map<Integer, int[]> maps) throws IOException {
+        for (Map.Entry<Integer, int[]> m : maps.entrySet()) {
+            out.writeInt(m.getKey());
+            out.writeInt(m.getValue().length);
+            for (int v : m.getValue()) out.writeInt(v);
+        }
+    }
+
+    /** Legge un file scritto da write() mappandolo in memoria. */
+    public static ObjectFile read(File file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(in, file.toString());
+    }
+
+    /** Legge un programma scritto da write() a partire dall'inizio di in; source identifica la provenienza negli errori. */
+    public static ObjectFile read(ByteBuffer in, String source) throws IOException {
+        try {
+            int[] header = new int[HEADER_SIZE];
+            in.asIntBuffer().get(header);
+            if (header[0] != MAGIC) throw new IOException(source+" is not an SVM object file");
+            if (header[1] != VERSION) {
+                throw new IOException(source+" has object format version "+header[1]+" (expected "+VERSION+")");
+            }
+            in.position(4 * HEADER_SIZE);
+            int[] code = new int[header[3]];
+            in.asIntBuffer().get(code);
+            in.position(in.position() + 4 * code.length);
+            int[] lines = null;
+            if (header[7] > 0) {
+                lines = new int[header[7]];
+                in.asIntBuffer().get(lines);
+                in.position(in.position() + 4 * lines.length);
+            }
+            Map<String, Integer> labels = new HashMap<>();
+            for (int i = 0; i < header[4]; i++) {
+                int address = in.getInt();
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                labels.put(new String(name, StandardCharsets.UTF_8), address);
+            }
+            Map<Integer, int[]> stackMaps = readMaps(in, header[5]);
+            Map<Integer, int[]> objectMaps = readMaps(in, header[6]);
+            return new ObjectFile(header[2], code, lines, labels, stackMaps, objectMaps);
+        } catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException(source+" is truncated or corrupted", e);
+        }
+    }
+
+    private static Map<Integer, int[]> readMaps(ByteBuffer in, int count) {
+        Map<Integer, int[]> maps = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int key = in.getInt();
+            int[] values = new int[in.getInt()];
+            in.asIntBuffer().get(values);
+            in.position(in.position() + 4 * values.length);
+            maps.put(key, values);
+        }
+        return maps;
+    }
+}
@@ -0,0 +1,104 @@
+package svm;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Memoria della SVM fuori dallo heap Java, su buffer diretti o mappati su un file.
+ *
+ * Le celle sono divise in blocchi di al piu' 2^CHUNK_BITS celle (un buffer e'
+ * limitato a 2^31 byte), quindi la memoria puo' arrivare a 2^30 celle senza
+ * occupare lo heap della JVM. Con un file la memoria ne e' la mappatura: la cella
+ * i e' l'int (nell'ordine di byte nativo) all'offset 4*i, e il contenuto resta sul
+ * file anche se il processo termina in modo anomalo, per poterlo esaminare dopo.
+ */
+public class OffHeapMemory implements Memory {
+
+    private static final int CHUNK_BITS = 27; // blocchi da 512 MB
+
+    private final int size;
+    private final int chunkBits;
+    private final ByteBuffer[] buffers;
+    private final IntBuffer[] chunks;
+    private final FileChannel file; // null per la memoria diretta
+
+    /** Memoria diretta di size celle (potenza di 2) azzerate. */
+    public OffHeapMemory(int size) {
+        this((FileChannel) null, size);
+    }
+
+    /** Memoria di size celle (potenza di 2) azzerate, mappata sul file path (ricreato). */
+    public OffHeapMemory(Path path, int size) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE), size);
+    }
+
+    private OffHeapMemory(FileChannel file, int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Memory size "+size+" is not a power of 2");
+        }
+        this.size = size;
+        this.file = file;
+        chunkBits = Math.min(Integer.numberOfTrailingZeros(size), CHUNK_BITS);
+        long chunkBytes = 4L << chunkBits;
+        buffers = new ByteBuffer[size >>> chunkBits];
+        chunks = new IntBuffer[buffers.length];
+        try {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = file == null ? ByteBuffer.allocateDirect((int) chunkBytes)
+                    : file.map(FileChannel.MapMode.READ_WRITE, i * chunkBytes, chunkBytes);
+                chunks[i] = buffers[i].order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int load(int index) {
+        return chunks[index >>> chunkBits].get(index & ((1 << chunkBits) - 1));
+    }
+
+    @Override
+    public void store(int index, int value) {
+        chunks[index >>> chunkBits].put(index & ((1 << chunkBits) - 1), value);
+    }
+
+    /*
+     * Su file basta mappare la regione piu' grande (il file viene esteso); la
+     * memoria diretta viene invece copiata in nuovi buffer.
+     */
+    @Override
+    public Memory resize(int newSize) {
+        OffHeapMemory grown = new OffHeapMemory(file, newSize);
+        if (file != null) return grown;
+        int chunkSize = 1 << chunkBits;
+        for (int i = 0; i < chunks.length; i++) {
+            int start = i << chunkBits;
+            grown.chunks[start >>> grown.chunkBits].put(start & ((1 << grown.chunkBits) - 1), chunks[i], 0, chunkSize);
+        }
+        return grown;
+    }
+
+    /*
+     * I buffer diretti vengono liberati dal garbage collector della JVM insieme a
+     * questo oggetto; quelli mappati vengono scritti sul file prima di chiuderlo.
+     */
+    @Override
+    public void close() {
+        if (file == null) return;
+        try {
+            for (ByteBuffer b : buffers) ((MappedByteBuffer) b).force();
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package svm;
+
+import java.util.*;
+
+/**
+ * Gestore dello heap della SVM alternativo a GarbageCollector, basato sul
+ * conteggio dei riferimenti.
+ *
+ * Gli oggetti FOOL sono immutabili dopo la new e possono puntare solo a oggetti
+ * gia' esistenti: il grafo dello heap e' aciclico, quindi il conteggio basta a
+ * liberare tutti gli oggetti non piu' raggiungibili, appena lo diventano.
+ *
+ * Con il reference counting il compilatore riserva una cella in piu' per
+ * oggetto, subito dopo il dispatch pointer: il blocco di un oggetto con n campi
+ * occupa n+2 celle (campi, dispatch pointer, contatore) e il contatore si trova
+ * a offset +1 dal puntatore all'oggetto. Il codice generato contiene:
+ * - "alloc n" (n = campi + 1) prima di ogni new, che porta hp all'inizio di un
+ *   blocco libero e inizializza il contatore a 1 (il riferimento prodotto dalla new);
+ * - "inc" dopo ogni lettura di una variabile, parametro o campo di tipo riferimento;
+ * - "dec" quando un riferimento viene consumato: all'uscita dallo scope di
+ *   variabili e parametri e dopo un confronto fra riferimenti.
+ * inc e dec agiscono sulla cima dello stack senza rimuoverla e ignorano null (-1).
+ *
+ * Quando un contatore arriva a zero l'oggetto viene liberato: si decrementano i
+ * contatori dei campi riferimento (direttive objmap) e il blocco viene messo
+ * nella free list della sua dimensione, da cui le alloc successive lo riprendono.
+ * Il primo elemento di un blocco libero contiene il successivo della lista.
+ */
+public class ReferenceCounter {
+
+    private final Map<Integer, int[]> objectMaps;
+    private final int[] freeLists; // per dimensione della alloc: primo blocco libero (-1 = vuota)
+    private int top;               // fine della parte di heap mai allocata
+    private int[] pending = new int[16]; // oggetti da liberare
+
+    public int allocations = 0;
+    public int reused = 0;         // alloc servite da una free list
+    public int freed = 0;
+
+    public ReferenceCounter(Map<Integer, int[]> objectMaps) {
+        this.objectMaps = objectMaps;
+        int base = 0, maxSize = 0;
+        for (Map.Entry<Integer, int[]> e : objectMaps.entrySet()) {
+            base = Math.max(base, e.getKey() + e.getValue()[0]);
+            maxSize = Math.max(maxSize, e.getValue()[1] + 1);
+        }
+        top = base;
+        freeLists = new int[maxSize + 1];
+        Arrays.fill(freeLists, -1);
+    }
+
+    /**
+     * Alloca il blocco per un oggetto di n-1 campi e ne restituisce l'inizio (il
+     * nuovo hp), o -1 se in cima allo heap non c'e' spazio sotto limit.
+     */
+    int allocate(Memory memory, int n, int limit) {
+        int block = n < freeLists.length ? freeLists[n] : -1;
+        if (block >= 0) {
+            freeLists[n] = memory.load(block);
+            reused++;
+        } else {
+            if (top + n + 1 > limit) return -1;
+            block = top;
+            top += n + 1;
+        }
+        memory.store(block + n, 1);
+        allocations++;
+        return block;
+    }
+
+    // fine della parte di heap usata
+    int top() {
+        return top;
+    }
+
+    /** Libera l'oggetto p, il cui contatore e' appena arrivato a zero. */
+    void free(Memory memory, int p) {
+        int count = 0;
+        pending[count++] = p;
+        while (count > 0) {
+            p = pending[--count];
+            int[] layout = objectMaps.get(memory.load(p));
+            if (layout == null) throw new IllegalStateException("Heap address "+p+" is not an object");
+            for (int i = 2; i < layout.length; i++) {
+                int field = memory.load(p + layout[i]);
+                if (field < 0) continue;
+                int references = memory.load(field + 1) - 1;
+                memory.store(field + 1, references);
+                if (references == 0) {
+                    if (count == pending.length) pending = Arrays.copyOf(pending, count * 2);
+                    pending[count++] = field;
+                }
+            }
+            int size = layout[1] + 1, block = p - layout[1];
+            memory.store(block, freeLists[size]);
+            freeLists[size] = block;
+            freed++;
+        }
+    }
+}
@@ -9,10 +9,34 @@ public int lexicalErrors=0;
 }
    
 @parser::members { 
-public int[] code = new int[ExecuteVM.CODESIZE];    
+public int[] code = new int[1024]; // dimensionato al programma al termine di assembly
+public int[] lines = new int[1024]; // riga del sorgente .asm dell'istruzione di ogni parola di code
 private int i = 0;
-private Map<String,Integer> labelDef = new HashMap<>();
+private int line;
+public Map<String,Integer> labelDef = new HashMap<>();
 private Map<Integer,String> labelRef = new HashMap<>();
+
+// mappe per il garbage collector (vedi GarbageCollector), emesse dal compilatore:
+// indirizzo di ritorno -> {parametri del frame, offset da fp degli slot riferimento}
+public Map<Integer,int[]> stackMaps = new HashMap<>();
+// dispatch pointer -> {dimensione dispatch table, numero campi, offset dei campi riferimento}
+public Map<Integer,int[]> objectMaps = new HashMap<>();
+private Map<String,int[]> stackMapRefs = new HashMap<>();
+
+private void emit(int word) {
+  if (i == code.length) {
+    code = Arrays.copyOf(code, 2 * i);
+    lines = Arrays.copyOf(lines, 2 * i);
+  }
+  lines[i] = line;
+  code[i++] = word;
+}
+
+private static int[] ints(List<Token> tokens) {
+  int[] v = new int[tokens.size()];
+  for (int k = 0; k < v.length; k++) v[k] = Integer.parseInt(tokens.get(k).getText());
+  return v;
+}
 }
 
 /*------------------------------------------------------------------
@@ -21,39 +45,87 @@ private Map<Integer,String> labelRef = new HashMap<>();
    
 assembly: instruction* EOF 	{ for (Integer j: labelRef.keySet()) 
 								code[j]=labelDef.get(labelRef.get(j)); 
+							  for (String l: stackMapRefs.keySet())
+								stackMaps.put(labelDef.get(l),stackMapRefs.get(l));
+							  code = Arrays.copyOf(code, i);
+							  lines = Arrays.copyOf(lines, i);
 							} ;
 
-instruction : 
-        PUSH n=INTEGER   {code[i++] = PUSH; 
-			              code[i++] = Integer.parseInt($n.text);}
-	  | PUSH l=LABEL    {code[i++] = PUSH; 
-	    		             labelRef.put(i++,$l.text);} 		     
-	  | POP		    {code[i++] = POP;}	
-	  | ADD		    {code[i++] = ADD;}
-	  | SUB		    {code[i++] = SUB;}
-	  | MULT	    {code[i++] = MULT;}
-	  | DIV		    {code[i++] = DIV;}
-	  | STOREW	  {code[i++] = STOREW;} //
-	  | LOADW           {code[i++] = LOADW;} //
+instruction
+@init { line = _input.LT(1).getLine(); } : 
+        PUSH n=INTEGER   {emit(PUSH); 
+			              emit(Integer.parseInt($n.text));}
+	  | PUSH l=LABEL    {emit(PUSH); 
+	    		             labelRef.put(i,$l.text);
+	    		             emit(0);}
+	  | POP		    {emit(POP);}	
+	  | ADD		    {emit(ADD);}
+	  | SUB		    {emit(SUB);}
+	  | MULT	    {emit(MULT);}
+	  | DIV		    {emit(DIV);}
+	  | STOREW	  {emit(STOREW);} //
+	  | LOADW           {emit(LOADW);} //
 	  | l=LABEL COL     {labelDef.put($l.text,i);}
-	  | BRANCH l=LABEL  {code[i++] = BRANCH;
-                       labelRef.put(i++,$l.text);}
-	  | BRANCHEQ l=LABEL {code[i++] = BRANCHEQ;
-                        labelRef.put(i++,$l.text);}
-	  | BRANCHLESSEQ l=LABEL {code[i++] = BRANCHLESSEQ;
-                          labelRef.put(i++,$l.text);}
-	  | JS              {code[i++] = JS;}		     //
-	  | LOADRA          {code[i++] = LOADRA;}    //
-	  | STORERA         {code[i++] = STORERA;}   //
-	  | LOADTM          {code[i++] = LOADTM;}   
-	  | STORETM         {code[i++] = STORETM;}   
-	  | LOADFP          {code[i++] = LOADFP;}   //
-	  | STOREFP         {code[i++] = STOREFP;}   //
-	  | COPYFP          {code[i++] = COPYFP;}   //
-	  | LOADHP          {code[i++] = LOADHP;}   //
-	  | STOREHP         {code[i++] = STOREHP;}   //
-	  | PRINT           {code[i++] = PRINT;}
-	  | HALT            {code[i++] = HALT;}
+	  | BRANCH l=LABEL  {emit(BRANCH);
+                       labelRef.put(i,$l.text);
+                       emit(0);}
+	  | BRANCHEQ l=LABEL {emit(BRANCHEQ);
+                        labelRef.put(i,$l.text);
+                        emit(0);}
+	  | BRANCHLESSEQ l=LABEL {emit(BRANCHLESSEQ);
+                          labelRef.put(i,$l.text);
+                          emit(0);}
+	  | JS              {emit(JS);}		     //
+	  | LOADRA          {emit(LOADRA);}    //
+	  | STORERA         {emit(STORERA);}   //
+	  | LOADTM          {emit(LOADTM);}   
+	  | STORETM         {emit(STORETM);}   
+	  | LOADFP          {emit(LOADFP);}   //
+	  | STOREFP         {emit(STOREFP);}   //
+	  | COPYFP          {emit(COPYFP);}   //
+	  | LOADHP          {emit(LOADHP);}   //
+	  | STOREHP         {emit(STOREHP);}   //
+	  | PRINT           {emit(PRINT);}
+	  | HALT            {emit(HALT);}
+	  | LOADFPOFF n=INTEGER {emit(LOADFPOFF);
+	                         emit(Integer.parseInt($n.text));}
+	  | LOADAL n=INTEGER    {emit(LOADAL);
+	                         emit(Integer.parseInt($n.text));}
+	  | STOREHPBUMP         {emit(STOREHPBUMP);}
+	  | ADDI n=INTEGER      {emit(ADDI);
+	                         emit(Integer.parseInt($n.text));}
+	  | ALLOC n=INTEGER     {emit(ALLOC);
+	                         emit(Integer.parseInt($n.text));}
+	  | STACKMAP l=LABEL v+=INTEGER+ {stackMapRefs.put($l.text,ints($v));}
+	  | OBJMAP v+=INTEGER+  {int[] m = ints($v);
+	                         objectMaps.put(m[0],Arrays.copyOfRange(m,1,m.length));}
+	  | INC             {emit(INC);}
+	  | DEC             {emit(DEC);}
+	  | BRANCHNOTEQ l=LABEL {emit(BRANCHNOTEQ);
+                         labelRef.put(i,$l.text);
+                         emit(0);}
+	  | BRANCHLESS l=LABEL {emit(BRANCHLESS);
+                        labelRef.put(i,$l.text);
+                        emit(0);}
+	  | BRANCHGREATER l=LABEL {emit(BRANCHGREATER);
+                           labelRef.put(i,$l.text);
+                           emit(0);}
+	  | EQ              {emit(EQ);}
+	  | LESS            {emit(LESS);}
+	  | LESSEQ          {emit(LESSEQ);}
+	  | GREATEREQ       {emit(GREATEREQ);}
+	  | NOT             {emit(NOT);}
+	  | AND             {emit(AND);}
+	  | OR              {emit(OR);}
+	  | CALL n=INTEGER  {emit(CALL);
+	                     emit(Integer.parseInt($n.text));}
+	  | VCALL n=INTEGER {emit(VCALL);
+	                     emit(Integer.parseInt($n.text));}
+	  | ENTER           {emit(ENTER);}
+	  | RET n=INTEGER   {emit(RET);
+	                     emit(Integer.parseInt($n.text));}
+	  | LOADABS n=INTEGER {emit(LOADABS);
+	                       emit(Integer.parseInt($n.text));}
 	  ;
 	  
 /*------------------------------------------------------------------
@@ -83,6 +155,42 @@ LOADHP	 : 'lhp' ;
 STOREHP	 : 'shp' ;	
 PRINT	 : 'print' ;	
 HALT	 : 'halt' ;	
+
+// superistruzioni (sequenze frequenti del codice generato fuse in una sola istruzione)
+LOADFPOFF   : 'lwfp' ;  // lfp; push n; add; lw
+LOADAL      : 'lal' ;   // lfp; lw (n volte)
+STOREHPBUMP : 'swhp' ;  // lhp; sw; lhp; push 1; add; shp
+ADDI        : 'addi' ;  // push n; add
+
+// gestione della memoria
+ALLOC       : 'alloc' ;    // garantisce n celle libere in heap (eventualmente con una garbage collection)
+STACKMAP    : 'stackmap' ; // direttiva: mappa dei riferimenti del frame all'indirizzo della label
+OBJMAP      : 'objmap' ;   // direttiva: layout degli oggetti con un certo dispatch pointer
+INC         : 'inc' ;      // incrementa il contatore dei riferimenti dell'oggetto in cima allo stack
+DEC         : 'dec' ;      // lo decrementa, liberando l'oggetto se arriva a zero
+
+// salti condizionati complementari di beq e bleq (v2 e' il secondo elemento, v1 la cima)
+BRANCHNOTEQ   : 'bneq' ;   // salta se v2 != v1
+BRANCHLESS    : 'blt' ;    // salta se v2 < v1
+BRANCHGREATER : 'bgt' ;    // salta se v2 > v1
+
+// confronti e operatori booleani senza salti: tolgono v1 e v2 e mettono 1 o 0
+EQ          : 'eq' ;       // v2 == v1
+LESS        : 'lt' ;       // v2 < v1
+LESSEQ      : 'le' ;       // v2 <= v1
+GREATEREQ   : 'ge' ;       // v2 >= v1
+NOT         : 'not' ;      // toglie solo v1: v1 == 0
+AND         : 'and' ;      // v2 != 0 && v1 != 0 (entrambi gia' valutati)
+OR          : 'or' ;       // v2 != 0 || v1 != 0
+
+// convenzione di chiamata (stesso layout del frame delle sequenze che sostituiscono)
+CALL        : 'call' ;     // chiama la funzione all'offset n dall'access link in cima (stm; ltm; ltm; push n; add; lw; js)
+VCALL       : 'vcall' ;    // chiama il metodo all'offset n della dispatch table dell'oggetto in cima (stm; ltm; ltm; lw; push n; add; lw; js)
+ENTER       : 'enter' ;    // ingresso: fp = sp e push dell'indirizzo di ritorno (cfp; lra)
+RET         : 'ret' ;      // uscita da un frame con n parametri, lasciando il risultato in cima (stm; pop*; sra; pop; pop*n; sfp; ltm; lra; js)
+
+// lettura di un indirizzo costante (variabili globali, display)
+LOADABS     : 'lwa' ;      // push n; lw
  
 COL	 : ':' ;
 LABEL	 : ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
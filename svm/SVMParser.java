@@ -23,7 +23,11 @@ public class SVMParser extends Parser {
 		PUSH=1, POP=2, ADD=3, SUB=4, MULT=5, DIV=6, STOREW=7, LOADW=8, BRANCH=9, 
 		BRANCHEQ=10, BRANCHLESSEQ=11, JS=12, LOADRA=13, STORERA=14, LOADTM=15, 
 		STORETM=16, LOADFP=17, STOREFP=18, COPYFP=19, LOADHP=20, STOREHP=21, PRINT=22, 
-		HALT=23, COL=24, LABEL=25, INTEGER=26, COMMENT=27, WHITESP=28, ERR=29;
+		HALT=23, LOADFPOFF=24, LOADAL=25, STOREHPBUMP=26, ADDI=27, ALLOC=28, STACKMAP=29, 
+		OBJMAP=30, INC=31, DEC=32, BRANCHNOTEQ=33, BRANCHLESS=34, BRANCHGREATER=35, 
+		EQ=36, LESS=37, LESSEQ=38, GREATEREQ=39, NOT=40, AND=41, OR=42, CALL=43, 
+		VCALL=44, ENTER=45, RET=46, LOADABS=47, COL=48, LABEL=49, INTEGER=50, 
+		COMMENT=51, WHITESP=52, ERR=53;
 	public static final int
 		RULE_assembly = 0, RULE_instruction = 1;
 	private static String[] makeRuleNames() {
@@ -38,7 +42,10 @@ public class SVMParser extends Parser {
 			null, "'push'", "'pop'", "'add'", "'sub'", "'mult'", "'div'", "'sw'", 
 			"'lw'", "'b'", "'beq'", "'bleq'", "'js'", "'lra'", "'sra'", "'ltm'", 
 			"'stm'", "'lfp'", "'sfp'", "'cfp'", "'lhp'", "'shp'", "'print'", "'halt'", 
-			"':'"
+			"'lwfp'", "'lal'", "'swhp'", "'addi'", "'alloc'", "'stackmap'", "'objmap'", 
+			"'inc'", "'dec'", "'bneq'", "'blt'", "'bgt'", "'eq'", "'lt'", "'le'", 
+			"'ge'", "'not'", "'and'", "'or'", "'call'", "'vcall'", "'enter'", "'ret'", 
+			"'lwa'", "':'"
 		};
 	}
 	private static final String[] _LITERAL_NAMES = makeLiteralNames();
@@ -47,7 +54,11 @@ public class SVMParser extends Parser {
 			null, "PUSH", "POP", "ADD", "SUB", "MULT", "DIV", "STOREW", "LOADW", 
 			"BRANCH", "BRANCHEQ", "BRANCHLESSEQ", "JS", "LOADRA", "STORERA", "LOADTM", 
 			"STORETM", "LOADFP", "STOREFP", "COPYFP", "LOADHP", "STOREHP", "PRINT", 
-			"HALT", "COL", "LABEL", "INTEGER", "COMMENT", "WHITESP", "ERR"
+			"HALT", "LOADFPOFF", "LOADAL", "STOREHPBUMP", "ADDI", "ALLOC", "STACKMAP", 
+			"OBJMAP", "INC", "DEC", "BRANCHNOTEQ", "BRANCHLESS", "BRANCHGREATER", 
+			"EQ", "LESS", "LESSEQ", "GREATEREQ", "NOT", "AND", "OR", "CALL", "VCALL", 
+			"ENTER", "RET", "LOADABS", "COL", "LABEL", "INTEGER", "COMMENT", "WHITESP", 
+			"ERR"
 		};
 	}
 	private static final String[] _SYMBOLIC_NAMES = makeSymbolicNames();
@@ -97,11 +108,35 @@ public class SVMParser extends Parser {
 	public ATN getATN() { return _ATN; }
 
 	 
-	public int[] code = new int[ExecuteVM.CODESIZE];    
+	public int[] code = new int[1024]; // dimensionato al programma al termine di assembly
+	public int[] lines = new int[1024]; // riga del sorgente .asm dell'istruzione di ogni parola di code
 	private int i = 0;
-	private Map<String,Integer> labelDef = new HashMap<>();
+	private int line;
+	public Map<String,Integer> labelDef = new HashMap<>();
 	private Map<Integer,String> labelRef = new HashMap<>();
 
+	// mappe per il garbage collector (vedi GarbageCollector), emesse dal compilatore:
+	// indirizzo di ritorno -> {parametri del frame, offset da fp degli slot riferimento}
+	public Map<Integer,int[]> stackMaps = new HashMap<>();
+	// dispatch pointer -> {dimensione dispatch table, numero campi, offset dei campi riferimento}
+	public Map<Integer,int[]> objectMaps = new HashMap<>();
+	private Map<String,int[]> stackMapRefs = new HashMap<>();
+
+	private void emit(int word) {
+	  if (i == code.length) {
+	    code = Arrays.copyOf(code, 2 * i);
+	    lines = Arrays.copyOf(lines, 2 * i);
+	  }
+	  lines[i] = line;
+	  code[i++] = word;
+	}
+
+	private static int[] ints(List<Token> tokens) {
+	  int[] v = new int[tokens.size()];
+	  for (int k = 0; k < v.length; k++) v[k] = Integer.parseInt(tokens.get(k).getText());
+	  return v;
+	}
+
 	public SVMParser(TokenStream input) {
 		super(input);
 		_interp = new ParserATNSimulator(this,_ATN,_decisionToDFA,_sharedContextCache);
@@ -137,7 +172,7 @@ public class SVMParser extends Parser {
 			setState(7);
 			_errHandler.sync(this);
 			_la = _input.LA(1);
-			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & 50331646L) != 0)) {
+			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & 844424930131966L) != 0)) {
 				{
 				{
 				setState(4);
@@ -152,6 +187,10 @@ public class SVMParser extends Parser {
 			match(EOF);
 			 for (Integer j: labelRef.keySet()) 
 											code[j]=labelDef.get(labelRef.get(j)); 
+										  for (String l: stackMapRefs.keySet())
+											stackMaps.put(labelDef.get(l),stackMapRefs.get(l));
+										  code = Arrays.copyOf(code, i);
+										  lines = Arrays.copyOf(lines, i);
 										
 			}
 		}
@@ -170,8 +209,13 @@ public class SVMParser extends Parser {
 	public static class InstructionContext extends ParserRuleContext {
 		public Token n;
 		public Token l;
+		public Token INTEGER;
+		public List<Token> v = new ArrayList<Token>();
 		public TerminalNode PUSH() { return getToken(SVMParser.PUSH, 0); }
-		public TerminalNode INTEGER() { return getToken(SVMParser.INTEGER, 0); }
+		public List<TerminalNode> INTEGER() { return getTokens(SVMParser.INTEGER); }
+		public TerminalNode INTEGER(int i) {
+			return getToken(SVMParser.INTEGER, i);
+		}
 		public TerminalNode LABEL() { return getToken(SVMParser.LABEL, 0); }
 		public TerminalNode POP() { return getToken(SVMParser.POP, 0); }
 		public TerminalNode ADD() { return getToken(SVMParser.ADD, 0); }
@@ -196,6 +240,30 @@ public class SVMParser extends Parser {
 		public TerminalNode STOREHP() { return getToken(SVMParser.STOREHP, 0); }
 		public TerminalNode PRINT() { return getToken(SVMParser.PRINT, 0); }
 		public TerminalNode HALT() { return getToken(SVMParser.HALT, 0); }
+		public TerminalNode LOADFPOFF() { return getToken(SVMParser.LOADFPOFF, 0); }
+		public TerminalNode LOADAL() { return getToken(SVMParser.LOADAL, 0); }
+		public TerminalNode STOREHPBUMP() { return getToken(SVMParser.STOREHPBUMP, 0); }
+		public TerminalNode ADDI() { return getToken(SVMParser.ADDI, 0); }
+		public TerminalNode ALLOC() { return getToken(SVMParser.ALLOC, 0); }
+		public TerminalNode STACKMAP() { return getToken(SVMParser.STACKMAP, 0); }
+		public TerminalNode OBJMAP() { return getToken(SVMParser.OBJMAP, 0); }
+		public TerminalNode INC() { return getToken(SVMParser.INC, 0); }
+		public TerminalNode DEC() { return getToken(SVMParser.DEC, 0); }
+		public TerminalNode BRANCHNOTEQ() { return getToken(SVMParser.BRANCHNOTEQ, 0); }
+		public TerminalNode BRANCHLESS() { return getToken(SVMParser.BRANCHLESS, 0); }
+		public TerminalNode BRANCHGREATER() { return getToken(SVMParser.BRANCHGREATER, 0); }
+		public TerminalNode EQ() { return getToken(SVMParser.EQ, 0); }
+		public TerminalNode LESS() { return getToken(SVMParser.LESS, 0); }
+		public TerminalNode LESSEQ() { return getToken(SVMParser.LESSEQ, 0); }
+		public TerminalNode GREATEREQ() { return getToken(SVMParser.GREATEREQ, 0); }
+		public TerminalNode NOT() { return getToken(SVMParser.NOT, 0); }
+		public TerminalNode AND() { return getToken(SVMParser.AND, 0); }
+		public TerminalNode OR() { return getToken(SVMParser.OR, 0); }
+		public TerminalNode CALL() { return getToken(SVMParser.CALL, 0); }
+		public TerminalNode VCALL() { return getToken(SVMParser.VCALL, 0); }
+		public TerminalNode ENTER() { return getToken(SVMParser.ENTER, 0); }
+		public TerminalNode RET() { return getToken(SVMParser.RET, 0); }
+		public TerminalNode LOADABS() { return getToken(SVMParser.LOADABS, 0); }
 		public InstructionContext(ParserRuleContext parent, int invokingState) {
 			super(parent, invokingState);
 		}
@@ -210,10 +278,12 @@ public class SVMParser extends Parser {
 	public final InstructionContext instruction() throws RecognitionException {
 		InstructionContext _localctx = new InstructionContext(_ctx, getState());
 		enterRule(_localctx, 2, RULE_instruction);
+		 line = _input.LT(1).getLine(); 
+		int _la;
 		try {
-			setState(69);
+			setState(139);
 			_errHandler.sync(this);
-			switch ( getInterpreter().adaptivePredict(_input,1,_ctx) ) {
+			switch ( getInterpreter().adaptivePredict(_input,3,_ctx) ) {
 			case 1:
 				enterOuterAlt(_localctx, 1);
 				{
@@ -221,8 +291,8 @@ public class SVMParser extends Parser {
 				match(PUSH);
 				setState(14);
 				((InstructionContext)_localctx).n = match(INTEGER);
-				code[i++] = PUSH; 
-							              code[i++] = Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null));
+				emit(PUSH); 
+							              emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
 				}
 				break;
 			case 2:
@@ -232,8 +302,9 @@ public class SVMParser extends Parser {
 				match(PUSH);
 				setState(17);
 				((InstructionContext)_localctx).l = match(LABEL);
-				code[i++] = PUSH; 
-					    		             labelRef.put(i++,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				emit(PUSH); 
+					    		             labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+					    		             emit(0);
 				}
 				break;
 			case 3:
@@ -241,7 +312,7 @@ public class SVMParser extends Parser {
 				{
 				setState(19);
 				match(POP);
-				code[i++] = POP;
+				emit(POP);
 				}
 				break;
 			case 4:
@@ -249,7 +320,7 @@ public class SVMParser extends Parser {
 				{
 				setState(21);
 				match(ADD);
-				code[i++] = ADD;
+				emit(ADD);
 				}
 				break;
 			case 5:
@@ -257,7 +328,7 @@ public class SVMParser extends Parser {
 				{
 				setState(23);
 				match(SUB);
-				code[i++] = SUB;
+				emit(SUB);
 				}
 				break;
 			case 6:
@@ -265,7 +336,7 @@ public class SVMParser extends Parser {
 				{
 				setState(25);
 				match(MULT);
-				code[i++] = MULT;
+				emit(MULT);
 				}
 				break;
 			case 7:
@@ -273,7 +344,7 @@ public class SVMParser extends Parser {
 				{
 				setState(27);
 				match(DIV);
-				code[i++] = DIV;
+				emit(DIV);
 				}
 				break;
 			case 8:
@@ -281,7 +352,7 @@ public class SVMParser extends Parser {
 				{
 				setState(29);
 				match(STOREW);
-				code[i++] = STOREW;
+				emit(STOREW);
 				}
 				break;
 			case 9:
@@ -289,7 +360,7 @@ public class SVMParser extends Parser {
 				{
 				setState(31);
 				match(LOADW);
-				code[i++] = LOADW;
+				emit(LOADW);
 				}
 				break;
 			case 10:
@@ -309,8 +380,9 @@ public class SVMParser extends Parser {
 				match(BRANCH);
 				setState(37);
 				((InstructionContext)_localctx).l = match(LABEL);
-				code[i++] = BRANCH;
-				                       labelRef.put(i++,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				emit(BRANCH);
+				                       labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                       emit(0);
 				}
 				break;
 			case 12:
@@ -320,8 +392,9 @@ public class SVMParser extends Parser {
 				match(BRANCHEQ);
 				setState(40);
 				((InstructionContext)_localctx).l = match(LABEL);
-				code[i++] = BRANCHEQ;
-				                        labelRef.put(i++,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				emit(BRANCHEQ);
+				                        labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                        emit(0);
 				}
 				break;
 			case 13:
@@ -331,8 +404,9 @@ public class SVMParser extends Parser {
 				match(BRANCHLESSEQ);
 				setState(43);
 				((InstructionContext)_localctx).l = match(LABEL);
-				code[i++] = BRANCHLESSEQ;
-				                          labelRef.put(i++,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				emit(BRANCHLESSEQ);
+				                          labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                          emit(0);
 				}
 				break;
 			case 14:
@@ -340,7 +414,7 @@ public class SVMParser extends Parser {
 				{
 				setState(45);
 				match(JS);
-				code[i++] = JS;
+				emit(JS);
 				}
 				break;
 			case 15:
@@ -348,7 +422,7 @@ public class SVMParser extends Parser {
 				{
 				setState(47);
 				match(LOADRA);
-				code[i++] = LOADRA;
+				emit(LOADRA);
 				}
 				break;
 			case 16:
@@ -356,7 +430,7 @@ public class SVMParser extends Parser {
 				{
 				setState(49);
 				match(STORERA);
-				code[i++] = STORERA;
+				emit(STORERA);
 				}
 				break;
 			case 17:
@@ -364,7 +438,7 @@ public class SVMParser extends Parser {
 				{
 				setState(51);
 				match(LOADTM);
-				code[i++] = LOADTM;
+				emit(LOADTM);
 				}
 				break;
 			case 18:
@@ -372,7 +446,7 @@ public class SVMParser extends Parser {
 				{
 				setState(53);
 				match(STORETM);
-				code[i++] = STORETM;
+				emit(STORETM);
 				}
 				break;
 			case 19:
@@ -380,7 +454,7 @@ public class SVMParser extends Parser {
 				{
 				setState(55);
 				match(LOADFP);
-				code[i++] = LOADFP;
+				emit(LOADFP);
 				}
 				break;
 			case 20:
@@ -388,7 +462,7 @@ public class SVMParser extends Parser {
 				{
 				setState(57);
 				match(STOREFP);
-				code[i++] = STOREFP;
+				emit(STOREFP);
 				}
 				break;
 			case 21:
@@ -396,7 +470,7 @@ public class SVMParser extends Parser {
 				{
 				setState(59);
 				match(COPYFP);
-				code[i++] = COPYFP;
+				emit(COPYFP);
 				}
 				break;
 			case 22:
@@ -404,7 +478,7 @@ public class SVMParser extends Parser {
 				{
 				setState(61);
 				match(LOADHP);
-				code[i++] = LOADHP;
+				emit(LOADHP);
 				}
 				break;
 			case 23:
@@ -412,7 +486,7 @@ public class SVMParser extends Parser {
 				{
 				setState(63);
 				match(STOREHP);
-				code[i++] = STOREHP;
+				emit(STOREHP);
 				}
 				break;
 			case 24:
@@ -420,7 +494,7 @@ public class SVMParser extends Parser {
 				{
 				setState(65);
 				match(PRINT);
-				code[i++] = PRINT;
+				emit(PRINT);
 				}
 				break;
 			case 25:
@@ -428,7 +502,268 @@ public class SVMParser extends Parser {
 				{
 				setState(67);
 				match(HALT);
-				code[i++] = HALT;
+				emit(HALT);
+				}
+				break;
+			case 26:
+				enterOuterAlt(_localctx, 26);
+				{
+				setState(69);
+				match(LOADFPOFF);
+				setState(70);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(LOADFPOFF);
+					                         emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 27:
+				enterOuterAlt(_localctx, 27);
+				{
+				setState(72);
+				match(LOADAL);
+				setState(73);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(LOADAL);
+					                         emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 28:
+				enterOuterAlt(_localctx, 28);
+				{
+				setState(75);
+				match(STOREHPBUMP);
+				emit(STOREHPBUMP);
+				}
+				break;
+			case 29:
+				enterOuterAlt(_localctx, 29);
+				{
+				setState(77);
+				match(ADDI);
+				setState(78);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(ADDI);
+					                         emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 30:
+				enterOuterAlt(_localctx, 30);
+				{
+				setState(80);
+				match(ALLOC);
+				setState(81);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(ALLOC);
+					                         emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 31:
+				enterOuterAlt(_localctx, 31);
+				{
+				setState(83);
+				match(STACKMAP);
+				setState(84);
+				((InstructionContext)_localctx).l = match(LABEL);
+				setState(86); 
+				_errHandler.sync(this);
+				_la = _input.LA(1);
+				do {
+					{
+					{
+					setState(85);
+					((InstructionContext)_localctx).INTEGER = match(INTEGER);
+					((InstructionContext)_localctx).v.add(((InstructionContext)_localctx).INTEGER);
+					}
+					}
+					setState(88); 
+					_errHandler.sync(this);
+					_la = _input.LA(1);
+				} while ( _la==INTEGER );
+				stackMapRefs.put((((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null),ints(((InstructionContext)_localctx).v));
+				}
+				break;
+			case 32:
+				enterOuterAlt(_localctx, 32);
+				{
+				setState(91);
+				match(OBJMAP);
+				setState(93); 
+				_errHandler.sync(this);
+				_la = _input.LA(1);
+				do {
+					{
+					{
+					setState(92);
+					((InstructionContext)_localctx).INTEGER = match(INTEGER);
+					((InstructionContext)_localctx).v.add(((InstructionContext)_localctx).INTEGER);
+					}
+					}
+					setState(95); 
+					_errHandler.sync(this);
+					_la = _input.LA(1);
+				} while ( _la==INTEGER );
+				int[] m = ints(((InstructionContext)_localctx).v);
+					                         objectMaps.put(m[0],Arrays.copyOfRange(m,1,m.length));
+				}
+				break;
+			case 33:
+				enterOuterAlt(_localctx, 33);
+				{
+				setState(98);
+				match(INC);
+				emit(INC);
+				}
+				break;
+			case 34:
+				enterOuterAlt(_localctx, 34);
+				{
+				setState(100);
+				match(DEC);
+				emit(DEC);
+				}
+				break;
+			case 35:
+				enterOuterAlt(_localctx, 35);
+				{
+				setState(102);
+				match(BRANCHNOTEQ);
+				setState(103);
+				((InstructionContext)_localctx).l = match(LABEL);
+				emit(BRANCHNOTEQ);
+				                         labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                         emit(0);
+				}
+				break;
+			case 36:
+				enterOuterAlt(_localctx, 36);
+				{
+				setState(105);
+				match(BRANCHLESS);
+				setState(106);
+				((InstructionContext)_localctx).l = match(LABEL);
+				emit(BRANCHLESS);
+				                        labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                        emit(0);
+				}
+				break;
+			case 37:
+				enterOuterAlt(_localctx, 37);
+				{
+				setState(108);
+				match(BRANCHGREATER);
+				setState(109);
+				((InstructionContext)_localctx).l = match(LABEL);
+				emit(BRANCHGREATER);
+				                           labelRef.put(i,(((InstructionContext)_localctx).l!=null?((InstructionContext)_localctx).l.getText():null));
+				                           emit(0);
+				}
+				break;
+			case 38:
+				enterOuterAlt(_localctx, 38);
+				{
+				setState(111);
+				match(EQ);
+				emit(EQ);
+				}
+				break;
+			case 39:
+				enterOuterAlt(_localctx, 39);
+				{
+				setState(113);
+				match(LESS);
+				emit(LESS);
+				}
+				break;
+			case 40:
+				enterOuterAlt(_localctx, 40);
+				{
+				setState(115);
+				match(LESSEQ);
+				emit(LESSEQ);
+				}
+				break;
+			case 41:
+				enterOuterAlt(_localctx, 41);
+				{
+				setState(117);
+				match(GREATEREQ);
+				emit(GREATEREQ);
+				}
+				break;
+			case 42:
+				enterOuterAlt(_localctx, 42);
+				{
+				setState(119);
+				match(NOT);
+				emit(NOT);
+				}
+				break;
+			case 43:
+				enterOuterAlt(_localctx, 43);
+				{
+				setState(121);
+				match(AND);
+				emit(AND);
+				}
+				break;
+			case 44:
+				enterOuterAlt(_localctx, 44);
+				{
+				setState(123);
+				match(OR);
+				emit(OR);
+				}
+				break;
+			case 45:
+				enterOuterAlt(_localctx, 45);
+				{
+				setState(125);
+				match(CALL);
+				setState(126);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(CALL);
+					                     emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 46:
+				enterOuterAlt(_localctx, 46);
+				{
+				setState(128);
+				match(VCALL);
+				setState(129);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(VCALL);
+					                     emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 47:
+				enterOuterAlt(_localctx, 47);
+				{
+				setState(131);
+				match(ENTER);
+				emit(ENTER);
+				}
+				break;
+			case 48:
+				enterOuterAlt(_localctx, 48);
+				{
+				setState(133);
+				match(RET);
+				setState(134);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(RET);
+					                     emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
+				}
+				break;
+			case 49:
+				enterOuterAlt(_localctx, 49);
+				{
+				setState(136);
+				match(LOADABS);
+				setState(137);
+				((InstructionContext)_localctx).n = match(INTEGER);
+				emit(LOADABS);
+					                       emit(Integer.parseInt((((InstructionContext)_localctx).n!=null?((InstructionContext)_localctx).n.getText():null)));
 				}
 				break;
 			}
@@ -445,7 +780,7 @@ public class SVMParser extends Parser {
 	}
 
 	public static final String _serializedATN =
-		"\u0004\u0001\u001dH\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0001"+
+		"\u0004\u00015\u008e\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0001"+
 		"\u0000\u0005\u0000\u0006\b\u0000\n\u0000\f\u0000\t\t\u0000\u0001\u0000"+
 		"\u0001\u0000\u0001\u0000\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
@@ -456,48 +791,103 @@ public class SVMParser extends Parser {
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
 		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
-		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0003\u0001F\b\u0001"+
-		"\u0001\u0001\u0000\u0000\u0002\u0000\u0002\u0000\u0000^\u0000\u0007\u0001"+
-		"\u0000\u0000\u0000\u0002E\u0001\u0000\u0000\u0000\u0004\u0006\u0003\u0002"+
-		"\u0001\u0000\u0005\u0004\u0001\u0000\u0000\u0000\u0006\t\u0001\u0000\u0000"+
-		"\u0000\u0007\u0005\u0001\u0000\u0000\u0000\u0007\b\u0001\u0000\u0000\u0000"+
-		"\b\n\u0001\u0000\u0000\u0000\t\u0007\u0001\u0000\u0000\u0000\n\u000b\u0005"+
-		"\u0000\u0000\u0001\u000b\f\u0006\u0000\uffff\uffff\u0000\f\u0001\u0001"+
-		"\u0000\u0000\u0000\r\u000e\u0005\u0001\u0000\u0000\u000e\u000f\u0005\u001a"+
-		"\u0000\u0000\u000fF\u0006\u0001\uffff\uffff\u0000\u0010\u0011\u0005\u0001"+
-		"\u0000\u0000\u0011\u0012\u0005\u0019\u0000\u0000\u0012F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0013\u0014\u0005\u0002\u0000\u0000\u0014F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0015\u0016\u0005\u0003\u0000\u0000\u0016F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0017\u0018\u0005\u0004\u0000\u0000\u0018F\u0006\u0001\uffff"+
-		"\uffff\u0000\u0019\u001a\u0005\u0005\u0000\u0000\u001aF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001b\u001c\u0005\u0006\u0000\u0000\u001cF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001d\u001e\u0005\u0007\u0000\u0000\u001eF\u0006\u0001\uffff"+
-		"\uffff\u0000\u001f \u0005\b\u0000\u0000 F\u0006\u0001\uffff\uffff\u0000"+
-		"!\"\u0005\u0019\u0000\u0000\"#\u0005\u0018\u0000\u0000#F\u0006\u0001\uffff"+
-		"\uffff\u0000$%\u0005\t\u0000\u0000%&\u0005\u0019\u0000\u0000&F\u0006\u0001"+
-		"\uffff\uffff\u0000\'(\u0005\n\u0000\u0000()\u0005\u0019\u0000\u0000)F"+
-		"\u0006\u0001\uffff\uffff\u0000*+\u0005\u000b\u0000\u0000+,\u0005\u0019"+
-		"\u0000\u0000,F\u0006\u0001\uffff\uffff\u0000-.\u0005\f\u0000\u0000.F\u0006"+
-		"\u0001\uffff\uffff\u0000/0\u0005\r\u0000\u00000F\u0006\u0001\uffff\uffff"+
-		"\u000012\u0005\u000e\u0000\u00002F\u0006\u0001\uffff\uffff\u000034\u0005"+
-		"\u000f\u0000\u00004F\u0006\u0001\uffff\uffff\u000056\u0005\u0010\u0000"+
-		"\u00006F\u0006\u0001\uffff\uffff\u000078\u0005\u0011\u0000\u00008F\u0006"+
-		"\u0001\uffff\uffff\u00009:\u0005\u0012\u0000\u0000:F\u0006\u0001\uffff"+
-		"\uffff\u0000;<\u0005\u0013\u0000\u0000<F\u0006\u0001\uffff\uffff\u0000"+
-		"=>\u0005\u0014\u0000\u0000>F\u0006\u0001\uffff\uffff\u0000?@\u0005\u0015"+
-		"\u0000\u0000@F\u0006\u0001\uffff\uffff\u0000AB\u0005\u0016\u0000\u0000"+
-		"BF\u0006\u0001\uffff\uffff\u0000CD\u0005\u0017\u0000\u0000DF\u0006\u0001"+
-		"\uffff\uffff\u0000E\r\u0001\u0000\u0000\u0000E\u0010\u0001\u0000\u0000"+
-		"\u0000E\u0013\u0001\u0000\u0000\u0000E\u0015\u0001\u0000\u0000\u0000E"+
-		"\u0017\u0001\u0000\u0000\u0000E\u0019\u0001\u0000\u0000\u0000E\u001b\u0001"+
-		"\u0000\u0000\u0000E\u001d\u0001\u0000\u0000\u0000E\u001f\u0001\u0000\u0000"+
-		"\u0000E!\u0001\u0000\u0000\u0000E$\u0001\u0000\u0000\u0000E\'\u0001\u0000"+
-		"\u0000\u0000E*\u0001\u0000\u0000\u0000E-\u0001\u0000\u0000\u0000E/\u0001"+
-		"\u0000\u0000\u0000E1\u0001\u0000\u0000\u0000E3\u0001\u0000\u0000\u0000"+
-		"E5\u0001\u0000\u0000\u0000E7\u0001\u0000\u0000\u0000E9\u0001\u0000\u0000"+
-		"\u0000E;\u0001\u0000\u0000\u0000E=\u0001\u0000\u0000\u0000E?\u0001\u0000"+
-		"\u0000\u0000EA\u0001\u0000\u0000\u0000EC\u0001\u0000\u0000\u0000F\u0003"+
-		"\u0001\u0000\u0000\u0000\u0002\u0007E";
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0004\u0001W\b\u0001\u000b\u0001"+
+		"\f\u0001X\u0001\u0001\u0001\u0001\u0001\u0001\u0004\u0001^\b\u0001\u000b"+
+		"\u0001\f\u0001_\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0003\u0001\u008c\b\u0001\u0001\u0001\u0000\u0000\u0002"+
+		"\u0000\u0002\u0000\u0000\u00be\u0000\u0007\u0001\u0000\u0000\u0000\u0002"+
+		"\u008b\u0001\u0000\u0000\u0000\u0004\u0006\u0003\u0002\u0001\u0000\u0005"+
+		"\u0004\u0001\u0000\u0000\u0000\u0006\t\u0001\u0000\u0000\u0000\u0007\u0005"+
+		"\u0001\u0000\u0000\u0000\u0007\b\u0001\u0000\u0000\u0000\b\n\u0001\u0000"+
+		"\u0000\u0000\t\u0007\u0001\u0000\u0000\u0000\n\u000b\u0005\u0000\u0000"+
+		"\u0001\u000b\f\u0006\u0000\uffff\uffff\u0000\f\u0001\u0001\u0000\u0000"+
+		"\u0000\r\u000e\u0005\u0001\u0000\u0000\u000e\u000f\u00052\u0000\u0000"+
+		"\u000f\u008c\u0006\u0001\uffff\uffff\u0000\u0010\u0011\u0005\u0001\u0000"+
+		"\u0000\u0011\u0012\u00051\u0000\u0000\u0012\u008c\u0006\u0001\uffff\uffff"+
+		"\u0000\u0013\u0014\u0005\u0002\u0000\u0000\u0014\u008c\u0006\u0001\uffff"+
+		"\uffff\u0000\u0015\u0016\u0005\u0003\u0000\u0000\u0016\u008c\u0006\u0001"+
+		"\uffff\uffff\u0000\u0017\u0018\u0005\u0004\u0000\u0000\u0018\u008c\u0006"+
+		"\u0001\uffff\uffff\u0000\u0019\u001a\u0005\u0005\u0000\u0000\u001a\u008c"+
+		"\u0006\u0001\uffff\uffff\u0000\u001b\u001c\u0005\u0006\u0000\u0000\u001c"+
+		"\u008c\u0006\u0001\uffff\uffff\u0000\u001d\u001e\u0005\u0007\u0000\u0000"+
+		"\u001e\u008c\u0006\u0001\uffff\uffff\u0000\u001f \u0005\b\u0000\u0000"+
+		" \u008c\u0006\u0001\uffff\uffff\u0000!\"\u00051\u0000\u0000\"#\u00050"+
+		"\u0000\u0000#\u008c\u0006\u0001\uffff\uffff\u0000$%\u0005\t\u0000\u0000"+
+		"%&\u00051\u0000\u0000&\u008c\u0006\u0001\uffff\uffff\u0000\'(\u0005\n"+
+		"\u0000\u0000()\u00051\u0000\u0000)\u008c\u0006\u0001\uffff\uffff\u0000"+
+		"*+\u0005\u000b\u0000\u0000+,\u00051\u0000\u0000,\u008c\u0006\u0001\uffff"+
+		"\uffff\u0000-.\u0005\f\u0000\u0000.\u008c\u0006\u0001\uffff\uffff\u0000"+
+		"/0\u0005\r\u0000\u00000\u008c\u0006\u0001\uffff\uffff\u000012\u0005\u000e"+
+		"\u0000\u00002\u008c\u0006\u0001\uffff\uffff\u000034\u0005\u000f\u0000"+
+		"\u00004\u008c\u0006\u0001\uffff\uffff\u000056\u0005\u0010\u0000\u0000"+
+		"6\u008c\u0006\u0001\uffff\uffff\u000078\u0005\u0011\u0000\u00008\u008c"+
+		"\u0006\u0001\uffff\uffff\u00009:\u0005\u0012\u0000\u0000:\u008c\u0006"+
+		"\u0001\uffff\uffff\u0000;<\u0005\u0013\u0000\u0000<\u008c\u0006\u0001"+
+		"\uffff\uffff\u0000=>\u0005\u0014\u0000\u0000>\u008c\u0006\u0001\uffff"+
+		"\uffff\u0000?@\u0005\u0015\u0000\u0000@\u008c\u0006\u0001\uffff\uffff"+
+		"\u0000AB\u0005\u0016\u0000\u0000B\u008c\u0006\u0001\uffff\uffff\u0000"+
+		"CD\u0005\u0017\u0000\u0000D\u008c\u0006\u0001\uffff\uffff\u0000EF\u0005"+
+		"\u0018\u0000\u0000FG\u00052\u0000\u0000G\u008c\u0006\u0001\uffff\uffff"+
+		"\u0000HI\u0005\u0019\u0000\u0000IJ\u00052\u0000\u0000J\u008c\u0006\u0001"+
+		"\uffff\uffff\u0000KL\u0005\u001a\u0000\u0000L\u008c\u0006\u0001\uffff"+
+		"\uffff\u0000MN\u0005\u001b\u0000\u0000NO\u00052\u0000\u0000O\u008c\u0006"+
+		"\u0001\uffff\uffff\u0000PQ\u0005\u001c\u0000\u0000QR\u00052\u0000\u0000"+
+		"R\u008c\u0006\u0001\uffff\uffff\u0000ST\u0005\u001d\u0000\u0000TV\u0005"+
+		"1\u0000\u0000UW\u00052\u0000\u0000VU\u0001\u0000\u0000\u0000WX\u0001\u0000"+
+		"\u0000\u0000XV\u0001\u0000\u0000\u0000XY\u0001\u0000\u0000\u0000YZ\u0001"+
+		"\u0000\u0000\u0000Z\u008c\u0006\u0001\uffff\uffff\u0000[]\u0005\u001e"+
+		"\u0000\u0000\\^\u00052\u0000\u0000]\\\u0001\u0000\u0000\u0000^_\u0001"+
+		"\u0000\u0000\u0000_]\u0001\u0000\u0000\u0000_`\u0001\u0000\u0000\u0000"+
+		"`a\u0001\u0000\u0000\u0000a\u008c\u0006\u0001\uffff\uffff\u0000bc\u0005"+
+		"\u001f\u0000\u0000c\u008c\u0006\u0001\uffff\uffff\u0000de\u0005 \u0000"+
+		"\u0000e\u008c\u0006\u0001\uffff\uffff\u0000fg\u0005!\u0000\u0000gh\u0005"+
+		"1\u0000\u0000h\u008c\u0006\u0001\uffff\uffff\u0000ij\u0005\"\u0000\u0000"+
+		"jk\u00051\u0000\u0000k\u008c\u0006\u0001\uffff\uffff\u0000lm\u0005#\u0000"+
+		"\u0000mn\u00051\u0000\u0000n\u008c\u0006\u0001\uffff\uffff\u0000op\u0005"+
+		"$\u0000\u0000p\u008c\u0006\u0001\uffff\uffff\u0000qr\u0005%\u0000\u0000"+
+		"r\u008c\u0006\u0001\uffff\uffff\u0000st\u0005&\u0000\u0000t\u008c\u0006"+
+		"\u0001\uffff\uffff\u0000uv\u0005\'\u0000\u0000v\u008c\u0006\u0001\uffff"+
+		"\uffff\u0000wx\u0005(\u0000\u0000x\u008c\u0006\u0001\uffff\uffff\u0000"+
+		"yz\u0005)\u0000\u0000z\u008c\u0006\u0001\uffff\uffff\u0000{|\u0005*\u0000"+
+		"\u0000|\u008c\u0006\u0001\uffff\uffff\u0000}~\u0005+\u0000\u0000~\u007f"+
+		"\u00052\u0000\u0000\u007f\u008c\u0006\u0001\uffff\uffff\u0000\u0080\u0081"+
+		"\u0005,\u0000\u0000\u0081\u0082\u00052\u0000\u0000\u0082\u008c\u0006\u0001"+
+		"\uffff\uffff\u0000\u0083\u0084\u0005-\u0000\u0000\u0084\u008c\u0006\u0001"+
+		"\uffff\uffff\u0000\u0085\u0086\u0005.\u0000\u0000\u0086\u0087\u00052\u0000"+
+		"\u0000\u0087\u008c\u0006\u0001\uffff\uffff\u0000\u0088\u0089\u0005/\u0000"+
+		"\u0000\u0089\u008a\u00052\u0000\u0000\u008a\u008c\u0006\u0001\uffff\uffff"+
+		"\u0000\u008b\r\u0001\u0000\u0000\u0000\u008b\u0010\u0001\u0000\u0000\u0000"+
+		"\u008b\u0013\u0001\u0000\u0000\u0000\u008b\u0015\u0001\u0000\u0000\u0000"+
+		"\u008b\u0017\u0001\u0000\u0000\u0000\u008b\u0019\u0001\u0000\u0000\u0000"+
+		"\u008b\u001b\u0001\u0000\u0000\u0000\u008b\u001d\u0001\u0000\u0000\u0000"+
+		"\u008b\u001f\u0001\u0000\u0000\u0000\u008b!\u0001\u0000\u0000\u0000\u008b"+
+		"$\u0001\u0000\u0000\u0000\u008b\'\u0001\u0000\u0000\u0000\u008b*\u0001"+
+		"\u0000\u0000\u0000\u008b-\u0001\u0000\u0000\u0000\u008b/\u0001\u0000\u0000"+
+		"\u0000\u008b1\u0001\u0000\u0000\u0000\u008b3\u0001\u0000\u0000\u0000\u008b"+
+		"5\u0001\u0000\u0000\u0000\u008b7\u0001\u0000\u0000\u0000\u008b9\u0001"+
+		"\u0000\u0000\u0000\u008b;\u0001\u0000\u0000\u0000\u008b=\u0001\u0000\u0000"+
+		"\u0000\u008b?\u0001\u0000\u0000\u0000\u008bA\u0001\u0000\u0000\u0000\u008b"+
+		"C\u0001\u0000\u0000\u0000\u008bE\u0001\u0000\u0000\u0000\u008bH\u0001"+
+		"\u0000\u0000\u0000\u008bK\u0001\u0000\u0000\u0000\u008bM\u0001\u0000\u0000"+
+		"\u0000\u008bP\u0001\u0000\u0000\u0000\u008bS\u0001\u0000\u0000\u0000\u008b"+
+		"[\u0001\u0000\u0000\u0000\u008bb\u0001\u0000\u0000\u0000\u008bd\u0001"+
+		"\u0000\u0000\u0000\u008bf\u0001\u0000\u0000\u0000\u008bi\u0001\u0000\u0000"+
+		"\u0000\u008bl\u0001\u0000\u0000\u0000\u008bo\u0001\u0000\u0000\u0000\u008b"+
+		"q\u0001\u0000\u0000\u0000\u008bs\u0001\u0000\u0000\u0000\u008bu\u0001"+
+		"\u0000\u0000\u0000\u008bw\u0001\u0000\u0000\u0000\u008by\u0001\u0000\u0000"+
+		"\u0000\u008b{\u0001\u0000\u0000\u0000\u008b}\u0001\u0000\u0000\u0000\u008b"+
+		"\u0080\u0001\u0000\u0000\u0000\u008b\u0083\u0001\u0000\u0000\u0000\u008b"+
+		"\u0085\u0001\u0000\u0000\u0000\u008b\u0088\u0001\u0000\u0000\u0000\u008c"+
+		"\u0003\u0001\u0000\u0000\u0000\u0004\u0007X_\u008b";
 	public static final ATN _ATN =
 		new ATNDeserializer().deserialize(_serializedATN.toCharArray());
 	static {